@@ -0,0 +1,90 @@
+package coden.decks.core.firebase.card;
+
+import coden.decks.core.data.Card;
+import com.google.cloud.firestore.BenchmarkDocuments;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.firestore.v1.Document;
+import com.google.firestore.v1.MapValue;
+import com.google.firestore.v1.Value;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the hand-written {@link FirebaseCardDeserializer} with the former reflective
+ * {@link DocumentSnapshot#toObject(Class)} mapping to {@link FirebaseCard}, deserializing a deck and reading
+ * the last reviews several times, as the scheduler does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FirebaseCardDeserializerBenchmark {
+
+    /** The number of times the scheduler reads the last review of a card */
+    private static final int REVIEW_READS = 4;
+
+    @Param({"1000", "20000"})
+    private int deckSize;
+
+    private List<DocumentSnapshot> documents;
+    private FirebaseCardDeserializer deserializer;
+
+    @Setup
+    public void setUp() {
+        deserializer = new FirebaseCardDeserializer();
+        Random random = new Random(42);
+        documents = new ArrayList<>(deckSize);
+        for (int i = 0; i < deckSize; i++) {
+            Value lastReview = Value.newBuilder().setMapValue(MapValue.newBuilder()
+                    .putFields("epochSecond", Value.newBuilder().setIntegerValue(1_600_000_000L + random.nextInt(1_000_000)).build())
+                    .putFields("nano", Value.newBuilder().setIntegerValue(random.nextInt(1_000_000_000)).build()))
+                    .build();
+            Document document = Document.newBuilder()
+                    .setName("projects/benchmark/databases/(default)/documents/users/user/deck/front" + i)
+                    .putFields("frontSide", Value.newBuilder().setStringValue("front" + i).build())
+                    .putFields("backSide", Value.newBuilder().setStringValue("back" + i).build())
+                    .putFields("level", Value.newBuilder().setIntegerValue(random.nextInt(11)).build())
+                    .putFields("lastReview", lastReview)
+                    .build();
+            documents.add(BenchmarkDocuments.snapshot(document));
+        }
+    }
+
+    @Benchmark
+    public void handWritten(Blackhole blackhole) {
+        for (DocumentSnapshot document : documents) {
+            consume(deserializer.deserialize(document), blackhole);
+        }
+    }
+
+    @Benchmark
+    public void reflective(Blackhole blackhole) {
+        for (DocumentSnapshot document : documents) {
+            consume(document.toObject(FirebaseCard.class), blackhole);
+        }
+    }
+
+    private static void consume(Card card, Blackhole blackhole) {
+        for (int i = 0; i < REVIEW_READS; i++) {
+            blackhole.consume(card.getLastReview());
+        }
+        blackhole.consume(card.getLevel());
+    }
+}
@@ -0,0 +1,147 @@
+package coden.decks.core.revision;
+
+import coden.decks.core.data.Card;
+import coden.decks.core.data.SimpleCard;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Compares the table based {@link RevisionManagerImpl} with the former stream scanning implementation
+ * on the filter-and-sort workload of {@code Decks#getReadyCards()}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RevisionManagerBenchmark {
+
+    @Param({"1000", "20000", "50000"})
+    private int deckSize;
+
+    private List<Card> cards;
+    private RevisionManager table;
+    private RevisionManager scan;
+
+    @Setup
+    public void setUp() {
+        List<RevisionLevel> levels = new ArrayList<>();
+        for (int level = 0; level < 11; level++) {
+            levels.add(new RevisionLevel(level, Duration.ofHours(1L << level)));
+        }
+        table = new RevisionManagerImpl(levels);
+        scan = new ScanningRevisionManager(levels);
+
+        Random random = new Random(42);
+        Instant now = Instant.now();
+        cards = new ArrayList<>(deckSize);
+        for (int i = 0; i < deckSize; i++) {
+            cards.add(new SimpleCard.Builder()
+                    .setFrontSide("front" + i)
+                    .setBackSide("back" + i)
+                    .setLevel(random.nextInt(11))
+                    .setLastReview(now.minus(Duration.ofMinutes(random.nextInt(60 * 24 * 90))))
+                    .create());
+        }
+    }
+
+    @Benchmark
+    public List<Card> readyCardsTable() {
+        return readyCards(table);
+    }
+
+    @Benchmark
+    public List<Card> readyCardsScan() {
+        return readyCards(scan);
+    }
+
+    private List<Card> readyCards(RevisionManager revisor) {
+        int maxLevel = revisor.getMaxLevel();
+        return cards.stream()
+                .filter(card -> card.getLevel() < maxLevel)
+                .filter(revisor::isReady)
+                .sorted(Comparator.comparing((Function<Card, Duration>) revisor::getTimeToNextRevision).reversed())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * The former implementation, scanning the set of levels on every query
+     */
+    private static final class ScanningRevisionManager implements RevisionManager {
+        private final Set<RevisionLevel> levels = new HashSet<>();
+
+        ScanningRevisionManager(Collection<RevisionLevel> levels) {
+            setRevisionLevels(levels);
+        }
+
+        @Override
+        public int getMinLevel() {
+            return levels.stream()
+                    .min(Comparator.comparing(RevisionLevel::getLevel))
+                    .map(RevisionLevel::getLevel)
+                    .orElse(0);
+        }
+
+        @Override
+        public int getMaxLevel() {
+            return levels.stream()
+                    .max(Comparator.comparing(RevisionLevel::getLevel))
+                    .map(RevisionLevel::getLevel)
+                    .map(i -> i + 1)
+                    .orElse(0);
+        }
+
+        @Override
+        public Duration getTimeToNextRevision(int level) {
+            return levels.stream()
+                    .filter(entry -> entry.getLevel() == level)
+                    .findAny()
+                    .map(RevisionLevel::getDelayToNextRevision)
+                    .orElseThrow(() -> new RuntimeException("Unable to get next reminder delay"));
+        }
+
+        @Override
+        public Duration getTimeToNextRevision(Card card) {
+            return Duration.between(Instant.now(), getNextRevision(card));
+        }
+
+        @Override
+        public boolean isReady(Card card) {
+            return !Instant.now().isBefore(getNextRevision(card));
+        }
+
+        @Override
+        public Instant getNextRevision(Card card) {
+            return card.getLastReview().plus(getTimeToNextRevision(card.getLevel()));
+        }
+
+        @Override
+        public void setRevisionLevels(Collection<RevisionLevel> levels) {
+            this.levels.clear();
+            this.levels.addAll(levels);
+        }
+    }
+}
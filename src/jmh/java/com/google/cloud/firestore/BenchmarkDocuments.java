@@ -0,0 +1,25 @@
+package com.google.cloud.firestore;
+
+import com.google.cloud.Timestamp;
+import com.google.firestore.v1.Document;
+
+/**
+ * Creates {@link DocumentSnapshot}s from raw documents for the benchmarks, as the snapshots can only be
+ * created inside of the firestore package.
+ */
+public final class BenchmarkDocuments {
+
+    private BenchmarkDocuments() {
+    }
+
+    /**
+     * Creates a snapshot of the given document, as it would be received from the server
+     *
+     * @param document
+     *         the document
+     * @return the snapshot of the document
+     */
+    public static DocumentSnapshot snapshot(Document document) {
+        return DocumentSnapshot.fromDocument(null, Timestamp.now(), document);
+    }
+}
@@ -0,0 +1,102 @@
+package coden.decks.core.data;
+
+import static java.util.Objects.requireNonNull;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.time.Instant;
+import java.util.NoSuchElementException;
+import java.util.function.Supplier;
+
+/**
+ * Represents a {@link Card}, which back side is loaded on the first access. The front side, the level and
+ * the last review are known upfront, so the card can be scheduled without loading the possibly long back side.
+ * The back side is loaded at most once, blocking the first caller of {@link #getBackSide()}. If the loader
+ * does not find the back side, the access fails and the next access tries to load the back side again.
+ */
+@ThreadSafe
+public class LazyCard implements Card {
+
+    /** The front side of the card */
+    private final String frontSide;
+    /** The current level of memorizing the card */
+    private final int level;
+    /** The last review of the card */
+    private final Instant lastReview;
+    /** Loads the back side, {@code null} once the back side is loaded */
+    private Supplier<String> backSideLoader;
+    /** The back side of the card, {@code null} until loaded */
+    private volatile String backSide;
+
+    /**
+     * Creates a new card loading the back side with the given loader
+     *
+     * @param frontSide
+     *         the front side
+     * @param level
+     *         the level of progress of the card
+     * @param lastReview
+     *         the last review of the card
+     * @param backSideLoader
+     *         loads the back side on the first access
+     */
+    public LazyCard(String frontSide, int level, Instant lastReview, Supplier<String> backSideLoader) {
+        this.frontSide = requireNonNull(frontSide);
+        this.level = level;
+        this.lastReview = requireNonNull(lastReview);
+        this.backSideLoader = requireNonNull(backSideLoader);
+    }
+
+    @Override
+    public String getFrontSide() {
+        return frontSide;
+    }
+
+    /**
+     * Returns the back side, loading it on the first access
+     *
+     * @return the back side
+     * @throws NoSuchElementException
+     *         if the loader does not find the back side, for example, because the card was deleted
+     */
+    @Override
+    public String getBackSide() {
+        String loaded = backSide;
+        if (loaded == null) {
+            synchronized (this) {
+                loaded = backSide;
+                if (loaded == null) {
+                    loaded = backSideLoader.get();
+                    if (loaded == null) throw new NoSuchElementException("Back side of " + frontSide + " is missing");
+                    backSide = loaded;
+                    backSideLoader = null;
+                }
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Returns whether the back side is already loaded
+     *
+     * @return {@code true} if the back side is loaded, {@code false} otherwise
+     */
+    public boolean isLoaded() {
+        return backSide != null;
+    }
+
+    @Override
+    public int getLevel() {
+        return level;
+    }
+
+    @Override
+    public Instant getLastReview() {
+        return lastReview;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Card<%s:%s>", frontSide, isLoaded() ? backSide : "...");
+    }
+}
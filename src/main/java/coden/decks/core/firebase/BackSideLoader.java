@@ -0,0 +1,128 @@
+package coden.decks.core.firebase;
+
+import static coden.decks.core.firebase.card.FirebaseCardSerializer.BACK_SIDE;
+import static java.util.Objects.requireNonNull;
+
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldMask;
+import com.google.cloud.firestore.Firestore;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * The {@code BackSideLoader} loads the back sides of the documents returned by a projected query. The back side
+ * of a document is loaded together with the back sides of the following documents, that are not loaded yet,
+ * in a single {@link Firestore#getAll(DocumentReference[], FieldMask)} request of at most {@value #WINDOW}
+ * documents, as the cards are usually reviewed one after another.
+ * <p>
+ * The loads are not offloaded to the callback executor and no lock is held while waiting for them, so
+ * the back sides can be loaded on any thread, including the threads of the callback executor. At most
+ * {@value #MAX_PREFETCHED} prefetched back sides are kept, the oldest ones are dropped and loaded again
+ * if they are accessed later.
+ */
+@ThreadSafe
+class BackSideLoader {
+
+    /** The maximal number of back sides loaded by a single request */
+    static final int WINDOW = 20;
+    /** The maximal number of prefetched back sides kept */
+    static final int MAX_PREFETCHED = 2 * WINDOW;
+
+    /** The firestore to load the back sides from */
+    private final Firestore firestore;
+    /** The requests to make the loads with */
+    private final FirebaseRequests requests;
+    /** The documents of the query in the order of the query */
+    private final List<DocumentReference> documents;
+    /** The positions of the documents by their ids */
+    private final Map<String, Integer> positions;
+    /** The loading or loaded back sides, that were not accessed yet, by the ids of the documents, guarded by {@code this} */
+    private final Map<String, CompletableFuture<String>> backSides =
+            new LinkedHashMap<String, CompletableFuture<String>>(16, 0.75f, false) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CompletableFuture<String>> eldest) {
+                    return size() > MAX_PREFETCHED;
+                }
+            };
+
+    BackSideLoader(Firestore firestore, FirebaseRequests requests, List<DocumentReference> documents) {
+        this.firestore = requireNonNull(firestore);
+        this.requests = requireNonNull(requests);
+        this.documents = new ArrayList<>(documents);
+        this.positions = new HashMap<>();
+        for (int i = 0; i < this.documents.size(); i++) {
+            positions.put(this.documents.get(i).getId(), i);
+        }
+    }
+
+    /**
+     * Returns the back side of the given document, loading it with the following documents if it is not
+     * loaded yet. Blocks until the request is completed.
+     *
+     * @param id
+     *         the id of the document of the query
+     * @return the back side of the document
+     * @throws NoSuchElementException
+     *         if the document does not exist anymore
+     */
+    String load(String id) {
+        try {
+            return loadAsync(id).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the request of the back side of the given document, requesting it with the following documents
+     * if it is not requested yet. The request is handed out once, a later call requests the back side again.
+     *
+     * @param id
+     *         the id of the document of the query
+     * @return the request of the back side, failing with {@link NoSuchElementException} if the document does
+     * not exist anymore
+     */
+    synchronized CompletableFuture<String> loadAsync(String id) {
+        CompletableFuture<String> requested = backSides.remove(id);
+        if (requested != null) {
+            return requested;
+        }
+        Integer position = positions.get(id);
+        if (position == null) throw new IllegalArgumentException("Unknown document: " + id);
+        List<DocumentReference> window = new ArrayList<>(WINDOW);
+        for (int i = position; i < documents.size() && window.size() < WINDOW; i++) {
+            DocumentReference document = documents.get(i);
+            if (i == position || !backSides.containsKey(document.getId())) {
+                window.add(document);
+            }
+        }
+        DocumentReference[] references = window.toArray(new DocumentReference[0]);
+        CompletableFuture<List<DocumentSnapshot>> loaded =
+                requests.readInline(() -> firestore.getAll(references, FieldMask.of(BACK_SIDE)));
+        for (DocumentReference document : window) {
+            backSides.put(document.getId(), loaded.thenApply(snapshots -> backSideOf(snapshots, document.getId())));
+        }
+        return backSides.remove(id);
+    }
+
+    private static String backSideOf(List<DocumentSnapshot> snapshots, String id) {
+        for (DocumentSnapshot snapshot : snapshots) {
+            if (snapshot.getId().equals(id) && snapshot.exists()) {
+                String backSide = snapshot.getString(BACK_SIDE);
+                if (backSide != null) return backSide;
+            }
+        }
+        throw new NoSuchElementException("Card does not exist: " + id);
+    }
+}
@@ -4,49 +4,50 @@ import static java.util.Objects.requireNonNull;
 
 import coden.decks.core.data.Card;
 import coden.decks.core.data.CardDeserializer;
+import coden.decks.core.data.CardSerializer;
 import coden.decks.core.firebase.app.FirebaseAppFactory;
 import coden.decks.core.firebase.config.FirebaseConfig;
+import coden.decks.core.persistence.ChangeListener;
+import coden.decks.core.persistence.ChangeSubscription;
 import coden.decks.core.persistence.Database;
+import coden.decks.core.persistence.ProgressListener;
+import coden.decks.core.persistence.Projection;
+import coden.decks.core.persistence.UpdatedCards;
+import coden.decks.core.revision.RevisionManager;
 import coden.decks.core.user.User;
 import coden.decks.core.user.UserDeserializer;
 import coden.decks.core.user.UserNotProvidedException;
-import com.google.api.core.ApiFuture;
-import com.google.api.core.ApiFutureCallback;
-import com.google.api.core.ApiFutures;
-import com.google.cloud.firestore.CollectionReference;
 import com.google.cloud.firestore.DocumentSnapshot;
-import com.google.cloud.firestore.Firestore;
-import com.google.cloud.firestore.QuerySnapshot;
-import com.google.cloud.firestore.WriteResult;
-import com.google.common.util.concurrent.MoreExecutors;
-import com.google.firebase.FirebaseApp;
-import com.google.firebase.cloud.FirestoreClient;
 
 import java.io.InputStream;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
 import java.util.stream.Stream;
 
 /**
- * Represents a Firebase implementation of the {@link Database}
+ * Represents a Firebase implementation of the {@link Database}, switching between the {@link FirebaseSession}s
+ * of its users. The requests are made by the session of the user current at the time of the request, and all
+ * the sessions share the connections of a single {@link FirebaseClient}.
+ * <p>
+ * If created with a {@link RevisionManager}, each written card document is stamped with its next revision
+ * time in the {@value #NEXT_REVISION} field, so that {@link #getDueBefore(Instant, int)} can be answered by
+ * the server. Documents written before have to be stamped with {@link #stampNextRevisions(User)} (see
+ * {@link NextRevisionBackfill}), which also has to be run after the revision levels change.
  */
 public class Firebase implements Database {
 
-    /** A mapper that deserializes internal {@link DocumentSnapshot} to {@link Card} */
-    private final CardDeserializer<DocumentSnapshot> cardUnmarshaller;
-    /** A mapper that deserializes internal {@link DocumentSnapshot} to {@link User} */
-    private final UserDeserializer<DocumentSnapshot> userDeserializer;
-    /** A firebase config containing path to decks and users */
-    private final FirebaseConfig config;
-    /** An internal interface to firebase to make the requests */
-    private final Firestore firestore;
-    /** Created app for this current session of database connection */
-    private final FirebaseApp app;
-
-    /** The current user of the collections */
-    private User user;
-    /** The collection referencing the deck collection containing all the cards */
-    private CollectionReference deck;
+    /** The name of the field containing the next revision time of the card */
+    public static final String NEXT_REVISION = FirebaseClient.NEXT_REVISION;
+
+    /** The client creating the sessions */
+    private final FirebaseClient client;
+    /** Whether the client was created by and has to be closed with this database */
+    private final boolean ownsClient;
+    /** The session of the current user */
+    private volatile FirebaseSession session;
 
     /**
      * Creates a new database connection to firebase
@@ -62,11 +63,68 @@ public class Firebase implements Database {
      */
     public Firebase(CardDeserializer<DocumentSnapshot> cardDeserializer, UserDeserializer<DocumentSnapshot> userDeserializer,
                     FirebaseConfig config, InputStream serviceAccount, FirebaseAppFactory factory) throws Exception {
-        this.cardUnmarshaller = requireNonNull(cardDeserializer);
-        this.userDeserializer = requireNonNull(userDeserializer);
-        this.config = requireNonNull(config);
-        this.app = requireNonNull(factory).create(config, serviceAccount);
-        this.firestore = FirestoreClient.getFirestore(app);
+        this(cardDeserializer, userDeserializer, config, serviceAccount, factory, null);
+    }
+
+    /**
+     * Creates a new database connection to firebase, that stamps the written cards with
+     * their next revision time.
+     *
+     * @param cardDeserializer
+     *         to deserialize internal representation of cards to {@link Card}s
+     * @param userDeserializer
+     *         to deserialize internal representation of user tos {@link User}s
+     * @param config
+     *         the firebase config
+     * @param factory
+     *         the firebase factory to create app instances
+     * @param revisor
+     *         the revision manager to compute the next revision time of the cards, may be {@code null}
+     */
+    public Firebase(CardDeserializer<DocumentSnapshot> cardDeserializer, UserDeserializer<DocumentSnapshot> userDeserializer,
+                    FirebaseConfig config, InputStream serviceAccount, FirebaseAppFactory factory,
+                    RevisionManager revisor) throws Exception {
+        this(new FirebaseClient(cardDeserializer, userDeserializer, config, serviceAccount, factory, revisor), true);
+    }
+
+    /**
+     * Creates a new database connection to firebase, that writes the cards with the given serializer and
+     * stamps them with their next revision time.
+     *
+     * @param cardSerializer
+     *         to serialize the {@link Card}s to the document fields of the full writes
+     * @param cardDeserializer
+     *         to deserialize internal representation of cards to {@link Card}s
+     * @param userDeserializer
+     *         to deserialize internal representation of user tos {@link User}s
+     * @param config
+     *         the firebase config
+     * @param factory
+     *         the firebase factory to create app instances
+     * @param revisor
+     *         the revision manager to compute the next revision time of the cards, may be {@code null}
+     */
+    public Firebase(CardSerializer<Map<String, Object>> cardSerializer, CardDeserializer<DocumentSnapshot> cardDeserializer,
+                    UserDeserializer<DocumentSnapshot> userDeserializer, FirebaseConfig config,
+                    InputStream serviceAccount, FirebaseAppFactory factory, RevisionManager revisor) throws Exception {
+        this(new FirebaseClient(cardSerializer, cardDeserializer, userDeserializer, config, serviceAccount, factory,
+                revisor, RequestOptions.DEFAULT), true);
+    }
+
+    /**
+     * Creates a new database switching between the sessions of the given client. The client is not closed
+     * with this database.
+     *
+     * @param client
+     *         the client creating the sessions
+     */
+    public Firebase(FirebaseClient client) {
+        this(client, false);
+    }
+
+    private Firebase(FirebaseClient client, boolean ownsClient) {
+        this.client = requireNonNull(client);
+        this.ownsClient = ownsClient;
     }
 
     /**
@@ -76,165 +134,164 @@ public class Firebase implements Database {
      */
     @Override
     public User getUser() {
-        return user;
+        FirebaseSession current = session;
+        return current == null ? null : current.getUser();
     }
 
     /**
-     * Updates the user, thus changing the deck reference
+     * Updates the user, thus switching to the session of the user
      *
      * @param newUser
      *         the user to set
      */
     @Override
     public void setUser(User newUser) {
-        if (!Objects.equals(this.user, newUser)) {
-            this.user = requireNonNull(newUser);
-            this.deck = null;
+        if (!Objects.equals(getUser(), newUser)) {
+            this.session = client.session(requireNonNull(newUser));
         }
     }
 
+    /**
+     * Returns the session of the current user
+     *
+     * @return the session of the current user
+     * @throws UserNotProvidedException
+     *         if user was not set
+     */
+    public FirebaseSession getSession() throws UserNotProvidedException {
+        FirebaseSession current = session;
+        if (current == null) throw new UserNotProvidedException();
+        return current;
+    }
+
     @Override
     public CompletableFuture<Stream<User>> getAllUsers() {
-        ApiFuture<QuerySnapshot> allUsersFuture = firestore.collection(config.userCollection).get();
-        return createCompletableFuture(allUsersFuture)
-                .thenApply(this::asUsers);
+        return client.getAllUsers();
     }
 
     @Override
     public CompletableFuture<Stream<Card>> getAllEntries() throws UserNotProvidedException {
-        ApiFuture<QuerySnapshot> getAllEntriesFuture = getCurrentDeck().get();
-        return createCompletableFuture(getAllEntriesFuture).
-                thenApply(this::asCards);
+        return getSession().getAllEntries();
     }
 
+    /**
+     * Returns all the cards of the current user page by page
+     *
+     * @param pageSize
+     *         the maximal number of cards of a page
+     * @return the pages of cards, with the first page requested
+     * @throws UserNotProvidedException
+     *         if no user is set
+     * @see FirebaseSession#getAllEntries(int)
+     */
+    public QueryPages<Card> getAllEntries(int pageSize) throws UserNotProvidedException {
+        return getSession().getAllEntries(pageSize);
+    }
+
+    /**
+     * Returns all the users page by page
+     *
+     * @param pageSize
+     *         the maximal number of users of a page
+     * @return the pages of users, with the first page requested
+     * @see FirebaseClient#getAllUsers(int)
+     */
+    public QueryPages<User> getAllUsers(int pageSize) {
+        return client.getAllUsers(pageSize);
+    }
 
     @Override
     public CompletableFuture<Stream<Card>> getGreaterOrEqualLevel(int level) throws UserNotProvidedException {
-        ApiFuture<QuerySnapshot> getGreaterOrEqualLevelFuture = getCurrentDeck()
-                .whereGreaterThanOrEqualTo("level", level)
-                .get();
-        return createCompletableFuture(getGreaterOrEqualLevelFuture)
-                .thenApply(this::asCards);
+        return getSession().getGreaterOrEqualLevel(level);
     }
 
     @Override
     public CompletableFuture<Stream<Card>> getLessOrEqualLevel(int level) throws UserNotProvidedException {
-        ApiFuture<QuerySnapshot> getLessOrEqualLevelFuture = getCurrentDeck()
-                .whereLessThanOrEqualTo("level", level)
-                .get();
-        return createCompletableFuture(getLessOrEqualLevelFuture)
-                .thenApply(this::asCards);
+        return getSession().getLessOrEqualLevel(level);
+    }
+
+    @Override
+    public CompletableFuture<Stream<Card>> getLessOrEqualLevel(int level, Projection projection)
+            throws UserNotProvidedException {
+        return getSession().getLessOrEqualLevel(level, projection);
+    }
+
+    /**
+     * Queries the cards by the {@value #NEXT_REVISION} field. Only stamped documents are found.
+     *
+     * @throws IllegalStateException
+     *         if the firebase was created without a revision manager
+     */
+    @Override
+    public CompletableFuture<Stream<Card>> getDueBefore(Instant time, int limit) throws UserNotProvidedException {
+        return getSession().getDueBefore(time, limit);
+    }
+
+    @Override
+    public CompletableFuture<UpdatedCards> getUpdatedSince(Instant time) throws UserNotProvidedException {
+        return getSession().getUpdatedSince(time);
     }
 
     @Override
     public CompletableFuture<Void> deleteEntry(Card card) throws UserNotProvidedException {
-        ApiFuture<WriteResult> deleteFuture = getCurrentDeck()
-                .document(card.getFrontSide())
-                .delete();
-        return createCompletableFuture(deleteFuture)
-                .thenApply(writeResult -> null);
+        return getSession().deleteEntry(card);
     }
 
     @Override
-    public CompletableFuture<Void> addOrUpdateEntry(Card card) {
-        ApiFuture<WriteResult> addOrUpdateFuture = getCurrentDeck()
-                .document(card.getFrontSide())
-                .set(card);
-        return createCompletableFuture(addOrUpdateFuture)
-                .thenApply(writeResult -> null);
+    public CompletableFuture<Void> addOrUpdateEntry(Card card) throws UserNotProvidedException {
+        return getSession().addOrUpdateEntry(card);
     }
 
-    /**
-     * Returns the working deck collection for the given user. If it is not created
-     * creates a new deck.
-     *
-     * @return the deck
-     */
-    private CollectionReference getCurrentDeck() {
-        if (deck == null) {
-            deck = requestDeckCollection();
-        }
-        return deck;
+    @Override
+    public CompletableFuture<Void> updateReview(Card card) throws UserNotProvidedException {
+        return getSession().updateReview(card);
     }
 
-    /**
-     * Helper method to update a {@link CollectionReference} for the specified user
-     *
-     * @return a new collection reference to deck collection
-     * @throws UserNotProvidedException
-     *         if user was not set
-     */
-    private CollectionReference requestDeckCollection() {
-        if (user == null) throw new UserNotProvidedException();
-        return firestore.collection(config.userCollection)
-                .document(user.getName())
-                .collection(config.deckCollection);
+    @Override
+    public CompletableFuture<Void> updateReviews(Collection<? extends Card> cards) throws UserNotProvidedException {
+        return getSession().updateReviews(cards);
     }
 
-    /**
-     * Converts a {@link CompletableFuture} from the given {@link ApiFuture}
-     *
-     * @param querySnapshotApiFuture
-     *         the api future provided by firebase api
-     * @return a new {@link CompletableFuture}
-     */
-    private <T> CompletableFuture<T> createCompletableFuture(ApiFuture<T> querySnapshotApiFuture) {
-        CompletableFuture<T> completableFuture = new CompletableFuture<>();
-        ApiFutures.addCallback(querySnapshotApiFuture, createCallback(completableFuture), MoreExecutors.directExecutor());
-        return completableFuture;
+    @Override
+    public CompletableFuture<Void> addOrUpdateEntries(Collection<? extends Card> cards) throws UserNotProvidedException {
+        return getSession().addOrUpdateEntries(cards);
     }
 
-    /**
-     * Creates a callback that will be added to {@link ApiFuture} completing the give
-     * {@link CompletableFuture}
-     *
-     * @param completableFuture
-     *         the completable future to pass the result to
-     * @param <T>
-     *         the result type of completable future and api future callback
-     * @return the new api future callback that will trigger completable future on success
-     */
-    private <T> ApiFutureCallback<T> createCallback(CompletableFuture<T> completableFuture) {
-        return new ApiFutureCallback<T>() {
-            @Override
-            public void onFailure(Throwable t) {
-            }
+    @Override
+    public CompletableFuture<Integer> addOrUpdateEntries(Stream<? extends Card> cards, ProgressListener listener)
+            throws UserNotProvidedException {
+        return getSession().addOrUpdateEntries(cards, listener);
+    }
 
-            @Override
-            public void onSuccess(T result) {
-                completableFuture.complete(result);
-            }
-        };
+    @Override
+    public CompletableFuture<Void> deleteEntries(Collection<? extends Card> cards) throws UserNotProvidedException {
+        return getSession().deleteEntries(cards);
     }
 
-    /**
-     * Converts the given {@link QuerySnapshot} to stream of {@link Card}s
-     *
-     * @param snapshot
-     *         the snapshot to convert
-     * @return the stream of cards contained by the given query snapshot
-     */
-    private Stream<Card> asCards(QuerySnapshot snapshot) {
-        return snapshot.getDocuments().stream().map(cardUnmarshaller::deserialize);
+    @Override
+    public ChangeSubscription addChangeListener(ChangeListener listener) throws UserNotProvidedException {
+        return getSession().addChangeListener(listener);
     }
 
     /**
-     * Converts the given {@link QuerySnapshot} to stream of {@link User}s
+     * Stamps all the card documents of the given user with their next revision time, computed with
+     * the current revision levels. The documents are updated in batches.
      *
-     * @param snapshot
-     *         the snapshot to convert
-     * @return the stream of users contained by the given query snapshot
+     * @param user
+     *         the user, which cards have to be stamped
+     * @return the request returning the number of stamped cards
+     * @throws IllegalStateException
+     *         if the firebase was created without a revision manager
      */
-    private Stream<User> asUsers(QuerySnapshot snapshot) {
-        return snapshot.getDocuments().stream().map(userDeserializer::deserialize);
+    public CompletableFuture<Integer> stampNextRevisions(User user) {
+        return client.session(user).stampNextRevisions();
     }
 
     /**
-     * Closes the firebase and deletes the created app.
+     * Closes the firebase and deletes the created app, if the client is owned by this database.
      */
     @Override
     public void close() throws Exception {
-        firestore.close();
-        app.delete();
+        if (ownsClient) client.close();
     }
 }
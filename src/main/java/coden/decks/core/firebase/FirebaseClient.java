@@ -0,0 +1,622 @@
+package coden.decks.core.firebase;
+
+import static java.util.Objects.requireNonNull;
+
+import coden.decks.core.data.Card;
+import coden.decks.core.data.CardDeserializer;
+import coden.decks.core.data.CardSerializer;
+import coden.decks.core.data.LazyCard;
+import coden.decks.core.firebase.app.FirebaseAppFactory;
+import coden.decks.core.firebase.card.FirebaseCardSerializer;
+import coden.decks.core.firebase.config.FirebaseConfig;
+import coden.decks.core.persistence.CardChange;
+import coden.decks.core.persistence.Database;
+import coden.decks.core.persistence.OffloadExecutor;
+import coden.decks.core.persistence.ProgressListener;
+import coden.decks.core.persistence.UpdatedCards;
+import coden.decks.core.revision.RevisionManager;
+import coden.decks.core.user.User;
+import coden.decks.core.user.UserDeserializer;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentChange;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldPath;
+import com.google.cloud.firestore.FieldValue;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.Query;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.QuerySnapshot;
+import com.google.cloud.firestore.WriteBatch;
+import com.google.firebase.FirebaseApp;
+import com.google.firebase.cloud.FirestoreClient;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * The {@code FirebaseClient} owns a single {@link FirebaseApp} with its {@link Firestore} client and creates
+ * {@link FirebaseSession}s, the lightweight immutable views of the decks of single users. All the sessions
+ * share the connections of the client, so the requests of many users can be made concurrently without
+ * creating an app per user and without switching the user of a shared database. Where a {@link Database} is
+ * needed, each user can get its own {@link Firebase} sharing the client.
+ * <p>
+ * If created with a {@link RevisionManager}, each written card document is stamped with its next revision
+ * time in the {@value #NEXT_REVISION} field. Each write stamps the document with the server time of the write in
+ * the {@value #UPDATE_TIME} field, so the changed cards can be queried independent of the clocks of the clients.
+ * A deleted card leaves a tombstone stamped with the server time of the deletion in a collection next to the deck,
+ * named with the suffix {@value #DELETIONS_SUFFIX}, so the deletions can be queried the same way. The tombstones
+ * are kept, a tombstone of a card added again is ignored.
+ */
+@ThreadSafe
+public class FirebaseClient implements AutoCloseable {
+
+    /** The name of the field containing the next revision time of the card */
+    public static final String NEXT_REVISION = "nextRevision";
+    /** The name of the field containing the server time of the last write of the card */
+    public static final String UPDATE_TIME = "updateTime";
+    /** The suffix of the name of the collection of the deletion tombstones, appended to the deck collection */
+    public static final String DELETIONS_SUFFIX = "-deletions";
+    /** The maximal number of writes in a single batch, as limited by firestore */
+    static final int MAX_BATCH_SIZE = 500;
+    /** The maximal number of batches of a single bulk operation being committed at the same time */
+    static final int MAX_IN_FLIGHT_BATCHES = 4;
+
+    /** A mapper that serializes {@link Card}s to the document fields */
+    private final CardSerializer<Map<String, Object>> cardSerializer;
+    /** A mapper that deserializes internal {@link DocumentSnapshot} to {@link Card} */
+    private final CardDeserializer<DocumentSnapshot> cardUnmarshaller;
+    /** A mapper that deserializes internal {@link DocumentSnapshot} to {@link User} */
+    private final UserDeserializer<DocumentSnapshot> userDeserializer;
+    /** A firebase config containing path to decks and users */
+    private final FirebaseConfig config;
+    /** An internal interface to firebase to make the requests */
+    private final Firestore firestore;
+    /** Created app for this client */
+    private final FirebaseApp app;
+    /** The revision manager to compute the next revision of the cards, may be {@code null} */
+    private final RevisionManager revisor;
+    /** Makes the requests with deadlines, retries and hedging */
+    private final FirebaseRequests requests;
+
+    /**
+     * Creates a new client connected to firebase
+     *
+     * @param cardDeserializer
+     *         to deserialize internal representation of cards to {@link Card}s
+     * @param userDeserializer
+     *         to deserialize internal representation of user tos {@link User}s
+     * @param config
+     *         the firebase config
+     * @param factory
+     *         the firebase factory to create the app
+     * @param revisor
+     *         the revision manager to compute the next revision time of the cards, may be {@code null}
+     */
+    public FirebaseClient(CardDeserializer<DocumentSnapshot> cardDeserializer, UserDeserializer<DocumentSnapshot> userDeserializer,
+                          FirebaseConfig config, InputStream serviceAccount, FirebaseAppFactory factory,
+                          RevisionManager revisor) throws Exception {
+        this(cardDeserializer, userDeserializer, config, serviceAccount, factory, revisor, RequestOptions.DEFAULT);
+    }
+
+    /**
+     * Creates a new client connected to firebase, making the requests with the given options
+     *
+     * @param cardDeserializer
+     *         to deserialize internal representation of cards to {@link Card}s
+     * @param userDeserializer
+     *         to deserialize internal representation of user tos {@link User}s
+     * @param config
+     *         the firebase config
+     * @param factory
+     *         the firebase factory to create the app
+     * @param revisor
+     *         the revision manager to compute the next revision time of the cards, may be {@code null}
+     * @param options
+     *         the deadlines, retries and hedging of the requests
+     */
+    public FirebaseClient(CardDeserializer<DocumentSnapshot> cardDeserializer, UserDeserializer<DocumentSnapshot> userDeserializer,
+                          FirebaseConfig config, InputStream serviceAccount, FirebaseAppFactory factory,
+                          RevisionManager revisor, RequestOptions options) throws Exception {
+        this(new FirebaseCardSerializer(), cardDeserializer, userDeserializer, config, serviceAccount, factory,
+                revisor, options);
+    }
+
+    /**
+     * Creates a new client connected to firebase, writing the cards with the given serializer
+     *
+     * @param cardSerializer
+     *         to serialize the {@link Card}s to the document fields of the full writes
+     * @param cardDeserializer
+     *         to deserialize internal representation of cards to {@link Card}s
+     * @param userDeserializer
+     *         to deserialize internal representation of user tos {@link User}s
+     * @param config
+     *         the firebase config
+     * @param factory
+     *         the firebase factory to create the app
+     * @param revisor
+     *         the revision manager to compute the next revision time of the cards, may be {@code null}
+     * @param options
+     *         the deadlines, retries and hedging of the requests
+     */
+    public FirebaseClient(CardSerializer<Map<String, Object>> cardSerializer,
+                          CardDeserializer<DocumentSnapshot> cardDeserializer, UserDeserializer<DocumentSnapshot> userDeserializer,
+                          FirebaseConfig config, InputStream serviceAccount, FirebaseAppFactory factory,
+                          RevisionManager revisor, RequestOptions options) throws Exception {
+        this.cardSerializer = requireNonNull(cardSerializer);
+        this.cardUnmarshaller = requireNonNull(cardDeserializer);
+        this.userDeserializer = requireNonNull(userDeserializer);
+        this.config = requireNonNull(config);
+        this.app = requireNonNull(factory).create(config, serviceAccount);
+        this.firestore = FirestoreClient.getFirestore(app);
+        this.revisor = revisor;
+        this.requests = new FirebaseRequests(options);
+    }
+
+    /**
+     * Creates a session of the given user. The session is cheap to create and can be shared between threads.
+     *
+     * @param user
+     *         the user of the session
+     * @return a new session
+     */
+    public FirebaseSession session(User user) {
+        CollectionReference deck = requestDeckCollection(requireNonNull(user));
+        return new FirebaseSession(this, user, deck, requestDeletionCollection(deck));
+    }
+
+    /**
+     * Returns all the users
+     *
+     * @return the request to get stream of all users
+     */
+    public CompletableFuture<Stream<User>> getAllUsers() {
+        CollectionReference users = firestore.collection(config.userCollection);
+        return requests.read(users::get)
+                .thenApply(this::asUsers);
+    }
+
+    /**
+     * Returns the users page by page, ordered by their ids
+     *
+     * @param pageSize
+     *         the maximal number of users of a page
+     * @return the pages of users, with the first page requested
+     */
+    public QueryPages<User> getAllUsers(int pageSize) {
+        return paginate(firestore.collection(config.userCollection), pageSize, userDeserializer::deserialize);
+    }
+
+    /**
+     * Paginates the given query by the document ids, fetching the next page after the last document of the
+     * previous page
+     *
+     * @param query
+     *         the query to paginate
+     * @param pageSize
+     *         the maximal number of documents of a page
+     * @param mapper
+     *         maps the documents to the items
+     * @return the pages of the query, with the first page requested
+     */
+    <T> QueryPages<T> paginate(Query query, int pageSize, Function<? super QueryDocumentSnapshot, ? extends T> mapper) {
+        if (pageSize <= 0) throw new IllegalArgumentException("Page size must be positive: " + pageSize);
+        Query ordered = query.orderBy(FieldPath.documentId()).limit(pageSize);
+        return new QueryPages<>(cursor -> requests.read(() -> cursor == null
+                ? ordered.get()
+                : ordered.startAfter(cursor).get()), pageSize, mapper);
+    }
+
+    /**
+     * Returns whether the written cards are stamped with their next revision time
+     *
+     * @return {@code true} if the client has a revision manager, {@code false} otherwise
+     */
+    boolean isStamping() {
+        return revisor != null;
+    }
+
+    /**
+     * Writes the given items in batches of at most {@value #MAX_BATCH_SIZE} writes, with at most
+     * {@value #MAX_IN_FLIGHT_BATCHES} batches being committed at the same time.
+     *
+     * @param items
+     *         the items to write
+     * @param listener
+     *         the listener to notify about the written items
+     * @param write
+     *         adds the write of a single item to a batch
+     * @return the request returning the number of written items
+     */
+    <T> CompletableFuture<Integer> commitInBatches(Iterator<? extends T> items, ProgressListener listener,
+                                                   BiConsumer<WriteBatch, T> write) {
+        return commitInBatches(items, listener, write, MAX_BATCH_SIZE);
+    }
+
+    /**
+     * Writes the given items like {@link #commitInBatches(Iterator, ProgressListener, BiConsumer)}, in batches of
+     * at most the given number of items, for the items written with several writes each
+     *
+     * @param items
+     *         the items to write
+     * @param listener
+     *         the listener to notify about the written items
+     * @param write
+     *         adds the writes of a single item to a batch
+     * @param batchSize
+     *         the maximal number of items of a batch
+     * @return the request returning the number of written items
+     */
+    <T> CompletableFuture<Integer> commitInBatches(Iterator<? extends T> items, ProgressListener listener,
+                                                   BiConsumer<WriteBatch, T> write, int batchSize) {
+        return new BatchCommitter<T>(items, listener, write, batchSize).start();
+    }
+
+    /**
+     * Adds the update of the next revision time of the given document to the given batch
+     *
+     * @param batch
+     *         the batch to add the update to
+     * @param document
+     *         the document to stamp
+     */
+    void stamp(WriteBatch batch, QueryDocumentSnapshot document) {
+        Timestamp nextRevision = getNextRevision(cardUnmarshaller.deserialize(document));
+        batch.update(document.getReference(), NEXT_REVISION, nextRevision == null ? FieldValue.delete() : nextRevision);
+    }
+
+    /**
+     * Converts the given card to the document fields, including the next revision time and the update time.
+     * The fields of the serializer are copied, so it may return unmodifiable or shared maps.
+     *
+     * @param card
+     *         the card to convert
+     * @return the document fields
+     */
+    Map<String, Object> asDocument(Card card) {
+        Map<String, Object> document = new HashMap<>(cardSerializer.serialize(card));
+        Timestamp nextRevision = getNextRevision(card);
+        if (nextRevision != null) {
+            document.put(NEXT_REVISION, nextRevision);
+        }
+        document.put(UPDATE_TIME, FieldValue.serverTimestamp());
+        return document;
+    }
+
+    /**
+     * Returns the fields of the tombstone of a deleted card: the server time of the deletion
+     *
+     * @return the fields of the tombstone
+     */
+    Map<String, Object> asTombstone() {
+        return Collections.singletonMap(UPDATE_TIME, FieldValue.serverTimestamp());
+    }
+
+    /**
+     * Converts the review state of the given card to the fields of a partial update: the
+     * {@value FirebaseCardSerializer#LEVEL}, the {@value FirebaseCardSerializer#LAST_REVIEW}, the update time
+     * and the next revision time, if stamped. The fields are written in the format of {@link FirebaseCardSerializer}, as
+     * read by the deserializers, and the other fields of the card are not read.
+     *
+     * @param card
+     *         the reviewed card
+     * @return the fields to update
+     */
+    Map<String, Object> asReviewUpdate(Card card) {
+        Map<String, Object> update = new HashMap<>();
+        update.put(FirebaseCardSerializer.LEVEL, card.getLevel());
+        update.put(FirebaseCardSerializer.LAST_REVIEW, FirebaseCardSerializer.serializeInstant(card.getLastReview()));
+        update.put(UPDATE_TIME, FieldValue.serverTimestamp());
+        if (isStamping()) {
+            Timestamp nextRevision = getNextRevision(card);
+            update.put(NEXT_REVISION, nextRevision == null ? FieldValue.delete() : nextRevision);
+        }
+        return update;
+    }
+
+    /**
+     * Computes the next revision time of the given card
+     *
+     * @param card
+     *         the card
+     * @return the next revision time or {@code null} if not computable or the card is done
+     */
+    private Timestamp getNextRevision(Card card) {
+        if (revisor == null || card.getLevel() >= revisor.getMaxLevel()) return null;
+        return toTimestamp(revisor.getNextRevision(card));
+    }
+
+    static Timestamp toTimestamp(Instant instant) {
+        return Timestamp.ofTimeSecondsAndNanos(instant.getEpochSecond(), instant.getNano());
+    }
+
+    static Instant toInstant(Timestamp timestamp) {
+        return Instant.ofEpochSecond(timestamp.getSeconds(), timestamp.getNanos());
+    }
+
+    /**
+     * Helper method to create a {@link CollectionReference} for the given user
+     *
+     * @param user
+     *         the user of the deck
+     * @return a new collection reference to deck collection
+     */
+    private CollectionReference requestDeckCollection(User user) {
+        return firestore.collection(config.userCollection)
+                .document(user.getName())
+                .collection(config.deckCollection);
+    }
+
+    /**
+     * Helper method to create a {@link CollectionReference} of the deletion tombstones of the given deck
+     *
+     * @param deck
+     *         the deck collection
+     * @return a new collection reference to the deletion collection next to the deck
+     */
+    private static CollectionReference requestDeletionCollection(CollectionReference deck) {
+        return deck.getParent().collection(deck.getId() + DELETIONS_SUFFIX);
+    }
+
+    /**
+     * Returns the executor completing the requests of this client, to monitor its queue depth and the time
+     * the transport threads spend handing the results over
+     *
+     * @return the executor
+     */
+    public OffloadExecutor getCallbackExecutor() {
+        return requests.getCallbackExecutor();
+    }
+
+    /**
+     * Returns the requests of this client
+     *
+     * @return the requests
+     */
+    FirebaseRequests requests() {
+        return requests;
+    }
+
+    /**
+     * Converts the given document to a {@link Card}
+     *
+     * @param document
+     *         the document to convert
+     * @return the card contained by the given document
+     */
+    Card asCard(DocumentSnapshot document) {
+        return cardUnmarshaller.deserialize(document);
+    }
+
+    /**
+     * Converts the given {@link QuerySnapshot} to stream of {@link Card}s
+     *
+     * @param snapshot
+     *         the snapshot to convert
+     * @return the stream of cards contained by the given query snapshot
+     */
+    Stream<Card> asCards(QuerySnapshot snapshot) {
+        return snapshot.getDocuments().stream().map(cardUnmarshaller::deserialize);
+    }
+
+    /**
+     * Converts the given {@link QuerySnapshot}s of the cards and of the tombstones to the {@link UpdatedCards} with
+     * the latest {@value #UPDATE_TIME} of their documents. A tombstone of a card, that exists, is left out, as the
+     * card was added again after the deletion.
+     *
+     * @param snapshot
+     *         the snapshot of the cards to convert
+     * @param tombstones
+     *         the snapshot of the tombstones to convert
+     * @param time
+     *         the queried time, returned as the latest update if no document has a later one
+     * @return the updated and the removed cards contained by the given query snapshots
+     */
+    UpdatedCards asUpdatedCards(QuerySnapshot snapshot, QuerySnapshot tombstones, Instant time) {
+        List<Card> cards = new ArrayList<>(snapshot.size());
+        Set<String> frontSides = new HashSet<>();
+        Instant latest = time;
+        for (QueryDocumentSnapshot document : snapshot.getDocuments()) {
+            Card card = cardUnmarshaller.deserialize(document);
+            cards.add(card);
+            frontSides.add(card.getFrontSide());
+            latest = later(latest, document.getTimestamp(UPDATE_TIME));
+        }
+        List<String> removed = new ArrayList<>(tombstones.size());
+        for (QueryDocumentSnapshot tombstone : tombstones.getDocuments()) {
+            if (!frontSides.contains(tombstone.getId())) removed.add(tombstone.getId());
+            latest = later(latest, tombstone.getTimestamp(UPDATE_TIME));
+        }
+        return new UpdatedCards(cards, removed, latest);
+    }
+
+    private static Instant later(Instant instant, Timestamp timestamp) {
+        return timestamp != null && toInstant(timestamp).isAfter(instant) ? toInstant(timestamp) : instant;
+    }
+
+    /**
+     * Converts the given {@link QuerySnapshot} of a query projected to the scheduling fields to stream
+     * of {@link LazyCard}s, which back sides are loaded on the first access
+     *
+     * @param snapshot
+     *         the snapshot of the projected query to convert
+     * @return the stream of cards contained by the given query snapshot
+     */
+    Stream<Card> asLazyCards(QuerySnapshot snapshot) {
+        List<QueryDocumentSnapshot> documents = snapshot.getDocuments();
+        List<DocumentReference> references = new ArrayList<>(documents.size());
+        for (QueryDocumentSnapshot document : documents) {
+            references.add(document.getReference());
+        }
+        BackSideLoader loader = new BackSideLoader(firestore, requests, references);
+        return documents.stream().map(document -> {
+            Card card = cardUnmarshaller.deserialize(document);
+            String id = document.getId();
+            return new LazyCard(card.getFrontSide(), card.getLevel(), card.getLastReview(), () -> loader.load(id));
+        });
+    }
+
+    /**
+     * Converts the document changes of the given {@link QuerySnapshot} to the list of {@link CardChange}s
+     *
+     * @param snapshot
+     *         the snapshot to convert
+     * @return the list of card changes contained by the given query snapshot
+     */
+    List<CardChange> asChanges(QuerySnapshot snapshot) {
+        List<DocumentChange> documentChanges = snapshot.getDocumentChanges();
+        List<CardChange> changes = new ArrayList<>(documentChanges.size());
+        for (DocumentChange change : documentChanges) {
+            changes.add(new CardChange(asChangeType(change.getType()), cardUnmarshaller.deserialize(change.getDocument())));
+        }
+        return changes;
+    }
+
+    private static CardChange.Type asChangeType(DocumentChange.Type type) {
+        switch (type) {
+            case ADDED:
+                return CardChange.Type.ADDED;
+            case MODIFIED:
+                return CardChange.Type.MODIFIED;
+            case REMOVED:
+                return CardChange.Type.REMOVED;
+            default:
+                throw new IllegalArgumentException("Unknown change type: " + type);
+        }
+    }
+
+    /**
+     * Converts the given {@link QuerySnapshot} to stream of {@link User}s
+     *
+     * @param snapshot
+     *         the snapshot to convert
+     * @return the stream of users contained by the given query snapshot
+     */
+    private Stream<User> asUsers(QuerySnapshot snapshot) {
+        return snapshot.getDocuments().stream().map(userDeserializer::deserialize);
+    }
+
+    /**
+     * Closes the firestore client and deletes the created app. The sessions must not be used afterwards.
+     */
+    @Override
+    public void close() throws Exception {
+        requests.close();
+        firestore.close();
+        app.delete();
+    }
+
+    /**
+     * The {@code BatchCommitter} writes the items of an iterator in batches of a given number of items, keeping at most {@value #MAX_IN_FLIGHT_BATCHES} batches in flight. A new batch is taken from
+     * the iterator only when a previous commit is done, so the iterator is consumed at the pace of the server.
+     *
+     * @param <T>
+     *         the type of items
+     */
+    private final class BatchCommitter<T> {
+        /** The items to write, guarded by {@code this} */
+        private final Iterator<? extends T> items;
+        /** The listener to notify about the written items */
+        private final ProgressListener listener;
+        /** Adds the writes of a single item to a batch */
+        private final BiConsumer<WriteBatch, T> write;
+        /** The maximal number of items of a batch */
+        private final int batchSize;
+        /** Completed with the number of written items, when all the batches are committed */
+        private final CompletableFuture<Integer> result = new CompletableFuture<>();
+        /** The number of batches being committed, guarded by {@code this} */
+        private int inFlight;
+        /** The number of written items, guarded by {@code this} */
+        private int written;
+        /** Guards notifying the listener, so the reported progress never goes backwards */
+        private final Object progressLock = new Object();
+        /** The number of written items last reported to the listener, guarded by {@code progressLock} */
+        private int reported;
+
+        BatchCommitter(Iterator<? extends T> items, ProgressListener listener, BiConsumer<WriteBatch, T> write,
+                       int batchSize) {
+            this.items = items;
+            this.listener = requireNonNull(listener);
+            this.write = write;
+            this.batchSize = batchSize;
+        }
+
+        /**
+         * Starts committing the first batches
+         *
+         * @return the request returning the number of written items
+         */
+        CompletableFuture<Integer> start() {
+            for (int i = 0; i < MAX_IN_FLIGHT_BATCHES; i++) {
+                commitNext();
+            }
+            return result;
+        }
+
+        /**
+         * Takes the next batch from the iterator and commits it, or completes the result if all
+         * the items are written
+         */
+        private void commitNext() {
+            WriteBatch batch = firestore.batch();
+            int size = 0;
+            synchronized (this) {
+                if (result.isDone()) return;
+                try {
+                    while (size < batchSize && items.hasNext()) {
+                        write.accept(batch, items.next());
+                        size++;
+                    }
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                    return;
+                }
+                if (size == 0) {
+                    if (inFlight == 0) result.complete(written);
+                    return;
+                }
+                inFlight++;
+            }
+            int batchSize = size;
+            requests.write(batch.commit())
+                    .whenComplete((results, failure) -> onCommitted(batchSize, failure));
+        }
+
+        private void onCommitted(int batchSize, Throwable failure) {
+            int done;
+            synchronized (this) {
+                inFlight--;
+                if (failure != null) {
+                    result.completeExceptionally(failure);
+                    return;
+                }
+                written += batchSize;
+                done = written;
+            }
+            synchronized (progressLock) {
+                // a later batch may have reported a greater number already
+                if (done > reported) {
+                    reported = done;
+                    listener.onProgress(done);
+                }
+            }
+            commitNext();
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package coden.decks.core.firebase;
+
+import static java.util.Objects.requireNonNull;
+
+import coden.decks.core.persistence.OffloadExecutor;
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.StatusCode;
+import com.google.cloud.BaseServiceException;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * The {@code FirebaseRequests} converts the {@link ApiFuture}s of the firestore requests to
+ * {@link CompletableFuture}s, applying the {@link RequestOptions}: the deadline of each attempt, the retries
+ * of the reads after transient failures and the hedging of the latency sensitive reads.
+ * <p>
+ * Every returned future is completed, either with the result or exceptionally with the failure of the last
+ * attempt, so the callers never wait forever. The timers of the deadlines, backoffs and hedges run on a single
+ * shared daemon thread and are removed as soon as they are cancelled.
+ * <p>
+ * The returned futures are completed on the {@link OffloadExecutor} of the options, or on an own one, so the
+ * dependent stages of the callers do not run on the transport threads of the firestore client.
+ */
+@ThreadSafe
+class FirebaseRequests implements AutoCloseable {
+
+    /** The options of the requests */
+    private final RequestOptions options;
+    /** The timer of the deadlines, backoffs and hedges */
+    private final ScheduledThreadPoolExecutor timer;
+    /** The executor completing the returned futures */
+    private final OffloadExecutor callbackExecutor;
+    /** Whether the executor was created by and has to be closed with the requests */
+    private final boolean ownsCallbackExecutor;
+
+    FirebaseRequests(RequestOptions options) {
+        this.options = requireNonNull(options);
+        this.ownsCallbackExecutor = options.getCallbackExecutor() == null;
+        this.callbackExecutor = ownsCallbackExecutor ? OffloadExecutor.create() : options.getCallbackExecutor();
+        this.timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "firebase-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Makes an idempotent read, retried after transient failures
+     *
+     * @param request
+     *         makes a single attempt of the read
+     * @return the request
+     */
+    <T> CompletableFuture<T> read(Supplier<ApiFuture<T>> request) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        attempt(() -> call(request.get()), 1, result);
+        return callbackExecutor.offload(result);
+    }
+
+    /**
+     * Makes an idempotent read, retried after transient failures, like {@link #read(Supplier)}, but completes
+     * the returned future on the thread completing the request instead of the callback executor, so it can be
+     * waited for on the threads of the callback executor. The dependent stages must not block.
+     *
+     * @param request
+     *         makes a single attempt of the read
+     * @return the request
+     */
+    <T> CompletableFuture<T> readInline(Supplier<ApiFuture<T>> request) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        attempt(() -> call(request.get()), 1, result);
+        return result;
+    }
+
+    /**
+     * Makes an idempotent read, retried after transient failures. Each attempt is hedged, if the options
+     * define a hedge delay.
+     *
+     * @param request
+     *         makes a single call of the read
+     * @return the request
+     */
+    <T> CompletableFuture<T> hedgedRead(Supplier<ApiFuture<T>> request) {
+        Duration hedgeDelay = options.getHedgeDelay();
+        if (hedgeDelay == null) {
+            return read(request);
+        }
+        CompletableFuture<T> result = new CompletableFuture<>();
+        attempt(() -> hedge(request, hedgeDelay), 1, result);
+        return callbackExecutor.offload(result);
+    }
+
+    /**
+     * Makes a single attempt of a write
+     *
+     * @param write
+     *         the write
+     * @return the request
+     */
+    <T> CompletableFuture<T> write(ApiFuture<T> write) {
+        return callbackExecutor.offload(call(write));
+    }
+
+    /**
+     * Returns the executor completing the requests
+     *
+     * @return the executor
+     */
+    OffloadExecutor getCallbackExecutor() {
+        return callbackExecutor;
+    }
+
+    /**
+     * Makes the given attempt and retries after a backoff, if it failed transiently and attempts are left
+     */
+    private <T> void attempt(Supplier<CompletableFuture<T>> call, int attempt, CompletableFuture<T> result) {
+        call.get().whenComplete((value, failure) -> {
+            if (failure == null) {
+                result.complete(value);
+                return;
+            }
+            Throwable cause = unwrap(failure);
+            RetryPolicy retryPolicy = options.getRetryPolicy();
+            if (attempt >= retryPolicy.getMaxAttempts() || !isTransient(cause) || timer.isShutdown()) {
+                result.completeExceptionally(cause);
+                return;
+            }
+            timer.schedule(() -> attempt(call, attempt + 1, result),
+                    retryPolicy.getBackoff(attempt).toNanos(), TimeUnit.NANOSECONDS);
+        });
+    }
+
+    /**
+     * Makes the call and, if it does not complete within the given delay, a second identical call.
+     * The first successful response wins and the other call is cancelled.
+     */
+    private <T> CompletableFuture<T> hedge(Supplier<ApiFuture<T>> request, Duration hedgeDelay) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        List<CompletableFuture<T>> calls = new CopyOnWriteArrayList<>();
+        AtomicInteger pending = new AtomicInteger(1);
+        BiConsumer<T, Throwable> forward = (value, failure) -> {
+            if (failure == null) {
+                cancelAll(calls);
+                result.complete(value);
+            } else if (pending.decrementAndGet() == 0) {
+                result.completeExceptionally(failure);
+            }
+        };
+        CompletableFuture<T> first = call(request.get());
+        calls.add(first);
+        first.whenComplete(forward);
+        ScheduledFuture<?> hedge = timer.schedule(() -> {
+            // if no call is pending, the result has already failed
+            if (result.isDone() || pending.getAndIncrement() == 0) return;
+            CompletableFuture<T> second = call(request.get());
+            calls.add(second);
+            second.whenComplete(forward);
+        }, hedgeDelay.toNanos(), TimeUnit.NANOSECONDS);
+        result.whenComplete((value, failure) -> {
+            hedge.cancel(false);
+            cancelAll(calls);
+        });
+        return result;
+    }
+
+    private static void cancelAll(List<? extends CompletableFuture<?>> calls) {
+        for (CompletableFuture<?> call : calls) {
+            call.cancel(false);
+        }
+    }
+
+    /**
+     * Converts the given api future, failing it after the deadline. Cancelling the returned future
+     * cancels the api future.
+     */
+    private <T> CompletableFuture<T> call(ApiFuture<T> apiFuture) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        ApiFutures.addCallback(apiFuture, createCallback(future), MoreExecutors.directExecutor());
+        Duration deadline = options.getDeadline();
+        ScheduledFuture<?> timeout = deadline == null ? null : timer.schedule(
+                () -> future.completeExceptionally(new TimeoutException("Deadline of " + deadline + " exceeded")),
+                deadline.toNanos(), TimeUnit.NANOSECONDS);
+        // the result completes after the clean up, so the api future is cancelled before the callers see the failure
+        CompletableFuture<T> result = new CompletableFuture<>();
+        future.whenComplete((value, failure) -> {
+            if (timeout != null) timeout.cancel(false);
+            if (failure != null) apiFuture.cancel(true);
+            if (failure == null) result.complete(value);
+            else result.completeExceptionally(failure);
+        });
+        result.whenComplete((value, failure) -> {
+            if (result.isCancelled()) future.cancel(false);
+        });
+        return result;
+    }
+
+    /**
+     * Creates a callback that will be added to {@link ApiFuture} completing the give
+     * {@link CompletableFuture}
+     *
+     * @param completableFuture
+     *         the completable future to pass the result to
+     * @param <T>
+     *         the result type of completable future and api future callback
+     * @return the new api future callback that will complete the completable future
+     */
+    private static <T> ApiFutureCallback<T> createCallback(CompletableFuture<T> completableFuture) {
+        return new ApiFutureCallback<T>() {
+            @Override
+            public void onFailure(Throwable t) {
+                completableFuture.completeExceptionally(t);
+            }
+
+            @Override
+            public void onSuccess(T result) {
+                completableFuture.complete(result);
+            }
+        };
+    }
+
+    /**
+     * Returns whether the given failure is transient, so the request can be retried
+     *
+     * @param failure
+     *         the failure of the request
+     * @return {@code true} if the request can be retried, {@code false} otherwise
+     */
+    static boolean isTransient(Throwable failure) {
+        if (failure instanceof TimeoutException) return true;
+        if (failure instanceof ApiException) return ((ApiException) failure).isRetryable();
+        if (failure instanceof BaseServiceException) return ((BaseServiceException) failure).isRetryable();
+        return false;
+    }
+
+    /**
+     * Returns whether the given failure reports a missing document
+     *
+     * @param failure
+     *         the failure of the request
+     * @return {@code true} if the document of the request does not exist, {@code false} otherwise
+     */
+    static boolean isNotFound(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ApiException
+                    && ((ApiException) cause).getStatusCode().getCode() == StatusCode.Code.NOT_FOUND) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Throwable unwrap(Throwable failure) {
+        while ((failure instanceof CompletionException || failure instanceof ExecutionException)
+                && failure.getCause() != null) {
+            failure = failure.getCause();
+        }
+        return failure;
+    }
+
+    /**
+     * Stops the timer and the own executor. The pending requests are not retried and do not time out anymore.
+     */
+    @Override
+    public void close() {
+        timer.shutdownNow();
+        if (ownsCallbackExecutor) callbackExecutor.close();
+    }
+}
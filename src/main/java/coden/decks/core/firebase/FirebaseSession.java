@@ -0,0 +1,294 @@
+package coden.decks.core.firebase;
+
+import static coden.decks.core.firebase.FirebaseClient.NEXT_REVISION;
+import static coden.decks.core.firebase.FirebaseClient.UPDATE_TIME;
+import static coden.decks.core.firebase.card.FirebaseCardSerializer.FRONT_SIDE;
+import static coden.decks.core.firebase.card.FirebaseCardSerializer.LAST_REVIEW;
+import static coden.decks.core.firebase.card.FirebaseCardSerializer.LEVEL;
+import static java.util.Objects.requireNonNull;
+
+import coden.decks.core.data.Card;
+import coden.decks.core.persistence.ChangeListener;
+import coden.decks.core.persistence.ChangeSubscription;
+import coden.decks.core.persistence.Database;
+import coden.decks.core.persistence.ProgressListener;
+import coden.decks.core.persistence.Projection;
+import coden.decks.core.persistence.UpdatedCards;
+import coden.decks.core.user.User;
+import com.google.api.core.ApiFuture;
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.ListenerRegistration;
+import com.google.cloud.firestore.Query;
+import com.google.cloud.firestore.WriteResult;
+
+import javax.annotation.concurrent.Immutable;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+/**
+ * The {@code FirebaseSession} is an immutable view of the deck of a single user, created by
+ * {@link FirebaseClient#session(User)}. The deck collection is resolved once, and the session shares the
+ * connections of its client, so sessions of different users can be used concurrently without locking.
+ * <p>
+ * The session provides the requests of a {@link Database}, but as its user cannot be changed, it is not a
+ * {@code Database} itself. The {@link Firebase} database switches between the sessions of its users.
+ */
+@Immutable
+public final class FirebaseSession {
+
+    /** The client making the requests */
+    private final FirebaseClient client;
+    /** The user of the session */
+    private final User user;
+    /** The collection referencing the deck collection containing all the cards of the user */
+    private final CollectionReference deck;
+    /** The collection of the tombstones of the deleted cards of the user */
+    private final CollectionReference deletions;
+
+    FirebaseSession(FirebaseClient client, User user, CollectionReference deck, CollectionReference deletions) {
+        this.client = client;
+        this.user = user;
+        this.deck = deck;
+        this.deletions = deletions;
+    }
+
+    /**
+     * Returns the user of the session
+     *
+     * @return the user
+     */
+    public User getUser() {
+        return user;
+    }
+
+    /**
+     * Returns all the users of the client
+     *
+     * @see Database#getAllUsers()
+     */
+    public CompletableFuture<Stream<User>> getAllUsers() {
+        return client.getAllUsers();
+    }
+
+    /**
+     * Returns all the cards of the user
+     *
+     * @see Database#getAllEntries()
+     */
+    public CompletableFuture<Stream<Card>> getAllEntries() {
+        return client.requests().read(deck::get)
+                .thenApply(client::asCards);
+    }
+
+    /**
+     * Returns all the cards page by page, ordered by their front sides. Only the current page and the
+     * prefetched next page are held in memory, so the deck can be processed in constant memory.
+     *
+     * @param pageSize
+     *         the maximal number of cards of a page
+     * @return the pages of cards, with the first page requested
+     */
+    public QueryPages<Card> getAllEntries(int pageSize) {
+        return client.paginate(deck, pageSize, client::asCard);
+    }
+
+    /**
+     * Queries the cards with the given level or greater
+     *
+     * @see Database#getGreaterOrEqualLevel(int)
+     */
+    public CompletableFuture<Stream<Card>> getGreaterOrEqualLevel(int level) {
+        Query query = deck.whereGreaterThanOrEqualTo(LEVEL, level);
+        return client.requests().read(query::get)
+                .thenApply(client::asCards);
+    }
+
+    /**
+     * Queries the unfinished cards, hedged if the request options define a hedge delay.
+     */
+    public CompletableFuture<Stream<Card>> getLessOrEqualLevel(int level) {
+        Query query = deck.whereLessThanOrEqualTo(LEVEL, level);
+        return client.requests().hedgedRead(query::get)
+                .thenApply(client::asCards);
+    }
+
+    /**
+     * Queries the unfinished cards, hedged if the request options define a hedge delay. The
+     * {@link Projection#SCHEDULING} query does not download the back sides: they are loaded on the first
+     * access, together with the back sides of the following cards of the query.
+     */
+    public CompletableFuture<Stream<Card>> getLessOrEqualLevel(int level, Projection projection) {
+        if (projection == Projection.FULL) return getLessOrEqualLevel(level);
+        Query query = deck.whereLessThanOrEqualTo(LEVEL, level)
+                .select(FRONT_SIDE, LEVEL, LAST_REVIEW);
+        return client.requests().hedgedRead(query::get)
+                .thenApply(client::asLazyCards);
+    }
+
+    /**
+     * Queries the cards by the {@value FirebaseClient#NEXT_REVISION} field. Only stamped documents are found.
+     * The query is hedged, if the request options define a hedge delay.
+     *
+     * @throws IllegalStateException
+     *         if the client was created without a revision manager
+     */
+    public CompletableFuture<Stream<Card>> getDueBefore(Instant time, int limit) {
+        if (!client.isStamping()) throw new IllegalStateException("Next revisions are not stamped without a revision manager");
+        Query query = deck
+                .whereLessThanOrEqualTo(NEXT_REVISION, FirebaseClient.toTimestamp(time))
+                .orderBy(NEXT_REVISION, Query.Direction.DESCENDING)
+                .limit(limit);
+        return client.requests().hedgedRead(query::get)
+                .thenApply(client::asCards);
+    }
+
+    /**
+     * Queries the cards and the tombstones of the deleted cards by their {@value FirebaseClient#UPDATE_TIME},
+     * stamped by the server on each write. The documents written before the update times were stamped are
+     * returned only by the queries since {@link Instant#EPOCH} or earlier, which read the whole deck. The
+     * tombstones are queried first, so a card added again after the query of its tombstone is found.
+     */
+    public CompletableFuture<UpdatedCards> getUpdatedSince(Instant time) {
+        Query tombstones = deletions.whereGreaterThanOrEqualTo(UPDATE_TIME, FirebaseClient.toTimestamp(time));
+        Query query = time.isAfter(Instant.EPOCH)
+                ? deck.whereGreaterThanOrEqualTo(UPDATE_TIME, FirebaseClient.toTimestamp(time))
+                : deck;
+        return client.requests().read(tombstones::get)
+                .thenCompose(removed -> client.requests().read(query::get)
+                        .thenApply(snapshot -> client.asUpdatedCards(snapshot, removed, time)));
+    }
+
+    /**
+     * Deletes the card document and leaves its tombstone in a single batch
+     *
+     * @see Database#deleteEntry(Card)
+     */
+    public CompletableFuture<Void> deleteEntry(Card card) {
+        return deleteEntries(Collections.singletonList(card));
+    }
+
+    /**
+     * Writes the whole card document
+     *
+     * @see Database#addOrUpdateEntry(Card)
+     */
+    public CompletableFuture<Void> addOrUpdateEntry(Card card) {
+        ApiFuture<WriteResult> addOrUpdateFuture = deck
+                .document(card.getFrontSide())
+                .set(client.asDocument(card));
+        return client.requests().write(addOrUpdateFuture)
+                .thenApply(writeResult -> null);
+    }
+
+    /**
+     * Updates only the level, the last review and the next revision time of the card document,
+     * so neither the sides of the card are sent nor the concurrent updates of other fields are overwritten.
+     * Fails with {@link NoSuchElementException} if the document does not exist.
+     */
+    public CompletableFuture<Void> updateReview(Card card) {
+        ApiFuture<WriteResult> updateFuture = deck
+                .document(card.getFrontSide())
+                .update(client.asReviewUpdate(card));
+        return client.requests().write(updateFuture)
+                .handle((writeResult, failure) -> missingIfNotFound(failure, "Card does not exist: " + card.getFrontSide()));
+    }
+
+    /**
+     * Updates the reviews of the given cards like {@link #updateReview(Card)}, in batches of at most
+     * {@value FirebaseClient#MAX_BATCH_SIZE} cards. A batch fails as a whole with {@link NoSuchElementException},
+     * if any of its documents does not exist.
+     */
+    public CompletableFuture<Void> updateReviews(Collection<? extends Card> cards) {
+        return client.<Card>commitInBatches(cards.iterator(), done -> {},
+                (batch, card) -> batch.update(deck.document(card.getFrontSide()), client.asReviewUpdate(card)))
+                .handle((count, failure) -> missingIfNotFound(failure, "A card of the batch does not exist"));
+    }
+
+    /**
+     * Rethrows the given failure of an update, replacing the failures of missing documents with
+     * {@link NoSuchElementException}
+     *
+     * @param failure
+     *         the failure or {@code null} if the update succeeded
+     * @param message
+     *         the message of the missing document
+     * @return {@code null} if the update succeeded
+     */
+    private static Void missingIfNotFound(Throwable failure, String message) {
+        if (failure == null) return null;
+        if (FirebaseRequests.isNotFound(failure)) throw new NoSuchElementException(message);
+        throw failure instanceof CompletionException ? (CompletionException) failure : new CompletionException(failure);
+    }
+
+    /**
+     * Writes the given cards in batches of at most {@value FirebaseClient#MAX_BATCH_SIZE} cards.
+     */
+    public CompletableFuture<Void> addOrUpdateEntries(Collection<? extends Card> cards) {
+        return addOrUpdateEntries(cards.stream(), done -> {})
+                .thenApply(count -> null);
+    }
+
+    /**
+     * Writes the given cards in batches of at most {@value FirebaseClient#MAX_BATCH_SIZE} cards, with at most
+     * {@value FirebaseClient#MAX_IN_FLIGHT_BATCHES} batches being committed at the same time. The next batch is
+     * taken from the stream only when a commit slot is free. If the stream contains several cards with
+     * the same front side, it is unspecified which one is written last.
+     */
+    public CompletableFuture<Integer> addOrUpdateEntries(Stream<? extends Card> cards, ProgressListener listener) {
+        return client.<Card>commitInBatches(cards.iterator(), listener,
+                (batch, card) -> batch.set(deck.document(card.getFrontSide()), client.asDocument(card)));
+    }
+
+    /**
+     * Deletes the given cards and leaves their tombstones, in batches of at most half of
+     * {@value FirebaseClient#MAX_BATCH_SIZE} cards, as each card takes two writes.
+     */
+    public CompletableFuture<Void> deleteEntries(Collection<? extends Card> cards) {
+        return client.<Card>commitInBatches(cards.iterator(), done -> {}, (batch, card) -> {
+            batch.delete(deck.document(card.getFrontSide()));
+            batch.set(deletions.document(card.getFrontSide()), client.asTombstone());
+        }, FirebaseClient.MAX_BATCH_SIZE / 2)
+                .thenApply(count -> null);
+    }
+
+    /**
+     * Registers a snapshot listener on the deck collection of the user. Only the document changes
+     * of each snapshot are converted and delivered, so the whole deck is transferred only once.
+     * The first snapshot is always delivered, even if the deck is empty, the later snapshots only if
+     * they contain changes.
+     */
+    public ChangeSubscription addChangeListener(ChangeListener listener) {
+        requireNonNull(listener);
+        AtomicBoolean first = new AtomicBoolean(true);
+        ListenerRegistration registration = deck.addSnapshotListener((snapshot, error) -> {
+            if (error != null) {
+                listener.onError(error);
+            } else if (snapshot != null && (first.getAndSet(false) || !snapshot.getDocumentChanges().isEmpty())) {
+                listener.onChanges(client.asChanges(snapshot));
+            }
+        });
+        return registration::remove;
+    }
+
+    /**
+     * Stamps all the card documents of the user with their next revision time, computed with
+     * the current revision levels. The documents are updated in batches.
+     *
+     * @return the request returning the number of stamped cards
+     * @throws IllegalStateException
+     *         if the client was created without a revision manager
+     */
+    public CompletableFuture<Integer> stampNextRevisions() {
+        if (!client.isStamping()) throw new IllegalStateException("Next revisions are not stamped without a revision manager");
+        return client.requests().read(deck::get)
+                .thenCompose(snapshot -> client.commitInBatches(snapshot.getDocuments().iterator(), done -> {},
+                        client::stamp));
+    }
+}
@@ -0,0 +1,49 @@
+package coden.decks.core.firebase;
+
+import static java.util.Objects.requireNonNull;
+
+import coden.decks.core.user.User;
+
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The {@code NextRevisionBackfill} stamps the card documents of all users with their next revision time.
+ * It has to be run once to migrate the decks written before the stamping was introduced and
+ * every time the revision levels change, since the stamped times depend on them.
+ *
+ * @see Firebase#stampNextRevisions(User)
+ */
+public class NextRevisionBackfill {
+
+    /** The firebase to stamp the decks of */
+    private final Firebase firebase;
+
+    /**
+     * Creates a new backfill for the given firebase
+     *
+     * @param firebase
+     *         the firebase created with a revision manager
+     */
+    public NextRevisionBackfill(Firebase firebase) {
+        this.firebase = requireNonNull(firebase);
+    }
+
+    /**
+     * Stamps the decks of all users, one user after another to keep the load bounded.
+     *
+     * @return the request returning the total number of stamped cards
+     */
+    public CompletableFuture<Integer> run() {
+        return firebase.getAllUsers()
+                .thenCompose(users -> stamp(users.iterator(), 0));
+    }
+
+    private CompletableFuture<Integer> stamp(Iterator<User> users, int stamped) {
+        if (!users.hasNext()) {
+            return CompletableFuture.completedFuture(stamped);
+        }
+        return firebase.stampNextRevisions(users.next())
+                .thenCompose(count -> stamp(users, stamped + count));
+    }
+}
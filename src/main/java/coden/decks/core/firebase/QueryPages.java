@@ -0,0 +1,102 @@
+package coden.decks.core.firebase;
+
+import static java.util.Objects.requireNonNull;
+
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.QuerySnapshot;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+/**
+ * The {@code QueryPages} iterates over the results of a query page by page, using the last document of a page
+ * as the cursor of the next one. The next page is requested as soon as the current one is returned, so it is
+ * fetched while the current page is processed, but it is not requested before the current page is returned:
+ * apart from the page held by the caller, at most one page is resident at a time.
+ * <p>
+ * The results are not a consistent snapshot of the collection, as every page is read at a different time.
+ * Closing the pages cancels the pending request.
+ *
+ * @param <T>
+ *         the type of the items of the pages
+ */
+@NotThreadSafe
+public final class QueryPages<T> implements Iterator<List<T>>, AutoCloseable {
+
+    /** Requests the page following the given cursor, or the first page if the cursor is {@code null} */
+    private final Function<DocumentSnapshot, CompletableFuture<QuerySnapshot>> fetch;
+    /** The maximal number of items of a page */
+    private final int pageSize;
+    /** Maps the documents to the items */
+    private final Function<? super QueryDocumentSnapshot, ? extends T> mapper;
+    /** The request of the next page, {@code null} if there are no more pages */
+    private CompletableFuture<QuerySnapshot> next;
+
+    /**
+     * Creates new pages and requests the first page
+     *
+     * @param fetch
+     *         requests at most {@code pageSize} documents following the given cursor, or the first documents
+     *         if the cursor is {@code null}
+     * @param pageSize
+     *         the maximal number of items of a page
+     * @param mapper
+     *         maps the documents to the items
+     */
+    QueryPages(Function<DocumentSnapshot, CompletableFuture<QuerySnapshot>> fetch, int pageSize,
+               Function<? super QueryDocumentSnapshot, ? extends T> mapper) {
+        if (pageSize <= 0) throw new IllegalArgumentException("Page size must be positive: " + pageSize);
+        this.fetch = requireNonNull(fetch);
+        this.pageSize = pageSize;
+        this.mapper = requireNonNull(mapper);
+        this.next = fetch.apply(null);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) return false;
+        if (next.join().isEmpty()) {
+            next = null;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the next page, waiting for it if it is not fetched yet, and requests the following page
+     *
+     * @return the next page
+     * @throws CompletionException
+     *         if the page could not be fetched
+     */
+    @Override
+    public List<T> next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        List<QueryDocumentSnapshot> documents = next.join().getDocuments();
+        next = documents.size() < pageSize ? null : fetch.apply(documents.get(documents.size() - 1));
+        List<T> page = new ArrayList<>(documents.size());
+        for (QueryDocumentSnapshot document : documents) {
+            page.add(mapper.apply(document));
+        }
+        return page;
+    }
+
+    /**
+     * Cancels the request of the next page
+     */
+    @Override
+    public void close() {
+        if (next != null) {
+            next.cancel(false);
+            next = null;
+        }
+    }
+}
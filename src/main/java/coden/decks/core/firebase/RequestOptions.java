@@ -0,0 +1,158 @@
+package coden.decks.core.firebase;
+
+import static java.util.Objects.requireNonNull;
+
+import coden.decks.core.persistence.OffloadExecutor;
+
+import javax.annotation.concurrent.Immutable;
+
+import java.time.Duration;
+
+/**
+ * The {@code RequestOptions} define how the {@link FirebaseClient} makes its requests:
+ * <ul>
+ * <li>the deadline of each attempt of a request, after which the attempt fails with a
+ * {@link java.util.concurrent.TimeoutException} and the RPC is cancelled;</li>
+ * <li>the {@link RetryPolicy} of the idempotent reads, retried after transient failures;</li>
+ * <li>the hedge delay of the latency sensitive reads, after which a second identical read is made
+ * and the first response wins;</li>
+ * <li>the {@link OffloadExecutor} completing the requests, so that the dependent stages do not run on
+ * the transport threads.</li>
+ * </ul>
+ */
+@Immutable
+public final class RequestOptions {
+
+    /** The default options: 30 seconds deadline, 3 attempts of reads, no hedging */
+    public static final RequestOptions DEFAULT = new Builder().create();
+
+    /** The deadline of each attempt, {@code null} if unbounded */
+    private final Duration deadline;
+    /** The retry policy of the reads */
+    private final RetryPolicy retryPolicy;
+    /** The delay of the hedged read, {@code null} if not hedged */
+    private final Duration hedgeDelay;
+    /** The executor completing the requests, {@code null} if created by each client */
+    private final OffloadExecutor callbackExecutor;
+
+    private RequestOptions(Duration deadline, RetryPolicy retryPolicy, Duration hedgeDelay,
+                           OffloadExecutor callbackExecutor) {
+        this.deadline = deadline;
+        this.retryPolicy = retryPolicy;
+        this.hedgeDelay = hedgeDelay;
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * Returns the deadline of each attempt of a request
+     *
+     * @return the deadline or {@code null} if unbounded
+     */
+    public Duration getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Returns the retry policy of the reads
+     *
+     * @return the retry policy
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Returns the delay, after which a hedged read is made
+     *
+     * @return the delay or {@code null} if the reads are not hedged
+     */
+    public Duration getHedgeDelay() {
+        return hedgeDelay;
+    }
+
+    /**
+     * Returns the executor completing the requests
+     *
+     * @return the executor or {@code null} if each client creates its own with {@link OffloadExecutor#create()}
+     */
+    public OffloadExecutor getCallbackExecutor() {
+        return callbackExecutor;
+    }
+
+    /**
+     * The builder of {@link RequestOptions}
+     */
+    public static class Builder {
+        private Duration deadline = Duration.ofSeconds(30);
+        private RetryPolicy retryPolicy = new RetryPolicy(3, Duration.ofMillis(100), Duration.ofSeconds(2), 2);
+        private Duration hedgeDelay;
+        private OffloadExecutor callbackExecutor;
+
+        /**
+         * Sets the deadline of each attempt of a request
+         *
+         * @param deadline
+         *         the deadline or {@code null} for unbounded requests
+         * @return this builder
+         */
+        public Builder setDeadline(Duration deadline) {
+            this.deadline = deadline;
+            return this;
+        }
+
+        /**
+         * Sets the retry policy of the idempotent reads
+         *
+         * @param retryPolicy
+         *         the retry policy or {@link RetryPolicy#NONE} to make a single attempt
+         * @return this builder
+         */
+        public Builder setRetryPolicy(RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        /**
+         * Sets the delay, after which a hedged read is made
+         *
+         * @param hedgeDelay
+         *         the delay or {@code null} to disable hedging
+         * @return this builder
+         */
+        public Builder setHedgeDelay(Duration hedgeDelay) {
+            this.hedgeDelay = hedgeDelay;
+            return this;
+        }
+
+        /**
+         * Sets the executor completing the requests. The executor is shared and not closed by the clients.
+         *
+         * @param callbackExecutor
+         *         the executor or {@code null} to let each client create its own
+         * @return this builder
+         */
+        public Builder setCallbackExecutor(OffloadExecutor callbackExecutor) {
+            this.callbackExecutor = callbackExecutor;
+            return this;
+        }
+
+        /**
+         * Creates {@link RequestOptions}
+         *
+         * @return new {@link RequestOptions}
+         */
+        public RequestOptions create() {
+            validate();
+            return new RequestOptions(deadline, requireNonNull(retryPolicy), hedgeDelay, callbackExecutor);
+        }
+
+        private void validate() {
+            if (deadline != null && (deadline.isNegative() || deadline.isZero())) {
+                throw new IllegalArgumentException("Deadline must be positive: " + deadline);
+            }
+            if (hedgeDelay != null && hedgeDelay.isNegative()) {
+                throw new IllegalArgumentException("Hedge delay must not be negative: " + hedgeDelay);
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package coden.decks.core.firebase;
+
+import javax.annotation.concurrent.Immutable;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The {@code RetryPolicy} defines how many times a failed idempotent request is attempted and how long to wait
+ * between the attempts. The waits grow exponentially up to a maximum and are fully jittered, i.e. chosen
+ * randomly between zero and the current backoff, so that the retries of many clients do not come in waves.
+ */
+@Immutable
+public final class RetryPolicy {
+
+    /** The policy making a single attempt */
+    public static final RetryPolicy NONE = new RetryPolicy(1, Duration.ZERO, Duration.ZERO, 1);
+
+    /** The maximal number of attempts, including the first one */
+    private final int maxAttempts;
+    /** The backoff after the first attempt */
+    private final Duration initialBackoff;
+    /** The maximal backoff */
+    private final Duration maxBackoff;
+    /** The factor the backoff grows by after each attempt */
+    private final double multiplier;
+
+    /**
+     * Creates a new retry policy
+     *
+     * @param maxAttempts
+     *         the maximal number of attempts, including the first one
+     * @param initialBackoff
+     *         the backoff after the first attempt
+     * @param maxBackoff
+     *         the maximal backoff
+     * @param multiplier
+     *         the factor the backoff grows by after each attempt
+     */
+    public RetryPolicy(int maxAttempts, Duration initialBackoff, Duration maxBackoff, double multiplier) {
+        if (maxAttempts < 1) throw new IllegalArgumentException("At least one attempt has to be made: " + maxAttempts);
+        if (initialBackoff.isNegative() || maxBackoff.compareTo(initialBackoff) < 0) {
+            throw new IllegalArgumentException("Invalid backoff: [" + initialBackoff + ", " + maxBackoff + "]");
+        }
+        if (multiplier < 1) throw new IllegalArgumentException("Multiplier must be at least 1: " + multiplier);
+        this.maxAttempts = maxAttempts;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+        this.multiplier = multiplier;
+    }
+
+    /**
+     * Returns the maximal number of attempts
+     *
+     * @return the maximal number of attempts, including the first one
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Returns the upper bound of the backoff after the given attempt
+     *
+     * @param attempt
+     *         the number of the failed attempt, starting with 1
+     * @return the maximal backoff
+     */
+    public Duration getMaxBackoff(int attempt) {
+        double backoff = initialBackoff.toNanos() * Math.pow(multiplier, attempt - 1);
+        return Duration.ofNanos((long) Math.min(backoff, maxBackoff.toNanos()));
+    }
+
+    /**
+     * Returns a random backoff after the given attempt, between zero and {@link #getMaxBackoff(int)}
+     *
+     * @param attempt
+     *         the number of the failed attempt, starting with 1
+     * @return the backoff
+     */
+    public Duration getBackoff(int attempt) {
+        long bound = getMaxBackoff(attempt).toNanos();
+        return Duration.ofNanos(bound == 0 ? 0 : ThreadLocalRandom.current().nextLong(bound + 1));
+    }
+
+    @Override
+    public String toString() {
+        return "RetryPolicy{" +
+                "maxAttempts=" + maxAttempts +
+                ", initialBackoff=" + initialBackoff +
+                ", maxBackoff=" + maxBackoff +
+                ", multiplier=" + multiplier +
+                '}';
+    }
+}
@@ -0,0 +1,83 @@
+package coden.decks.core.firebase.card;
+
+import static java.util.Objects.requireNonNull;
+
+import coden.decks.core.data.Card;
+
+import javax.annotation.concurrent.Immutable;
+
+import java.time.Instant;
+
+/**
+ * The {@code CompactCard} is the {@link Card} read by the {@link FirebaseCardDeserializer}. The last review
+ * is stored as primitive seconds and nanos, and the {@link Instant} is created once on the first access,
+ * as the scheduler reads the last review of the same card many times.
+ */
+@Immutable
+public final class CompactCard implements Card {
+
+    /** The front side of the card */
+    private final String frontSide;
+    /** The back side of the card, {@code null} if not fetched */
+    private final String backSide;
+    /** The current level of memorizing the card */
+    private final int level;
+    /** The seconds of the last review since the epoch */
+    private final long lastReviewSeconds;
+    /** The nanos of the last review within the second */
+    private final int lastReviewNanos;
+    /** The cached last review, racy initialized as {@link Instant} is immutable */
+    private Instant lastReview;
+
+    /**
+     * Creates a new card
+     *
+     * @param frontSide
+     *         the front side
+     * @param backSide
+     *         the back side or {@code null} if not fetched
+     * @param level
+     *         the level of progress of the card
+     * @param lastReviewSeconds
+     *         the seconds of the last review since the epoch
+     * @param lastReviewNanos
+     *         the nanos of the last review within the second
+     */
+    CompactCard(String frontSide, String backSide, int level, long lastReviewSeconds, int lastReviewNanos) {
+        this.frontSide = requireNonNull(frontSide);
+        this.backSide = backSide;
+        this.level = level;
+        this.lastReviewSeconds = lastReviewSeconds;
+        this.lastReviewNanos = lastReviewNanos;
+    }
+
+    @Override
+    public String getFrontSide() {
+        return frontSide;
+    }
+
+    @Override
+    public String getBackSide() {
+        return backSide;
+    }
+
+    @Override
+    public int getLevel() {
+        return level;
+    }
+
+    @Override
+    public Instant getLastReview() {
+        Instant cached = lastReview;
+        if (cached == null) {
+            cached = Instant.ofEpochSecond(lastReviewSeconds, lastReviewNanos);
+            lastReview = cached;
+        }
+        return cached;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Card<%s:%s>", frontSide, backSide);
+    }
+}
@@ -2,6 +2,7 @@ package coden.decks.core.firebase.card;
 
 import coden.decks.core.data.Card;
 import coden.decks.core.data.SimpleCard;
+import com.google.cloud.firestore.annotation.IgnoreExtraProperties;
 
 import java.time.Instant;
 import java.util.Map;
@@ -14,6 +15,7 @@ import java.util.Map;
  *
  * @see SimpleCard
  */
+@IgnoreExtraProperties
 public class FirebaseCard implements Card {
 
     /** The front side field mapping */
@@ -1,14 +1,66 @@
 package coden.decks.core.firebase.card;
 
+import static coden.decks.core.firebase.card.FirebaseCardSerializer.BACK_SIDE;
+import static coden.decks.core.firebase.card.FirebaseCardSerializer.FRONT_SIDE;
+import static coden.decks.core.firebase.card.FirebaseCardSerializer.LAST_REVIEW;
+import static coden.decks.core.firebase.card.FirebaseCardSerializer.LEVEL;
+
+import coden.decks.core.data.Card;
 import coden.decks.core.data.CardDeserializer;
+import com.google.cloud.Timestamp;
 import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldPath;
 
 /**
- * The {@code FirebaseCardDeserializer} maps {@link DocumentSnapshot} to {@link FirebaseCard}
+ * The {@code FirebaseCardDeserializer} maps {@link DocumentSnapshot} to {@link CompactCard}. The fields are
+ * read directly by their pre-parsed paths, without the reflective mapping of {@link DocumentSnapshot#toObject(Class)}. The last review
+ * is read from the map of 'epochSecond' and 'nano' written by {@link FirebaseCardSerializer}, or from a
+ * {@link Timestamp} field.
  */
 public class FirebaseCardDeserializer implements CardDeserializer<DocumentSnapshot> {
+
+    /** The path of the front side, parsed once */
+    private static final FieldPath FRONT_SIDE_PATH = FieldPath.of(FRONT_SIDE);
+    /** The path of the back side, parsed once */
+    private static final FieldPath BACK_SIDE_PATH = FieldPath.of(BACK_SIDE);
+    /** The path of the level, parsed once */
+    private static final FieldPath LEVEL_PATH = FieldPath.of(LEVEL);
+    /** The path of the last review, parsed once */
+    private static final FieldPath LAST_REVIEW_PATH = FieldPath.of(LAST_REVIEW);
+    /** The path of the seconds of the last review, parsed once */
+    private static final FieldPath LAST_REVIEW_SECONDS = FieldPath.of(LAST_REVIEW, "epochSecond");
+    /** The path of the nanos of the last review, parsed once */
+    private static final FieldPath LAST_REVIEW_NANOS = FieldPath.of(LAST_REVIEW, "nano");
+
+    /**
+     * Maps the given document to a card. The back side is {@code null} if the document was fetched
+     * without it, and the level is 0 if missing.
+     *
+     * @param source
+     *         the document
+     * @return the card or {@code null} if the document does not exist
+     * @throws IllegalArgumentException
+     *         if the document has no front side or no last review
+     */
     @Override
-    public FirebaseCard deserialize(DocumentSnapshot source) {
-        return source.toObject(FirebaseCard.class);
+    public Card deserialize(DocumentSnapshot source) {
+        if (!source.exists()) return null;
+        String frontSide = (String) source.get(FRONT_SIDE_PATH);
+        if (frontSide == null) throw new IllegalArgumentException("Card " + source.getId() + " has no front side");
+        String backSide = (String) source.get(BACK_SIDE_PATH);
+        Number level = (Number) source.get(LEVEL_PATH);
+        int intLevel = level == null ? 0 : level.intValue();
+        Object seconds = source.get(LAST_REVIEW_SECONDS);
+        if (seconds instanceof Number) {
+            Number nanos = (Number) source.get(LAST_REVIEW_NANOS);
+            return new CompactCard(frontSide, backSide, intLevel,
+                    ((Number) seconds).longValue(), nanos == null ? 0 : nanos.intValue());
+        }
+        Object lastReview = source.get(LAST_REVIEW_PATH);
+        if (!(lastReview instanceof Timestamp)) {
+            throw new IllegalArgumentException("Card " + source.getId() + " has no last review");
+        }
+        Timestamp timestamp = (Timestamp) lastReview;
+        return new CompactCard(frontSide, backSide, intLevel, timestamp.getSeconds(), timestamp.getNanos());
     }
 }
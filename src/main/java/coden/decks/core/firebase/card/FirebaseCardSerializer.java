@@ -0,0 +1,48 @@
+package coden.decks.core.firebase.card;
+
+import coden.decks.core.data.Card;
+import coden.decks.core.data.CardSerializer;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The {@code FirebaseCardSerializer} maps a {@link Card} to the document fields of a {@link FirebaseCard}.
+ * The last review is stored as a map of 'epochSecond' and 'nano', as expected by {@link FirebaseCard}.
+ */
+public class FirebaseCardSerializer implements CardSerializer<Map<String, Object>> {
+
+    /** The name of the front side field */
+    public static final String FRONT_SIDE = "frontSide";
+    /** The name of the back side field */
+    public static final String BACK_SIDE = "backSide";
+    /** The name of the level field */
+    public static final String LEVEL = "level";
+    /** The name of the last review field */
+    public static final String LAST_REVIEW = "lastReview";
+
+    @Override
+    public Map<String, Object> serialize(Card source) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put(FRONT_SIDE, source.getFrontSide());
+        fields.put(BACK_SIDE, source.getBackSide());
+        fields.put(LEVEL, source.getLevel());
+        fields.put(LAST_REVIEW, serializeInstant(source.getLastReview()));
+        return fields;
+    }
+
+    /**
+     * Maps the given instant to the map of 'epochSecond' and 'nano'
+     *
+     * @param instant
+     *         the instant to map
+     * @return the map representing the instant
+     */
+    public static Map<String, Object> serializeInstant(Instant instant) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("epochSecond", instant.getEpochSecond());
+        fields.put("nano", (long) instant.getNano());
+        return fields;
+    }
+}
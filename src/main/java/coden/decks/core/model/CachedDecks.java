@@ -1,126 +1,502 @@
 package coden.decks.core.model;
 
+import static java.util.Objects.requireNonNull;
+
 import coden.decks.core.data.Card;
+import coden.decks.core.persistence.CardChange;
+import coden.decks.core.persistence.ChangeListener;
+import coden.decks.core.persistence.ChangeSubscription;
 import coden.decks.core.persistence.Database;
 import coden.decks.core.revision.RevisionManager;
 import coden.decks.core.user.User;
 
-import java.util.Deque;
-import java.util.LinkedList;
-import java.util.NoSuchElementException;
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Represents the {@link DecksModel} but with caching and optimizing fetching of the next card.
+ * <p>
+ * The ready cards are cached in an immutable snapshot, that is consumed through an atomic cursor and
+ * swapped as a whole when refreshed, so {@link #getNextCard()} can be called from many threads without locking.
+ * A handed out card is held back from the snapshots for {@link #HAND_OUT_LEASE}, so it is not handed out again
+ * while it is being reviewed. If it is not reviewed, added or deleted through this model within that time, e.g.
+ * because it was skipped or reviewed by another client, it is handed out again from the later snapshots.
+ * <p>
+ * The cache is refreshed in one of two modes:
+ * <ul>
+ * <li>polling: the ready cards are fetched periodically by a {@link RefreshScheduler}, shared by all
+ * the instances by default;</li>
+ * <li>push: the changes delivered by the change feed of the database
+ * ({@link Database#addChangeListener(ChangeListener)}) are applied to an in-memory {@link DueIndex}, and
+ * a timer wakes the cache up when the next pending card becomes ready, so the deck is never fetched again.</li>
+ * </ul>
+ * Each user has a separate partition of the cache. Switching the user with {@link #setUser(User)} only
+ * activates the partition of the new user, so refreshes still in flight for the previous user land in the
+ * previous user's partition, and the partitions of the last {@value #MAX_PARTITIONS} users stay warm
+ * to be reused when switching back. In the push mode the warm partitions keep receiving the changes.
+ * <p>
+ * The cache has to be closed to stop the refreshes.
  */
-public class CachedDecks extends Decks {
-
-    public static final int MIN_SIZE = 2;
+@ThreadSafe
+public class CachedDecks extends Decks implements AutoCloseable {
 
-    private final Deque<Card> cache = new LinkedList<>();
+    /** The default minimal number of cached cards, below which the cache is always refilled */
+    public static final int MIN_SIZE = PrefetchPolicy.DEFAULT_MIN_REMAINING;
+    /** The time a handed out card is held back from the snapshots, unless it is reviewed before */
+    public static final Duration HAND_OUT_LEASE = Duration.ofMinutes(10);
+    /** The maximal number of users, which partitions are kept */
+    public static final int MAX_PARTITIONS = 8;
 
-    private CompletableFuture<Deque<Card>> newCache;
+    /** The policy deciding when the cache is refilled */
+    private final PrefetchPolicy prefetch;
+    /** The scheduler running the refreshes */
+    private final RefreshScheduler scheduler;
+    /** Whether the cache is refreshed by the change feed of the database */
+    private final boolean push;
+    /** The registration of the periodic refresh, {@code null} in the push mode */
+    private final RefreshScheduler.Registration refresh;
+    /** The partitions of the recently used users in access order, guarded by {@code this} */
+    private final Map<User, Partition> partitions = new LinkedHashMap<User, Partition>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<User, Partition> eldest) {
+            if (size() <= MAX_PARTITIONS) return false;
+            eldest.getValue().close();
+            return true;
+        }
+    };
+    /** The partition of the current user */
+    private volatile Partition current;
 
     public CachedDecks(User user, RevisionManager reminder, Database database, int pollMinutes) {
-        super(user, reminder, database);
-        updateNewCache();
-        runScheduler(pollMinutes, pollMinutes);
+        this(user, reminder, database, pollMinutes, Clock.systemUTC());
+    }
+
+    public CachedDecks(User user, RevisionManager reminder, Database database, int pollMinutes, Clock clock) {
+        this(user, reminder, database, RefreshScheduler.getDefault(), Duration.ofMinutes(pollMinutes),
+                new PrefetchPolicy(), clock);
+    }
+
+    /**
+     * Creates a new cached decks, refreshed periodically by the given scheduler
+     *
+     * @param user
+     *         the user of the decks
+     * @param reminder
+     *         the revision manager
+     * @param database
+     *         the database to store the cards
+     * @param scheduler
+     *         the scheduler running the periodic refreshes
+     * @param pollPeriod
+     *         the period of the refreshes
+     * @param prefetch
+     *         the policy deciding when the cache is refilled
+     * @param clock
+     *         the clock to read the review and revision times from
+     */
+    public CachedDecks(User user, RevisionManager reminder, Database database,
+                       RefreshScheduler scheduler, Duration pollPeriod, PrefetchPolicy prefetch, Clock clock) {
+        super(user, reminder, database, clock);
+        this.prefetch = requireNonNull(prefetch);
+        this.scheduler = requireNonNull(scheduler);
+        this.push = false;
+        activate(user);
+        this.refresh = scheduler.register(() -> current.updateNewCache(), pollPeriod);
+    }
+
+    /**
+     * Creates a new cached decks in the push mode, refreshed by the change feed of the given database
+     *
+     * @param user
+     *         the user of the decks
+     * @param reminder
+     *         the revision manager
+     * @param database
+     *         the database to store the cards, providing a change feed
+     * @param scheduler
+     *         the scheduler waking the cache up, when pending cards become ready
+     * @param prefetch
+     *         the policy deciding when the cache is refilled
+     * @param clock
+     *         the clock to read the review and revision times from
+     */
+    public CachedDecks(User user, RevisionManager reminder, Database database,
+                       RefreshScheduler scheduler, PrefetchPolicy prefetch, Clock clock) {
+        super(user, reminder, database, clock);
+        this.prefetch = requireNonNull(prefetch);
+        this.scheduler = requireNonNull(scheduler);
+        this.push = true;
+        this.refresh = null;
+        activate(user);
+    }
+
+    /**
+     * Sets the user and activates the partition of the user. A warm partition of a recently used user
+     * is reused and refreshed in background, otherwise a new partition is created.
+     *
+     * @param user
+     *         the user
+     */
+    @Override
+    public void setUser(User user) {
+        if (partitions == null) {
+            // called by the super constructor, the partition is activated by the constructor
+            super.setUser(user);
+            return;
+        }
+        synchronized (this) {
+            super.setUser(user);
+            activate(user);
+        }
     }
 
-    private void runScheduler(int delay, int period) {
-        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
-        scheduler.scheduleAtFixedRate(this::updateNewCache, delay, period, TimeUnit.MINUTES);
+    /**
+     * Stops the refreshes of the cache
+     */
+    @Override
+    public synchronized void close() {
+        if (refresh != null) refresh.close();
+        for (Partition partition : partitions.values()) {
+            partition.close();
+        }
+        partitions.clear();
     }
 
     /**
      * Returns a next card. Two possible cases can occur:
-     * 1) Cache is empty or new cache is done:
-     * Take newCache future and update cache with it (on complete)
+     * 1) Cache is not empty:
+     * Take the next card of the current snapshot
      * <p>
-     * 2) Cache is not empty:
-     * Wrap existing cache with completable future
+     * 2) Cache is empty:
+     * Wait for the pending refresh (or request a new one) and take the next card of the new snapshot
      * <p>
      * Ultimately:
-     * Check if cache's size is minimum
-     * - if true assign to newCache a new future (if previous future was done)
-     * - if false do nothing
-     * Pop last element (never null, because is not empty)
+     * Ask the {@link PrefetchPolicy} whether the remaining cards last for the next refresh
+     * - if false request a new snapshot (if no refresh is pending)
+     * - if true do nothing
      *
      * @return the next element from ready cards
      */
     @Override
     public CompletableFuture<Card> getNextCard() {
-        CompletableFuture<Deque<Card>> cacheToQuery;
-        // 1)popped from cache, new cache was not updated
-        // should go for own cache
-        // 2) first run, newCache is done, but cache is empty, should go for newCache
-        // 3) cache is not empty, but newCache is Done()
-        // THE QUESTION: WHEN TO UPDATE CACHE WITH NEW CACHE
-        // * WHEN IS EMPTY
-        // * EVERY SCHEDULED CALL
-        // * AFTER MINIMUM
-        // * ON START
-        // THE 2nd QUESTION: WHEN TO LOAD A NEW CACHE:
-        // * WHEN IT IS MINIMUM
-        // * EVERY SCHEDULED CALL
-        // * ON START
-        if (cache.isEmpty()) {
-            cacheToQuery = newCache;
-        } else {
-            cacheToQuery = createCompletableFuture(cache);
-        }
-        return cacheToQuery
-                .thenApply(this::updateNewCacheOnMinimum)
-                .thenApply(this::popEmptyToNull);
-
+        return current.getNextCard();
     }
 
-
-    private Deque<Card> updateNewCacheOnMinimum(Deque<Card> cache) {
-        if (isMinimumSize(cache)) {
-            updateNewCache();
-        }
-        return cache;
+    @Override
+    protected void onUpdate(Card card) {
+        current.onUpdate(card);
     }
 
-    private void updateNewCache() {
-        if (newCache == null || newCache.isDone())
-            // if not updated, new cache will be queried from last check for minimum,
-            // but the real cache will be returned, and this one will be returned only when
-            // newCache is empty
-            newCache = createNewCache().thenApply(this::updateCacheWithNew);
+    @Override
+    protected void onDelete(Card card) {
+        current.onDelete(card);
     }
 
-    private Deque<Card> updateCacheWithNew(Deque<Card> newCache) {
-        cache.clear();
-        cache.addAll(newCache);
-        return cache;
+    /**
+     * Refreshes the current partition, as it may contain a change the database never stored
+     */
+    @Override
+    protected void onWriteFailed(Throwable failure) {
+        current.invalidate();
     }
 
-    private Card popEmptyToNull(Deque<Card> deque) {
-        try {
-            return deque.pop();
-        } catch (NoSuchElementException e) {
-            return null;
+    /**
+     * Activates the partition of the given user, creating it if it is not kept
+     *
+     * @param user
+     *         the user, which is already set to the database
+     */
+    private synchronized void activate(User user) {
+        Partition partition = partitions.get(user);
+        if (partition == null) {
+            partition = new Partition();
+            partitions.put(user, partition);
         }
+        current = partition;
+        partition.updateNewCache();
     }
 
-    private CompletableFuture<Deque<Card>> createNewCache() {
-        return getReadyCards().thenApply(LinkedList::new);
+    /**
+     * The cached cards of a single user. All its requests are made only while it is the current partition,
+     * i.e. while the database is set to its user, while the results can land at any time.
+     */
+    private final class Partition {
+        /** The current snapshot of ready cards */
+        private final AtomicReference<CardQueue> cache = new AtomicReference<>(CardQueue.EMPTY);
+        /** The last requested refresh of the cache */
+        private final AtomicReference<CompletableFuture<CardQueue>> newCache = new AtomicReference<>();
+        /** The times the cards, that were not reviewed yet, were handed out at by their front sides */
+        private final ConcurrentMap<String, Long> handedOut = new ConcurrentHashMap<>();
+        /** The change feed of the user, {@code null} in the polling mode */
+        private volatile ChangeFeed feed;
+
+        Partition() {
+            if (push) {
+                feed = new ChangeFeed(this);
+            }
+        }
+
+        CompletableFuture<Card> getNextCard() {
+            CardQueue queue = cache.get();
+            Card card = poll(queue);
+            prefetch.recordConsumption();
+            if (prefetch.shouldRefill(queue.remaining())) {
+                updateNewCache();
+            }
+            if (card != null) {
+                return CompletableFuture.completedFuture(card);
+            }
+            return updateNewCache().thenApply(this::poll);
+        }
+
+        void onUpdate(Card card) {
+            ChangeFeed currentFeed = feed;
+            if (currentFeed != null) currentFeed.index.put(card);
+            handedOut.remove(card.getFrontSide());
+        }
+
+        void onDelete(Card card) {
+            ChangeFeed currentFeed = feed;
+            if (currentFeed != null) currentFeed.index.remove(card.getFrontSide());
+            handedOut.remove(card.getFrontSide());
+        }
+
+        /**
+         * Drops the changes applied to the partition by requesting a new snapshot. In the push mode the
+         * index is loaded again by a new subscription to the change feed.
+         */
+        void invalidate() {
+            ChangeFeed currentFeed = feed;
+            if (currentFeed != null) currentFeed.failed = true;
+            updateNewCache();
+        }
+
+        /**
+         * Takes the next card from the given queue, skipping the cards that are already handed out
+         *
+         * @param queue
+         *         the queue to take the card from
+         * @return the card or {@code null} if the queue is exhausted
+         */
+        private Card poll(CardQueue queue) {
+            Card card;
+            long now = getClock().millis();
+            do {
+                card = queue.poll();
+            } while (card != null && handedOut.putIfAbsent(card.getFrontSide(), now) != null);
+            return card;
+        }
+
+        /**
+         * Requests a new snapshot of ready cards, unless a request is already pending. Only one of
+         * concurrently calling threads makes the request.
+         *
+         * @return the pending request of the new snapshot
+         */
+        private CompletableFuture<CardQueue> updateNewCache() {
+            CompletableFuture<CardQueue> pending = newCache.get();
+            if (pending != null && !pending.isDone()) {
+                return pending;
+            }
+            CompletableFuture<CardQueue> requested = new CompletableFuture<>();
+            if (!newCache.compareAndSet(pending, requested)) {
+                return newCache.get();
+            }
+            createNewCache().whenComplete((queue, failure) -> {
+                if (failure != null) {
+                    requested.completeExceptionally(failure);
+                } else {
+                    cache.set(queue);
+                    requested.complete(queue);
+                }
+            });
+            return requested;
+        }
+
+        /**
+         * Creates a new snapshot of ready cards. Only the snapshots read from the database are recorded as
+         * refreshes by the prefetch policy, the kept and the pushed snapshots are created without a request.
+         */
+        private CompletableFuture<CardQueue> createNewCache() {
+            long start = prefetch.now();
+            CompletableFuture<List<Card>> readyCards;
+            ChangeFeed loading;
+            synchronized (CachedDecks.this) {
+                if (current != this) {
+                    // the user was switched, keep the snapshot until the partition is activated again
+                    return CompletableFuture.completedFuture(cache.get());
+                }
+                if (!push) {
+                    readyCards = getReadyCards();
+                    loading = null;
+                } else {
+                    if (feed.failed) {
+                        // the feed failed, subscribe again
+                        feed.close();
+                        feed = new ChangeFeed(this);
+                    }
+                    readyCards = null;
+                    loading = feed;
+                }
+            }
+            if (loading == null) {
+                return readyCards.thenApply(cards -> {
+                    prefetch.recordRefresh(start);
+                    return createQueue(cards);
+                });
+            }
+            return loading.loaded.thenApply(v -> loading.snapshot());
+        }
+
+        /**
+         * Creates a snapshot of the given cards, leaving out the handed out cards, which lease has not expired
+         */
+        private CardQueue createQueue(List<Card> readyCards) {
+            long expired = getClock().millis() - HAND_OUT_LEASE.toMillis();
+            handedOut.values().removeIf(handedOutAt -> handedOutAt <= expired);
+            return new CardQueue(readyCards.stream()
+                    .filter(card -> !handedOut.containsKey(card.getFrontSide()))
+                    .toArray(Card[]::new));
+        }
+
+        void close() {
+            ChangeFeed currentFeed = feed;
+            if (currentFeed != null) currentFeed.close();
+        }
     }
 
-    private <T> CompletableFuture<T> createCompletableFuture(T value) {
-        final CompletableFuture<T> cardFuture = new CompletableFuture<T>();
-        cardFuture.complete(value);
-        return cardFuture;
+    /**
+     * The subscription to the change feed of a user, keeping the due index of the user's cards up to date.
+     * Changes of a replaced feed are ignored.
+     */
+    private final class ChangeFeed implements ChangeListener {
+        /** The partition of the user */
+        private final Partition partition;
+        /** The index of the unfinished cards of the user */
+        private final DueIndex index = new DueIndex(getRevisor());
+        /** Completed when the initial state of the cards is received */
+        private final CompletableFuture<Void> loaded = new CompletableFuture<>();
+        /** Whether the feed reported an error, after which no changes are delivered */
+        private volatile boolean failed;
+        /** The subscription to the change feed */
+        private final ChangeSubscription subscription;
+        /** The wake up at the time the next pending card becomes ready, guarded by {@code this} */
+        private ScheduledFuture<?> wakeUp;
+        /** Whether the feed was closed, guarded by {@code this} */
+        private boolean closed;
+
+        ChangeFeed(Partition partition) {
+            this.partition = partition;
+            this.subscription = getDatabase().addChangeListener(this);
+        }
+
+        @Override
+        public void onChanges(List<CardChange> changes) {
+            for (CardChange change : changes) {
+                if (change.getType() == CardChange.Type.REMOVED) {
+                    index.remove(change.getCard().getFrontSide());
+                } else {
+                    index.put(change.getCard());
+                }
+            }
+            loaded.complete(null);
+            publish();
+        }
+
+        /**
+         * Marks the feed as failed, whether the initial state was received or not, so the next request of
+         * a snapshot subscribes again
+         */
+        @Override
+        public void onError(Throwable error) {
+            failed = true;
+            loaded.completeExceptionally(error);
+        }
+
+        /**
+         * Replaces the cached snapshot of the partition with the ready cards of the index, if this feed is
+         * the current one of the partition
+         */
+        private void publish() {
+            if (partition.feed == this) {
+                partition.cache.set(snapshot());
+            }
+        }
+
+        /**
+         * Creates a snapshot of the ready cards of the index and schedules the wake up at the time the
+         * next pending card becomes ready
+         *
+         * @return the snapshot of ready cards
+         */
+        private CardQueue snapshot() {
+            long now = getClock().millis();
+            CardQueue queue = partition.createQueue(index.getReadyCards(now));
+            scheduleWakeUp(now, index.getNextRevision(now));
+            return queue;
+        }
+
+        private synchronized void scheduleWakeUp(long now, long nextRevision) {
+            if (closed) return;
+            if (wakeUp != null) wakeUp.cancel(false);
+            wakeUp = nextRevision == Long.MAX_VALUE ? null
+                    : scheduler.schedule(this::publish, Duration.ofMillis(nextRevision - now));
+        }
+
+        private void close() {
+            synchronized (this) {
+                closed = true;
+                if (wakeUp != null) wakeUp.cancel(false);
+            }
+            subscription.close();
+        }
     }
 
-    // maybe do not update on every on minimum check, instead update newCache only once, and then
-    // it will be returned on empty
-    private boolean isMinimumSize(Deque<Card> cache) {
-        return cache.size() < MIN_SIZE;
+    /**
+     * An immutable snapshot of cards consumed through an atomic cursor. Each card of the snapshot
+     * is returned by {@link #poll()} at most once.
+     */
+    private static final class CardQueue {
+        /** The empty queue */
+        static final CardQueue EMPTY = new CardQueue(new Card[0]);
+        /** The cards in order they have to be handed out */
+        private final Card[] cards;
+        /** The index of the next card to hand out */
+        private final AtomicInteger cursor = new AtomicInteger();
+
+        CardQueue(Card[] cards) {
+            this.cards = cards;
+        }
+
+        /**
+         * Takes the next card
+         *
+         * @return the card or {@code null} if the queue is exhausted
+         */
+        Card poll() {
+            if (cursor.get() >= cards.length) return null;
+            int index = cursor.getAndIncrement();
+            return index < cards.length ? cards[index] : null;
+        }
+
+        /**
+         * Returns the number of cards not handed out yet
+         *
+         * @return the number of remaining cards
+         */
+        int remaining() {
+            return Math.max(0, cards.length - cursor.get());
+        }
     }
 }
@@ -1,16 +1,26 @@
 package coden.decks.core.model;
 
+import static java.util.Objects.requireNonNull;
+
 import coden.decks.core.data.Card;
+import coden.decks.core.data.LazyCard;
 import coden.decks.core.data.SimpleCard;
 import coden.decks.core.persistence.Database;
+import coden.decks.core.persistence.OffloadExecutor;
+import coden.decks.core.persistence.ProgressListener;
+import coden.decks.core.persistence.Projection;
+import coden.decks.core.revision.RevisionBatch;
 import coden.decks.core.revision.RevisionManager;
 import coden.decks.core.user.User;
+import com.google.common.util.concurrent.MoreExecutors;
 
-import java.time.Duration;
-import java.time.Instant;
-import java.util.Comparator;
+import java.time.Clock;
+import java.util.Collection;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -25,12 +35,54 @@ public class Decks implements DecksModel {
     private final Database database;
     /** The Revision manager to provide functionality to compute next revisions */
     private final RevisionManager revisor;
+    /** The clock to read the review and revision times from */
+    private final Clock clock;
+    /** The executor evaluating the fetched cards */
+    private final Executor executor;
     /** The current user of the decks */
     private User user;
 
     public Decks(User user, RevisionManager revisor, Database database) {
+        this(user, revisor, database, Clock.systemUTC());
+    }
+
+    /**
+     * Creates new decks reading the current time from the given clock
+     *
+     * @param user
+     *         the user of the decks
+     * @param revisor
+     *         the revision manager
+     * @param database
+     *         the database to store the cards
+     * @param clock
+     *         the clock to read the review and revision times from
+     */
+    public Decks(User user, RevisionManager revisor, Database database, Clock clock) {
+        this(user, revisor, database, clock, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Creates new decks evaluating the fetched cards on the given executor. By default the cards are evaluated
+     * on the thread completing the database request, which is enough for a database completing its requests
+     * on an {@link OffloadExecutor}.
+     *
+     * @param user
+     *         the user of the decks
+     * @param revisor
+     *         the revision manager
+     * @param database
+     *         the database to store the cards
+     * @param clock
+     *         the clock to read the review and revision times from
+     * @param executor
+     *         the executor to collect, filter and sort the fetched cards on
+     */
+    public Decks(User user, RevisionManager revisor, Database database, Clock clock, Executor executor) {
         this.database = database;
         this.revisor = revisor;
+        this.clock = clock;
+        this.executor = requireNonNull(executor);
         setUser(user);
     }
 
@@ -50,7 +102,7 @@ public class Decks implements DecksModel {
                 .setFrontSide(frontSide)
                 .setBackSide(backSide)
                 .setLevel(revisor.getMinLevel())
-                .setLastReview(Instant.now())
+                .setLastReview(clock.instant())
                 .create();
     }
 
@@ -80,7 +132,7 @@ public class Decks implements DecksModel {
 
     /**
      * Sets the given card as known. Updates the level, last review and saves the
-     * card by making the request.
+     * review by making the request. A card, that is not stored yet, is added.
      *
      * @param card
      *         the card to set as known
@@ -88,17 +140,15 @@ public class Decks implements DecksModel {
      */
     @Override
     public CompletableFuture<Void> setKnow(Card card) {
-        final SimpleCard newSimpleCard = new SimpleCard.Builder(card)
-                .setLevel(Math.min(revisor.getMaxLevel(), card.getLevel() + 1))
-                .setLastReview(Instant.now())
-                .create();
+        final Card reviewed = review(card, Math.min(revisor.getMaxLevel(), card.getLevel() + 1));
 
-        return database.addOrUpdateEntry(newSimpleCard);
+        onUpdate(reviewed);
+        return written(writeReview(reviewed));
     }
 
     /**
      * Sets the given card as unknown. Updates the level, last review and saves the
-     * card by making the request
+     * review by making the request. A card, that is not stored yet, is added.
      *
      * @param card
      *         the card to set as unknown at the time of reviewing it
@@ -106,12 +156,51 @@ public class Decks implements DecksModel {
      */
     @Override
     public CompletableFuture<Void> setDontKnow(Card card) {
-        final SimpleCard newSimpleCard = new SimpleCard.Builder(card)
-                .setLevel(Math.max(revisor.getMinLevel(), card.getLevel() - 1))
-                .setLastReview(Instant.now())
-                .create();
+        final Card reviewed = review(card, Math.max(revisor.getMinLevel(), card.getLevel() - 1));
+
+        onUpdate(reviewed);
+        return written(writeReview(reviewed));
+    }
 
-        return database.addOrUpdateEntry(newSimpleCard);
+    /**
+     * Helper method to write only the review of the given card, or the whole card, if it is not stored yet
+     *
+     * @param reviewed
+     *         the reviewed card
+     * @return the request
+     */
+    private CompletableFuture<Void> writeReview(Card reviewed) {
+        return database.updateReview(reviewed)
+                .handle((v, failure) -> {
+                    if (failure == null) return CompletableFuture.<Void>completedFuture(null);
+                    Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                            ? failure.getCause() : failure;
+                    if (cause instanceof NoSuchElementException) return database.addOrUpdateEntry(reviewed);
+                    CompletableFuture<Void> failed = new CompletableFuture<>();
+                    failed.completeExceptionally(cause);
+                    return failed;
+                })
+                .thenCompose(Function.identity());
+    }
+
+    /**
+     * Helper method to create the given card reviewed now with the given new level. The back side of
+     * a {@link LazyCard} is not loaded, as it is not written by the review.
+     *
+     * @param card
+     *         the reviewed card
+     * @param level
+     *         the new level of the card
+     * @return the reviewed card
+     */
+    private Card review(Card card, int level) {
+        if (card instanceof LazyCard && !((LazyCard) card).isLoaded()) {
+            return new LazyCard(card.getFrontSide(), level, clock.instant(), card::getBackSide);
+        }
+        return new SimpleCard.Builder(card)
+                .setLevel(level)
+                .setLastReview(clock.instant())
+                .create();
     }
 
     /**
@@ -123,7 +212,8 @@ public class Decks implements DecksModel {
      */
     @Override
     public CompletableFuture<Void> addCard(Card card) {
-        return database.addOrUpdateEntry(card);
+        onUpdate(card);
+        return written(database.addOrUpdateEntry(card));
     }
 
     /**
@@ -135,24 +225,116 @@ public class Decks implements DecksModel {
      */
     @Override
     public CompletableFuture<Void> deleteCard(Card card) {
-        return database.deleteEntry(card);
+        onDelete(card);
+        return written(database.deleteEntry(card));
+    }
+
+    /**
+     * Adds or updates all the given cards at once.
+     *
+     * @param cards
+     *         the cards to save
+     * @return the request to add the cards
+     */
+    @Override
+    public CompletableFuture<Void> addCards(Collection<? extends Card> cards) {
+        cards.forEach(this::onUpdate);
+        return written(database.addOrUpdateEntries(cards));
+    }
+
+    /**
+     * Adds or updates all the cards of the given stream.
+     *
+     * @param cards
+     *         the cards to save
+     * @param listener
+     *         the listener to be notified about the number of saved cards
+     * @return the request to add the cards
+     */
+    @Override
+    public CompletableFuture<Integer> addCards(Stream<? extends Card> cards, ProgressListener listener) {
+        return written(database.addOrUpdateEntries(cards.peek(this::onUpdate), listener));
+    }
+
+    /**
+     * Deletes all the given cards from the database
+     *
+     * @param cards
+     *         the cards to delete
+     * @return the request to delete the cards
+     */
+    @Override
+    public CompletableFuture<Void> deleteCards(Collection<? extends Card> cards) {
+        cards.forEach(this::onDelete);
+        return written(database.deleteEntries(cards));
+    }
+
+    /**
+     * Called whenever the given card is added or updated through this model, right before
+     * the request to the database is made. Does nothing by default.
+     *
+     * @param card
+     *         the new state of the card
+     */
+    protected void onUpdate(Card card) {
+    }
+
+    /**
+     * Called whenever the given card is deleted through this model, right before the request
+     * to the database is made. Does nothing by default.
+     *
+     * @param card
+     *         the deleted card
+     */
+    protected void onDelete(Card card) {
+    }
+
+    /**
+     * Called whenever a write made through this model fails. The write was already passed to
+     * {@link #onUpdate(Card)} or {@link #onDelete(Card)}, so any state derived from them has to be
+     * dropped. Does nothing by default.
+     *
+     * @param failure
+     *         the failure of the write
+     */
+    protected void onWriteFailed(Throwable failure) {
+    }
+
+    /**
+     * Helper method to call {@link #onWriteFailed(Throwable)} if the given write fails
+     *
+     * @param write
+     *         the request of the write
+     * @return the request completed after the hook
+     */
+    private <T> CompletableFuture<T> written(CompletableFuture<T> write) {
+        return write.whenComplete((result, failure) -> {
+            if (failure != null) onWriteFailed(failure);
+        });
     }
 
     /**
      * Gets the next ready card to be reviewed, i.e the next ready card or {@code null} if
-     * no cards are ready.
+     * no cards are ready. The card is found in a single scan, without sorting the ready cards.
      *
      * @return the completable future wrapping the card.
      */
     @Override
     public CompletableFuture<Card> getNextCard() {
-        return getReadyCards().thenApply(cards -> cards.isEmpty() ? null : cards.get(0));
+        return database.getLessOrEqualLevel(revisor.getMaxLevel() - 1, Projection.SCHEDULING)
+                .thenApplyAsync(cards -> evaluate(cards).getNextReadyCard(), executor);
     }
 
     @Override
     public CompletableFuture<List<Card>> getReadyCards() {
-        return database.getLessOrEqualLevel(revisor.getMaxLevel() - 1)
-                .thenApply(this::findReadyCards);
+        return database.getLessOrEqualLevel(revisor.getMaxLevel() - 1, Projection.SCHEDULING)
+                .thenApplyAsync(this::findReadyCards, executor);
+    }
+
+    @Override
+    public CompletableFuture<List<Card>> getReadyCards(int limit) {
+        return database.getLessOrEqualLevel(revisor.getMaxLevel() - 1, Projection.SCHEDULING)
+                .thenApplyAsync(cards -> evaluate(cards).getReadyCards(limit), executor);
     }
 
     /**
@@ -163,15 +345,13 @@ public class Decks implements DecksModel {
      * @return the list of ready cards.
      */
     private List<Card> findReadyCards(Stream<Card> cards) {
-        return cards.filter(revisor::isReady)
-                .sorted(Comparator.comparing((Function<Card, Duration>) revisor::getTimeToNextRevision).reversed())
-                .collect(Collectors.toList());
+        return evaluate(cards).getReadyCards();
     }
 
     @Override
     public CompletableFuture<List<Card>> getPendingCards() {
-        return database.getLessOrEqualLevel(revisor.getMaxLevel() - 1)
-                .thenApply(this::findPendingCards);
+        return database.getLessOrEqualLevel(revisor.getMaxLevel() - 1, Projection.SCHEDULING)
+                .thenApplyAsync(this::findPendingCards, executor);
     }
 
     /**
@@ -182,26 +362,82 @@ public class Decks implements DecksModel {
      * @return the list of pending cards
      */
     private List<Card> findPendingCards(Stream<Card> cards) {
-        return cards.filter(c -> !revisor.isReady(c))
-                .sorted(Comparator.comparing((Function<Card, Duration>) revisor::getTimeToNextRevision).reversed())
-                .collect(Collectors.toList());
+        return evaluate(cards).getPendingCards();
+    }
+
+    /**
+     * Helper method to evaluate the given snapshot of cards against a single reading of the clock
+     *
+     * @param cards
+     *         the cards to evaluate
+     * @return the evaluated batch
+     */
+    private RevisionBatch evaluate(Stream<Card> cards) {
+        return revisor.evaluate(collect(cards), clock);
     }
 
     @Override
     public CompletableFuture<List<Card>> getDoneCards() {
         return database.getGreaterOrEqualLevel(revisor.getMaxLevel())
-                .thenApply(this::collect);
+                .thenApplyAsync(this::collect, executor);
     }
 
     @Override
     public CompletableFuture<List<Card>> getAllCards() {
-        return database.getAllEntries().thenApply(this::collect);
+        return database.getAllEntries().thenApplyAsync(this::collect, executor);
+    }
+
+    /**
+     * Fetches all the cards once and evaluates them against a single reading of the clock.
+     *
+     * @return the request to obtain the overview
+     */
+    @Override
+    public CompletableFuture<DecksOverview> getOverview() {
+        return database.getAllEntries()
+                .thenApplyAsync(cards -> new DecksOverview(evaluate(cards), revisor.getMaxLevel()), executor);
     }
 
     private List<Card> collect(Stream<Card> s) {
         return s.collect(Collectors.toList());
     }
 
+    /**
+     * Returns the database of the decks
+     *
+     * @return the database
+     */
+    protected Database getDatabase() {
+        return database;
+    }
+
+    /**
+     * Returns the revision manager of the decks
+     *
+     * @return the revision manager
+     */
+    protected RevisionManager getRevisor() {
+        return revisor;
+    }
+
+    /**
+     * Returns the current user of the decks
+     *
+     * @return the current user
+     */
+    protected User getUser() {
+        return user;
+    }
+
+    /**
+     * Returns the clock the decks read the current time from
+     *
+     * @return the clock
+     */
+    protected Clock getClock() {
+        return clock;
+    }
+
     /**
      * Updates the current user of the card and the user of the database as well.
      *
@@ -0,0 +1,433 @@
+package coden.decks.core.model;
+
+import static java.util.Objects.requireNonNull;
+
+import coden.decks.core.data.Card;
+import coden.decks.core.persistence.Database;
+import coden.decks.core.revision.RevisionManager;
+import coden.decks.core.user.User;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The {@code DecksCache} is a multi-tenant cache of the decks of many users, served from a single JVM.
+ * For each user it holds a {@link DueIndex} of the unfinished cards, so the next, ready and pending cards
+ * are answered from memory without any per-user threads.
+ * <p>
+ * The cache is bounded by a global budget of users or of cards (each user weighs the number of its
+ * indexed cards plus one), users are evicted in least recently used order when the budget is exceeded,
+ * and the users idle for longer than the configured time expire. A deck is weighed again, when the number of
+ * its cards changes by at least {@code 1/}{@value #REWEIGH_DIVISOR} of its weight. An evicted or expired user
+ * is loaded again lazily on its next request. Concurrent requests of a user, that is not cached, share a single
+ * load.
+ * <p>
+ * The cache does not observe the database, so the writes of the users have to be made through the
+ * {@linkplain #getDecks(User, Database) decks} of the cache, or reported with {@link #onUpdate(User, Card)}
+ * and {@link #onDelete(User, Card)} to keep the cached decks up to date.
+ */
+@ThreadSafe
+public class DecksCache {
+
+    /** The part of the weight of a deck, by which its size has to change to weigh it again */
+    static final int REWEIGH_DIVISOR = 8;
+
+    /** The cached decks by their users */
+    private final Cache<User, Deck> decks;
+    /** The loads of the users, that are not cached yet */
+    private final ConcurrentMap<User, CompletableFuture<DueIndex>> loading = new ConcurrentHashMap<>();
+    /** Loads all the cards of a user */
+    private final Function<? super User, CompletableFuture<Stream<Card>>> loader;
+    /** The revision manager to compute the next revisions of the cards */
+    private final RevisionManager revisor;
+    /** The clock to read the current time from */
+    private final Clock clock;
+
+    private DecksCache(Cache<User, Deck> decks, Function<? super User, CompletableFuture<Stream<Card>>> loader,
+                       RevisionManager revisor, Clock clock) {
+        this.decks = decks;
+        this.loader = loader;
+        this.revisor = revisor;
+        this.clock = clock;
+    }
+
+    /**
+     * Returns the decks of the given user, that serve the next, ready and pending cards from this cache and
+     * apply the writes made through them to the cached deck of their current user. The other requests are
+     * made to the given database, which user is switched with the decks, so it must not be shared.
+     *
+     * @param user
+     *         the user of the decks
+     * @param database
+     *         the database dedicated to the decks
+     * @return the decks of the user
+     */
+    public DecksModel getDecks(User user, Database database) {
+        return new CachedUserDecks(requireNonNull(user), requireNonNull(database));
+    }
+
+    /**
+     * Returns the next card of the given user, i.e. the ready card with the latest next revision time
+     *
+     * @param user
+     *         the user
+     * @return the request to get the next card, completed with {@code null} if no cards are ready
+     */
+    public CompletableFuture<Card> getNextCard(User user) {
+        return getDeck(user).thenApply(index -> index.getNextCard(clock.millis()));
+    }
+
+    /**
+     * Returns the ready cards of the given user, the one with the latest next revision time first
+     *
+     * @param user
+     *         the user
+     * @return the request to get the ready cards
+     */
+    public CompletableFuture<List<Card>> getReadyCards(User user) {
+        return getDeck(user).thenApply(index -> index.getReadyCards(clock.millis()));
+    }
+
+    /**
+     * Returns at most {@code limit} ready cards of the given user, the one with the latest next revision time first
+     *
+     * @param user
+     *         the user
+     * @param limit
+     *         the maximal number of cards to return
+     * @return the request to get the ready cards
+     */
+    public CompletableFuture<List<Card>> getReadyCards(User user, int limit) {
+        return getDeck(user).thenApply(index -> index.getReadyCards(clock.millis(), limit));
+    }
+
+    /**
+     * Returns the pending cards of the given user, the one with the latest next revision time first
+     *
+     * @param user
+     *         the user
+     * @return the request to get the pending cards
+     */
+    public CompletableFuture<List<Card>> getPendingCards(User user) {
+        return getDeck(user).thenApply(index -> index.getPendingCards(clock.millis()));
+    }
+
+    /**
+     * Applies the update of the given card to the cached deck of the given user, if it is cached
+     *
+     * @param user
+     *         the user, which card was updated
+     * @param card
+     *         the updated card
+     */
+    public void onUpdate(User user, Card card) {
+        Deck deck = decks.getIfPresent(user);
+        if (deck != null) {
+            deck.index.put(card);
+            reweigh(user, deck);
+        }
+        invalidateLoading(user);
+    }
+
+    /**
+     * Applies the deletion of the given card to the cached deck of the given user, if it is cached
+     *
+     * @param user
+     *         the user, which card was deleted
+     * @param card
+     *         the deleted card
+     */
+    public void onDelete(User user, Card card) {
+        Deck deck = decks.getIfPresent(user);
+        if (deck != null) {
+            deck.index.remove(card.getFrontSide());
+            reweigh(user, deck);
+        }
+        invalidateLoading(user);
+    }
+
+    /**
+     * Replaces the given cached deck with a newly weighed one, if its size changed significantly since it was
+     * weighed, so the budget of the cards is enforced on the current sizes of the decks
+     */
+    private void reweigh(User user, Deck deck) {
+        int change = Math.abs(Deck.weigh(deck.index) - deck.weight);
+        if (change > 0 && change >= deck.weight / REWEIGH_DIVISOR) {
+            decks.asMap().replace(user, deck, new Deck(deck.index));
+        }
+    }
+
+    /**
+     * Discards the cached deck of the given user, so it is loaded again on the next request
+     *
+     * @param user
+     *         the user
+     */
+    public void invalidate(User user) {
+        decks.invalidate(user);
+        invalidateLoading(user);
+    }
+
+    /**
+     * Returns the number of cached users
+     *
+     * @return the number of cached users
+     */
+    public long size() {
+        decks.cleanUp();
+        return decks.size();
+    }
+
+    /**
+     * Returns the cached deck of the given user or loads it, sharing a load already in progress
+     *
+     * @param user
+     *         the user
+     * @return the request to get the deck
+     */
+    private CompletableFuture<DueIndex> getDeck(User user) {
+        Deck cached = decks.getIfPresent(requireNonNull(user));
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached.index);
+        }
+        CompletableFuture<DueIndex> created = new CompletableFuture<>();
+        CompletableFuture<DueIndex> existing = loading.putIfAbsent(user, created);
+        if (existing != null) {
+            return existing;
+        }
+        load(user).whenComplete((index, failure) -> {
+            // a load invalidated meanwhile is returned to its callers, but not cached
+            if (loading.remove(user, created) && failure == null) {
+                decks.put(user, new Deck(index));
+            }
+            if (failure != null) created.completeExceptionally(failure);
+            else created.complete(index);
+        });
+        return created;
+    }
+
+    private CompletableFuture<DueIndex> load(User user) {
+        return loader.apply(user).thenApply(cards -> {
+            List<Card> loaded = cards.collect(Collectors.toList());
+            DueIndex index = new DueIndex(revisor);
+            index.reset(revisor.evaluate(loaded, clock));
+            return index;
+        });
+    }
+
+    /**
+     * Prevents the load in progress of the given user from being cached, as it may miss a change
+     */
+    private void invalidateLoading(User user) {
+        loading.remove(user);
+    }
+
+    /**
+     * A cached deck with the weight it was cached with
+     */
+    private static final class Deck {
+        /** The index of the unfinished cards */
+        private final DueIndex index;
+        /** The weight of the deck when it was cached */
+        private final int weight;
+
+        Deck(DueIndex index) {
+            this.index = index;
+            this.weight = weigh(index);
+        }
+
+        static int weigh(DueIndex index) {
+            return index.size() + 1;
+        }
+    }
+
+    /**
+     * The decks of a user backed by the cache, writing through to the database
+     */
+    private final class CachedUserDecks extends Decks {
+
+        CachedUserDecks(User user, Database database) {
+            super(user, revisor, database, clock);
+        }
+
+        @Override
+        public CompletableFuture<Card> getNextCard() {
+            return DecksCache.this.getNextCard(getUser());
+        }
+
+        @Override
+        public CompletableFuture<List<Card>> getReadyCards() {
+            return DecksCache.this.getReadyCards(getUser());
+        }
+
+        @Override
+        public CompletableFuture<List<Card>> getReadyCards(int limit) {
+            return DecksCache.this.getReadyCards(getUser(), limit);
+        }
+
+        @Override
+        public CompletableFuture<List<Card>> getPendingCards() {
+            return DecksCache.this.getPendingCards(getUser());
+        }
+
+        @Override
+        protected void onUpdate(Card card) {
+            DecksCache.this.onUpdate(getUser(), card);
+        }
+
+        @Override
+        protected void onDelete(Card card) {
+            DecksCache.this.onDelete(getUser(), card);
+        }
+
+        /**
+         * Discards the cached deck of the user, as it may contain a change the database never stored
+         */
+        @Override
+        protected void onWriteFailed(Throwable failure) {
+            invalidate(getUser());
+        }
+    }
+
+    /**
+     * The builder of {@link DecksCache}. Either the maximal number of users or the maximal number of cards
+     * can be set, but not both.
+     */
+    public static class Builder {
+        private final RevisionManager revisor;
+        private Function<? super User, CompletableFuture<Stream<Card>>> loader;
+        private Clock clock = Clock.systemUTC();
+        private long maximumUsers = -1;
+        private long maximumCards = -1;
+        private Duration expireAfterAccess;
+
+        /**
+         * Creates a new builder of the cache
+         *
+         * @param revisor
+         *         the revision manager to compute the next revisions of the cards
+         */
+        public Builder(RevisionManager revisor) {
+            this.revisor = requireNonNull(revisor);
+        }
+
+        /**
+         * Sets the loader of all the cards of a user
+         *
+         * @param loader
+         *         loads all the cards of a user
+         * @return this builder
+         */
+        public Builder setLoader(Function<? super User, CompletableFuture<Stream<Card>>> loader) {
+            this.loader = loader;
+            return this;
+        }
+
+        /**
+         * Loads the cards from the given database. The database is switched between the users, so it must
+         * not be used by anyone else.
+         *
+         * @param database
+         *         the database dedicated to the cache
+         * @return this builder
+         */
+        public Builder setDatabase(Database database) {
+            requireNonNull(database);
+            return setLoader(user -> {
+                synchronized (database) {
+                    database.setUser(user);
+                    return database.getAllEntries();
+                }
+            });
+        }
+
+        /**
+         * Sets the clock to read the current time from, the system clock by default
+         *
+         * @param clock
+         *         the clock
+         * @return this builder
+         */
+        public Builder setClock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        /**
+         * Sets the maximal number of cached users, unbounded by default
+         *
+         * @param maximumUsers
+         *         the maximal number of users
+         * @return this builder
+         */
+        public Builder setMaximumUsers(long maximumUsers) {
+            this.maximumUsers = maximumUsers;
+            return this;
+        }
+
+        /**
+         * Sets the maximal number of cached cards, each user weighing the number of its indexed cards plus one.
+         * Unbounded by default.
+         *
+         * @param maximumCards
+         *         the maximal number of cards
+         * @return this builder
+         */
+        public Builder setMaximumCards(long maximumCards) {
+            this.maximumCards = maximumCards;
+            return this;
+        }
+
+        /**
+         * Sets the time after the last request of a user, when its deck expires. The decks do not expire
+         * by default.
+         *
+         * @param expireAfterAccess
+         *         the time a deck is kept without any requests
+         * @return this builder
+         */
+        public Builder setExpireAfterAccess(Duration expireAfterAccess) {
+            this.expireAfterAccess = expireAfterAccess;
+            return this;
+        }
+
+        /**
+         * Creates a {@link DecksCache}
+         *
+         * @return a new {@link DecksCache}
+         */
+        public DecksCache create() {
+            validate();
+            CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder();
+            if (maximumUsers >= 0) {
+                builder.maximumSize(maximumUsers);
+            }
+            if (maximumCards >= 0) {
+                builder.maximumWeight(maximumCards)
+                        .weigher((User user, Deck deck) -> deck.weight);
+            }
+            if (expireAfterAccess != null) {
+                builder.expireAfterAccess(expireAfterAccess.toNanos(), TimeUnit.NANOSECONDS);
+            }
+            return new DecksCache(builder.build(), requireNonNull(loader), revisor, requireNonNull(clock));
+        }
+
+        private void validate() {
+            if (maximumUsers >= 0 && maximumCards >= 0) {
+                throw new IllegalArgumentException("Only one of the maximal number of users and of cards can be specified");
+            }
+        }
+    }
+}
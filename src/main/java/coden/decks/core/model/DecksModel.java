@@ -1,11 +1,14 @@
 package coden.decks.core.model;
 
 import coden.decks.core.data.Card;
+import coden.decks.core.persistence.ProgressListener;
 import coden.decks.core.revision.RevisionManagerImpl;
 import coden.decks.core.user.User;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 
 /**
  * Represents a decks model - a central interface to interact with cards.
@@ -51,6 +54,7 @@ public interface DecksModel {
      * Makes a request to the server to update the card:
      *  * increases the current level of memorizing by 1.
      *  * updates the review time
+     * If the card is not saved yet, it is added.
      *
      * @param card
      *         the card to set as known
@@ -65,6 +69,7 @@ public interface DecksModel {
      * Makes a request to the server to update the card:
      *  * decreases the current level of memorizing by 1.
      *  * updates the review time
+     * If the card is not saved yet, it is added.
      *
      * @param card
      *         the card to set as unknown at the time of reviewing it
@@ -89,6 +94,31 @@ public interface DecksModel {
      */
     CompletableFuture<Void> deleteCard(Card card);
 
+    /**
+     * Adds (or saves) all the given cards. Makes asynchronous requests to the server writing the
+     * cards in batches.
+     * @param cards the cards to save
+     * @return the request made to the server
+     */
+    CompletableFuture<Void> addCards(Collection<? extends Card> cards);
+
+    /**
+     * Adds (or saves) all the cards of the given stream. The stream is consumed lazily, while the
+     * cards are being written in batches, so huge imports never have to be materialized in memory.
+     * @param cards the cards to save
+     * @param listener the listener to be notified about the number of saved cards
+     * @return the request made to the server, returning the number of saved cards
+     */
+    CompletableFuture<Integer> addCards(Stream<? extends Card> cards, ProgressListener listener);
+
+    /**
+     * Deletes all the given cards. Makes asynchronous requests to the server deleting the cards
+     * in batches.
+     * @param cards the cards to delete
+     * @return the request made to the server
+     */
+    CompletableFuture<Void> deleteCards(Collection<? extends Card> cards);
+
     /**
      * Returns the next card to be learned. Next card has the biggest deadline of review, i.e
      * it should be the first one to be reviewed.
@@ -104,6 +134,14 @@ public interface DecksModel {
      */
     CompletableFuture<List<Card>> getReadyCards();
 
+    /**
+     * Makes an asynchronous request to get at most {@code limit} cards that are ready to be learned,
+     * in the same order as {@link #getReadyCards()}
+     * @param limit the maximal number of cards to return
+     * @return the request to obtain the list of cards
+     */
+    CompletableFuture<List<Card>> getReadyCards(int limit);
+
     /**
      * Makes an asynchronous request to get all pending cards, i.e the ones that are not ready
      * to be learned
@@ -123,6 +161,13 @@ public interface DecksModel {
      */
     CompletableFuture<List<Card>> getAllCards();
 
+    /**
+     * Makes a single asynchronous request to get all the cards and partitions them into
+     * ready, pending and done cards.
+     * @return the request to obtain the overview of all cards.
+     */
+    CompletableFuture<DecksOverview> getOverview();
+
     /**
      * Sets the current user of the model
      * @param user the user to be set.
@@ -0,0 +1,132 @@
+package coden.decks.core.model;
+
+import coden.decks.core.data.Card;
+import coden.decks.core.revision.RevisionBatch;
+
+import javax.annotation.concurrent.Immutable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The {@code DecksOverview} is an immutable snapshot of all cards of a user partitioned into
+ * ready, pending and done cards, together with the number of cards on each level.
+ *
+ * @see DecksModel#getOverview()
+ */
+@Immutable
+public final class DecksOverview {
+    /** The ready cards, the one with the latest next revision first */
+    private final List<Card> readyCards;
+    /** The pending cards, the one with the latest next revision first */
+    private final List<Card> pendingCards;
+    /** The done cards, i.e. the cards that reached the maximal level */
+    private final List<Card> doneCards;
+    /** The number of cards by level */
+    private final Map<Integer, Integer> levelCounts;
+
+    /**
+     * Creates a new overview by partitioning the given evaluated cards in a single pass
+     *
+     * @param batch
+     *         the evaluated cards
+     * @param maxLevel
+     *         the maximal level, the cards on which are done
+     */
+    DecksOverview(RevisionBatch batch, int maxLevel) {
+        List<Integer> ready = new ArrayList<>();
+        List<Integer> pending = new ArrayList<>();
+        List<Card> done = new ArrayList<>();
+        Map<Integer, Integer> counts = new TreeMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            Card card = batch.getCard(i);
+            counts.merge(card.getLevel(), 1, Integer::sum);
+            if (card.getLevel() >= maxLevel) {
+                done.add(card);
+            } else if (batch.isReady(i)) {
+                ready.add(i);
+            } else {
+                pending.add(i);
+            }
+        }
+        this.readyCards = sorted(batch, ready);
+        this.pendingCards = sorted(batch, pending);
+        this.doneCards = Collections.unmodifiableList(done);
+        this.levelCounts = Collections.unmodifiableMap(counts);
+    }
+
+    /**
+     * Returns the ready cards, in the same order as {@link DecksModel#getReadyCards()}
+     *
+     * @return the unmodifiable list of ready cards
+     */
+    public List<Card> getReadyCards() {
+        return readyCards;
+    }
+
+    /**
+     * Returns the pending cards, in the same order as {@link DecksModel#getPendingCards()}
+     *
+     * @return the unmodifiable list of pending cards
+     */
+    public List<Card> getPendingCards() {
+        return pendingCards;
+    }
+
+    /**
+     * Returns the done cards, i.e. the cards with the maximal level
+     *
+     * @return the unmodifiable list of done cards
+     */
+    public List<Card> getDoneCards() {
+        return doneCards;
+    }
+
+    /**
+     * Returns the number of cards on each level. Levels without cards are absent.
+     *
+     * @return the unmodifiable map of the number of cards by level, ordered by level
+     */
+    public Map<Integer, Integer> getLevelCounts() {
+        return levelCounts;
+    }
+
+    /**
+     * Returns the number of cards on the given level
+     *
+     * @param level
+     *         the level
+     * @return the number of cards
+     */
+    public int getCount(int level) {
+        return levelCounts.getOrDefault(level, 0);
+    }
+
+    /**
+     * Returns the number of all cards
+     *
+     * @return the number of cards
+     */
+    public int size() {
+        return readyCards.size() + pendingCards.size() + doneCards.size();
+    }
+
+    private static List<Card> sorted(RevisionBatch batch, List<Integer> indices) {
+        indices.sort(Comparator.comparingLong((Integer i) -> batch.getNextRevision(i)).reversed());
+        List<Card> cards = new ArrayList<>(indices.size());
+        for (int index : indices) {
+            cards.add(batch.getCard(index));
+        }
+        return Collections.unmodifiableList(cards);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Overview<ready:%d, pending:%d, done:%d>",
+                readyCards.size(), pendingCards.size(), doneCards.size());
+    }
+}
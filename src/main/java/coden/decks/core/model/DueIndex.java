@@ -0,0 +1,219 @@
+package coden.decks.core.model;
+
+import coden.decks.core.data.Card;
+import coden.decks.core.revision.RevisionBatch;
+import coden.decks.core.revision.RevisionManager;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.TreeSet;
+
+/**
+ * The {@code DueIndex} is an in-memory index of unfinished cards ordered by their next revision time.
+ * It is built from a snapshot of cards and then kept up to date by putting and removing single cards,
+ * so that finding the ready cards or the next card does not require fetching and sorting the whole deck.
+ * <p>
+ * The entries are kept in a sorted set keyed by the next revision time in epoch millis, thus the
+ * next card (the ready card with the latest next revision time) is found in O(log n), and the
+ * ready and pending cards are read in order from the corresponding ranges.
+ */
+@ThreadSafe
+public class DueIndex {
+
+    /** The revision manager to compute the next revision of the cards */
+    private final RevisionManager revisor;
+    /** The entries ordered by their next revision time */
+    private final NavigableSet<Entry> byRevision = new TreeSet<>();
+    /** The entries by the front side of their cards */
+    private final Map<String, Entry> byFrontSide = new HashMap<>();
+
+    /**
+     * Creates a new empty index
+     *
+     * @param revisor
+     *         the revision manager to compute the next revisions of the put cards
+     */
+    public DueIndex(RevisionManager revisor) {
+        this.revisor = Objects.requireNonNull(revisor);
+    }
+
+    /**
+     * Replaces the content of the index with the cards of the given batch. Cards that reached the
+     * maximal level are not indexed.
+     *
+     * @param batch
+     *         the evaluated snapshot of cards
+     */
+    public synchronized void reset(RevisionBatch batch) {
+        byRevision.clear();
+        byFrontSide.clear();
+        int maxLevel = revisor.getMaxLevel();
+        for (int i = 0; i < batch.size(); i++) {
+            Card card = batch.getCard(i);
+            if (card.getLevel() < maxLevel) {
+                add(new Entry(card, batch.getNextRevision(i)));
+            }
+        }
+    }
+
+    /**
+     * Adds the given card or replaces the card with the same front side. If the card reached the
+     * maximal level, it is removed from the index instead.
+     *
+     * @param card
+     *         the card to put
+     */
+    public synchronized void put(Card card) {
+        remove(card.getFrontSide());
+        if (card.getLevel() < revisor.getMaxLevel()) {
+            add(new Entry(card, revisor.getNextRevision(card).toEpochMilli()));
+        }
+    }
+
+    /**
+     * Removes the card with the given front side
+     *
+     * @param frontSide
+     *         the front side of the card to remove
+     * @return {@code true} if the card was indexed, {@code false} otherwise
+     */
+    public synchronized boolean remove(String frontSide) {
+        Entry entry = byFrontSide.remove(frontSide);
+        if (entry == null) return false;
+        byRevision.remove(entry);
+        return true;
+    }
+
+    /**
+     * Returns the next card to review at the given time, i.e. the ready card with the latest
+     * next revision time.
+     *
+     * @param now
+     *         the current time in epoch millis
+     * @return the next card or {@code null} if no cards are ready
+     */
+    public synchronized Card getNextCard(long now) {
+        Entry entry = byRevision.lower(Entry.upperBound(now));
+        return entry == null ? null : entry.card;
+    }
+
+    /**
+     * Returns the cards ready at the given time, the one with the latest next revision time first
+     *
+     * @param now
+     *         the current time in epoch millis
+     * @return the list of ready cards
+     */
+    public synchronized List<Card> getReadyCards(long now) {
+        return collect(byRevision.headSet(Entry.upperBound(now), false).descendingSet());
+    }
+
+    /**
+     * Returns at most {@code limit} cards ready at the given time, the one with the latest next
+     * revision time first
+     *
+     * @param now
+     *         the current time in epoch millis
+     * @param limit
+     *         the maximal number of cards to return
+     * @return the list of ready cards
+     * @throws IllegalArgumentException
+     *         if the limit is negative
+     */
+    public synchronized List<Card> getReadyCards(long now, int limit) {
+        if (limit < 0) throw new IllegalArgumentException("Limit must not be negative: " + limit);
+        List<Card> cards = new ArrayList<>(Math.min(limit, byRevision.size()));
+        for (Entry entry : byRevision.headSet(Entry.upperBound(now), false).descendingSet()) {
+            if (cards.size() == limit) break;
+            cards.add(entry.card);
+        }
+        return cards;
+    }
+
+    /**
+     * Returns the cards pending at the given time, the one with the latest next revision time first
+     *
+     * @param now
+     *         the current time in epoch millis
+     * @return the list of pending cards
+     */
+    public synchronized List<Card> getPendingCards(long now) {
+        return collect(byRevision.tailSet(Entry.upperBound(now), false).descendingSet());
+    }
+
+    /**
+     * Returns the earliest next revision time after the given time, i.e. the time when the next
+     * pending card becomes ready.
+     *
+     * @param now
+     *         the current time in epoch millis
+     * @return the next revision time in epoch millis or {@link Long#MAX_VALUE} if no cards are pending
+     */
+    public synchronized long getNextRevision(long now) {
+        Entry entry = byRevision.higher(Entry.upperBound(now));
+        return entry == null ? Long.MAX_VALUE : entry.nextRevision;
+    }
+
+    /**
+     * Returns the number of indexed cards
+     *
+     * @return the size of the index
+     */
+    public synchronized int size() {
+        return byFrontSide.size();
+    }
+
+    private void add(Entry entry) {
+        Entry previous = byFrontSide.put(entry.card.getFrontSide(), entry);
+        if (previous != null) byRevision.remove(previous);
+        byRevision.add(entry);
+    }
+
+    private List<Card> collect(NavigableSet<Entry> entries) {
+        List<Card> cards = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            cards.add(entry.card);
+        }
+        return cards;
+    }
+
+    /**
+     * An indexed card with its next revision time. Entries are ordered by the next revision time
+     * and then by the front side.
+     */
+    private static final class Entry implements Comparable<Entry> {
+        /** The indexed card, {@code null} for search bounds */
+        private final Card card;
+        /** The next revision time in epoch millis */
+        private final long nextRevision;
+
+        Entry(Card card, long nextRevision) {
+            this.card = card;
+            this.nextRevision = nextRevision;
+        }
+
+        /**
+         * Creates a search bound greater than all entries with the given next revision time and
+         * less than all entries with a later one.
+         */
+        static Entry upperBound(long nextRevision) {
+            return new Entry(null, nextRevision);
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            int result = Long.compare(nextRevision, other.nextRevision);
+            if (result != 0) return result;
+            if (card == other.card) return 0;
+            if (card == null) return 1;
+            if (other.card == null) return -1;
+            return card.getFrontSide().compareTo(other.card.getFrontSide());
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package coden.decks.core.model;
+
+import coden.decks.core.data.Card;
+import coden.decks.core.persistence.Database;
+import coden.decks.core.persistence.Projection;
+import coden.decks.core.revision.RevisionManager;
+import coden.decks.core.user.User;
+
+import java.time.Clock;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+/**
+ * Represents the {@link DecksModel} that keeps the unfinished cards of the current user in a {@link DueIndex}.
+ * The index is loaded from a single snapshot on the first request and then updated on every change made
+ * through this model, so the ready cards, the pending cards and the next card are served from memory.
+ * If a write fails, the index is dropped and loaded again on the next request.
+ * <p>
+ * Changes made by other clients are not observed until {@link #refresh()} is called.
+ */
+public class IndexedDecks extends Decks {
+
+    /** The request loading the index of the current user, {@code null} if not requested yet */
+    private volatile CompletableFuture<DueIndex> index;
+
+    public IndexedDecks(User user, RevisionManager revisor, Database database) {
+        this(user, revisor, database, Clock.systemUTC());
+    }
+
+    public IndexedDecks(User user, RevisionManager revisor, Database database, Clock clock) {
+        super(user, revisor, database, clock);
+    }
+
+    /**
+     * Gets the next ready card from the index.
+     *
+     * @return the completable future wrapping the card or {@code null} if no cards are ready
+     */
+    @Override
+    public CompletableFuture<Card> getNextCard() {
+        return getIndex().thenApply(i -> i.getNextCard(getClock().millis()));
+    }
+
+    @Override
+    public CompletableFuture<List<Card>> getReadyCards() {
+        return getIndex().thenApply(i -> i.getReadyCards(getClock().millis()));
+    }
+
+    @Override
+    public CompletableFuture<List<Card>> getReadyCards(int limit) {
+        return getIndex().thenApply(i -> i.getReadyCards(getClock().millis(), limit));
+    }
+
+    @Override
+    public CompletableFuture<List<Card>> getPendingCards() {
+        return getIndex().thenApply(i -> i.getPendingCards(getClock().millis()));
+    }
+
+    /**
+     * Drops the current index and loads a new one from the database
+     *
+     * @return the request loading the new index
+     */
+    public CompletableFuture<Void> refresh() {
+        CompletableFuture<DueIndex> newIndex = loadIndex();
+        index = newIndex;
+        return newIndex.thenApply(i -> null);
+    }
+
+    @Override
+    public void setUser(User user) {
+        super.setUser(user);
+        // the index of the previous user, even if still loading, is never used again
+        index = null;
+    }
+
+    @Override
+    protected void onUpdate(Card card) {
+        CompletableFuture<DueIndex> current = index;
+        if (current != null) current.thenAccept(i -> i.put(card));
+    }
+
+    @Override
+    protected void onDelete(Card card) {
+        CompletableFuture<DueIndex> current = index;
+        if (current != null) current.thenAccept(i -> i.remove(card.getFrontSide()));
+    }
+
+    /**
+     * Drops the index, as it may contain a change the database never stored
+     */
+    @Override
+    protected void onWriteFailed(Throwable failure) {
+        index = null;
+    }
+
+    /**
+     * Returns the index of the current user, loading it if it was not requested yet
+     * or the previous request failed.
+     *
+     * @return the request loading the index
+     */
+    private CompletableFuture<DueIndex> getIndex() {
+        CompletableFuture<DueIndex> current = index;
+        if (current == null || current.isCompletedExceptionally()) {
+            synchronized (this) {
+                current = index;
+                if (current == null || current.isCompletedExceptionally()) {
+                    current = loadIndex();
+                    index = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    private CompletableFuture<DueIndex> loadIndex() {
+        RevisionManager revisor = getRevisor();
+        return getDatabase().getLessOrEqualLevel(revisor.getMaxLevel() - 1, Projection.SCHEDULING)
+                .thenApply(cards -> {
+                    DueIndex dueIndex = new DueIndex(revisor);
+                    dueIndex.reset(revisor.evaluate(cards.collect(Collectors.toList()), getClock()));
+                    return dueIndex;
+                });
+    }
+}
@@ -0,0 +1,157 @@
+package coden.decks.core.model;
+
+import static java.util.Objects.requireNonNull;
+
+import com.google.common.base.Ticker;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+/**
+ * The {@code PrefetchPolicy} decides when a cache of cards has to be refilled. It measures the rate the cards
+ * are consumed at (as an exponentially weighted moving average of the intervals between consumptions) and the
+ * latency of the refreshes (as the 95th percentile of the recent refreshes), and requests a refill as soon as
+ * the remaining cards would run out before {@code safetyFactor} refreshes could complete:
+ * <pre>
+ *     remaining * interval &lt; safetyFactor * p95(refresh latency)
+ * </pre>
+ * Independently of the measurements, a refill is always requested below the minimal number of remaining cards
+ * and never requested at or above the maximal one.
+ */
+@ThreadSafe
+public class PrefetchPolicy {
+
+    /** The default minimal number of remaining cards */
+    public static final int DEFAULT_MIN_REMAINING = 2;
+    /** The default maximal number of remaining cards */
+    public static final int DEFAULT_MAX_REMAINING = 50;
+    /** The default number of refresh latencies the remaining cards have to last for */
+    public static final double DEFAULT_SAFETY_FACTOR = 2.0;
+
+    /** The weight of a new interval in the moving average */
+    static final double INTERVAL_WEIGHT = 0.2;
+    /** The longest interval taken into account, so that pauses of the reviewer do not distort the rate */
+    static final long MAX_INTERVAL = Duration.ofMinutes(1).toNanos();
+    /** The number of the recent refresh latencies the percentile is computed from */
+    static final int LATENCY_SAMPLES = 32;
+
+    /** Below this number of remaining cards a refill is always requested */
+    private final int minRemaining;
+    /** At or above this number of remaining cards a refill is never requested */
+    private final int maxRemaining;
+    /** The number of refresh latencies the remaining cards have to last for */
+    private final double safetyFactor;
+    /** The source of the time */
+    private final Ticker ticker;
+
+    /** The time of the last consumption in nanos, guarded by {@code this} */
+    private long lastConsumption = -1;
+    /** The average interval between consumptions in nanos, 0 if unknown, guarded by {@code this} */
+    private double interval;
+    /** The recent refresh latencies in nanos, guarded by {@code this} */
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    /** The number of recorded refresh latencies, guarded by {@code this} */
+    private int recorded;
+    /** The 95th percentile of the recent refresh latencies in nanos, guarded by {@code this} */
+    private long p95Latency;
+
+    /**
+     * Creates a new policy with the default bounds and safety factor
+     */
+    public PrefetchPolicy() {
+        this(DEFAULT_MIN_REMAINING, DEFAULT_MAX_REMAINING, DEFAULT_SAFETY_FACTOR);
+    }
+
+    /**
+     * Creates a new policy with the given bounds and safety factor
+     *
+     * @param minRemaining
+     *         below this number of remaining cards a refill is always requested
+     * @param maxRemaining
+     *         at or above this number of remaining cards a refill is never requested
+     * @param safetyFactor
+     *         the number of refresh latencies the remaining cards have to last for
+     */
+    public PrefetchPolicy(int minRemaining, int maxRemaining, double safetyFactor) {
+        this(minRemaining, maxRemaining, safetyFactor, Ticker.systemTicker());
+    }
+
+    PrefetchPolicy(int minRemaining, int maxRemaining, double safetyFactor, Ticker ticker) {
+        if (minRemaining < 0 || maxRemaining < minRemaining) {
+            throw new IllegalArgumentException("Invalid bounds: [" + minRemaining + ", " + maxRemaining + "]");
+        }
+        if (safetyFactor < 0) throw new IllegalArgumentException("Safety factor must not be negative: " + safetyFactor);
+        this.minRemaining = minRemaining;
+        this.maxRemaining = maxRemaining;
+        this.safetyFactor = safetyFactor;
+        this.ticker = requireNonNull(ticker);
+    }
+
+    /**
+     * Returns the current time of the policy, to measure the latency of a refresh
+     *
+     * @return the current time in nanos
+     */
+    public long now() {
+        return ticker.read();
+    }
+
+    /**
+     * Records that a card was consumed now
+     */
+    public synchronized void recordConsumption() {
+        long now = ticker.read();
+        if (lastConsumption >= 0) {
+            long sample = Math.min(now - lastConsumption, MAX_INTERVAL);
+            interval = interval == 0 ? sample : interval + INTERVAL_WEIGHT * (sample - interval);
+        }
+        lastConsumption = now;
+    }
+
+    /**
+     * Records that a refresh started at the given time has completed now
+     *
+     * @param start
+     *         the start of the refresh, as returned by {@link #now()}
+     */
+    public synchronized void recordRefresh(long start) {
+        latencies[recorded++ % LATENCY_SAMPLES] = ticker.read() - start;
+        long[] sorted = Arrays.copyOf(latencies, Math.min(recorded, LATENCY_SAMPLES));
+        Arrays.sort(sorted);
+        p95Latency = sorted[(int) Math.ceil(0.95 * sorted.length) - 1];
+    }
+
+    /**
+     * Decides whether the cache with the given number of remaining cards has to be refilled
+     *
+     * @param remaining
+     *         the number of remaining cards
+     * @return {@code true} if a refill has to be requested, {@code false} otherwise
+     */
+    public synchronized boolean shouldRefill(int remaining) {
+        if (remaining < minRemaining) return true;
+        if (remaining >= maxRemaining) return false;
+        if (interval == 0 || recorded == 0) return false;
+        return remaining * interval < safetyFactor * p95Latency;
+    }
+
+    /**
+     * Returns the average interval between consumptions
+     *
+     * @return the average interval or {@link Duration#ZERO} if it is not measured yet
+     */
+    public synchronized Duration getConsumptionInterval() {
+        return Duration.ofNanos((long) interval);
+    }
+
+    /**
+     * Returns the 95th percentile of the recent refresh latencies
+     *
+     * @return the latency or {@link Duration#ZERO} if it is not measured yet
+     */
+    public synchronized Duration getRefreshLatency() {
+        return Duration.ofNanos(p95Latency);
+    }
+}
@@ -0,0 +1,199 @@
+package coden.decks.core.model;
+
+import static java.util.Objects.requireNonNull;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The {@code RefreshScheduler} runs periodic refreshes of many caches on a small shared pool of threads.
+ * The first run of each registered refresh is delayed by a random part of its period, and every next run
+ * is shifted by a random jitter, so that the refreshes of many caches do not fire at the same time.
+ * <p>
+ * The refreshes are expected to be short and non-blocking, e.g. to only issue an asynchronous request.
+ */
+@ThreadSafe
+public class RefreshScheduler implements AutoCloseable {
+
+    /** The default maximal jitter as a fraction of the period */
+    public static final double DEFAULT_JITTER = 0.1;
+
+    /** The executor running the refreshes */
+    private final ScheduledExecutorService executor;
+    /** The maximal jitter as a fraction of the period */
+    private final double jitter;
+    /** Whether the scheduler is shared by default and is never shut down */
+    private final boolean shared;
+
+    /**
+     * Creates a new scheduler with the given number of daemon threads
+     *
+     * @param threads
+     *         the number of threads running the refreshes
+     * @param jitter
+     *         the maximal jitter as a fraction of the period, from 0 to 1
+     */
+    public RefreshScheduler(int threads, double jitter) {
+        this(Executors.newScheduledThreadPool(threads, new DaemonThreadFactory()), jitter);
+    }
+
+    /**
+     * Creates a new scheduler running the refreshes on the given executor
+     *
+     * @param executor
+     *         the executor running the refreshes, shut down on close
+     * @param jitter
+     *         the maximal jitter as a fraction of the period, from 0 to 1
+     */
+    public RefreshScheduler(ScheduledExecutorService executor, double jitter) {
+        this(executor, jitter, false);
+    }
+
+    private RefreshScheduler(ScheduledExecutorService executor, double jitter, boolean shared) {
+        if (jitter < 0 || jitter > 1) throw new IllegalArgumentException("Jitter must be between 0 and 1: " + jitter);
+        this.executor = requireNonNull(executor);
+        this.jitter = jitter;
+        this.shared = shared;
+    }
+
+    /**
+     * Returns the scheduler shared by default by all the caches of the JVM. It runs on a single daemon thread
+     * and is never shut down: closing it does nothing.
+     *
+     * @return the default scheduler
+     */
+    public static RefreshScheduler getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    /**
+     * Registers the given refresh to be run periodically until the returned registration is closed.
+     * The first run is delayed by a random time less than the period.
+     *
+     * @param refresh
+     *         the refresh to run
+     * @param period
+     *         the period of the refresh
+     * @return the registration to unregister the refresh
+     */
+    public Registration register(Runnable refresh, Duration period) {
+        if (period.isNegative() || period.isZero()) throw new IllegalArgumentException("Period must be positive: " + period);
+        Registration registration = new Registration(requireNonNull(refresh), period.toNanos());
+        registration.schedule(ThreadLocalRandom.current().nextLong(registration.period));
+        return registration;
+    }
+
+    /**
+     * Runs the given task once after the given delay
+     *
+     * @param task
+     *         the task to run
+     * @param delay
+     *         the delay of the run
+     * @return the future to cancel the run
+     */
+    public ScheduledFuture<?> schedule(Runnable task, Duration delay) {
+        return executor.schedule(task, Math.max(0, delay.toNanos()), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Shuts the scheduler down, cancelling all the registered refreshes. Does nothing for the
+     * {@linkplain #getDefault() default scheduler}, as it is shared by all the caches of the JVM.
+     */
+    @Override
+    public void close() {
+        if (shared) return;
+        executor.shutdownNow();
+    }
+
+    /**
+     * Computes the delay of the next run, shifted by a random jitter
+     *
+     * @param period
+     *         the period in nanos
+     * @return the delay in nanos
+     */
+    private long jittered(long period) {
+        long maxShift = (long) (period * jitter);
+        if (maxShift == 0) return period;
+        return period + ThreadLocalRandom.current().nextLong(-maxShift, maxShift + 1);
+    }
+
+    /**
+     * The registration of a periodic refresh. Closing it stops further runs of the refresh.
+     */
+    public final class Registration implements AutoCloseable {
+        /** The refresh to run */
+        private final Runnable refresh;
+        /** The period in nanos */
+        private final long period;
+        /** The next scheduled run */
+        private volatile ScheduledFuture<?> next;
+        /** Whether the registration was closed */
+        private volatile boolean closed;
+
+        private Registration(Runnable refresh, long period) {
+            this.refresh = refresh;
+            this.period = period;
+        }
+
+        private synchronized void schedule(long delay) {
+            if (closed) return;
+            try {
+                next = executor.schedule(this::run, delay, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                // the scheduler was closed
+                closed = true;
+            }
+        }
+
+        private void run() {
+            if (closed) return;
+            try {
+                refresh.run();
+            } finally {
+                schedule(jittered(period));
+            }
+        }
+
+        /**
+         * Unregisters the refresh. A run, that is already in progress, is completed.
+         */
+        @Override
+        public synchronized void close() {
+            closed = true;
+            if (next != null) next.cancel(false);
+        }
+    }
+
+    /**
+     * Creates daemon threads, so that the scheduler does not prevent the JVM from exiting
+     */
+    private static final class DaemonThreadFactory implements ThreadFactory {
+        private static final AtomicInteger COUNT = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "decks-refresh-" + COUNT.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * Lazily creates the default scheduler
+     */
+    private static final class DefaultHolder {
+        private static final RefreshScheduler INSTANCE = new RefreshScheduler(
+                Executors.newScheduledThreadPool(1, new DaemonThreadFactory()), DEFAULT_JITTER, true);
+    }
+}
@@ -0,0 +1,502 @@
+package coden.decks.core.persistence;
+
+import static java.util.Objects.requireNonNull;
+
+import coden.decks.core.data.Card;
+import coden.decks.core.data.LazyCard;
+import coden.decks.core.data.SimpleCard;
+import coden.decks.core.user.User;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The {@code CachingDatabase} is a {@link Database} decorator, that caches the results of the repeated queries
+ * of all the cards, of the cards by their level and of all the users. The results are cached per user and query
+ * for a limited time, bounded by the total number of cached cards. Concurrent identical queries, that are not
+ * cached, share a single request to the underlying database.
+ * <p>
+ * The writes made through the decorator patch the cached results of their user when they succeed: the written
+ * cards are put into the results of the queries they match and removed from the others. A failed write or a
+ * write, that cannot be patched, discards the cached results of the user. Queries in progress during a write
+ * are returned to their callers, but not cached, as they may miss the write. The writes made by anyone else
+ * are observed only when the results expire.
+ */
+@ThreadSafe
+public class CachingDatabase implements Database {
+
+    /** The default time the results are cached for */
+    public static final Duration DEFAULT_EXPIRE_AFTER_WRITE = Duration.ofMinutes(1);
+    /** The default maximal number of cached cards */
+    public static final long DEFAULT_MAXIMUM_CARDS = 100_000;
+
+    /** The underlying database */
+    private final Database delegate;
+    /** The cached cards by their queries */
+    private final Cache<Query, List<Card>> cards;
+    /** The cached users */
+    private final Cache<Query, List<User>> users;
+    /** The card queries in progress, that are not cached yet */
+    private final ConcurrentMap<Query, CompletableFuture<List<Card>>> loadingCards = new ConcurrentHashMap<>();
+    /** The user queries in progress, that are not cached yet */
+    private final ConcurrentMap<Query, CompletableFuture<List<User>>> loadingUsers = new ConcurrentHashMap<>();
+
+    private CachingDatabase(Database delegate, Cache<Query, List<Card>> cards, Cache<Query, List<User>> users) {
+        this.delegate = delegate;
+        this.cards = cards;
+        this.users = users;
+    }
+
+    @Override
+    public User getUser() {
+        return delegate.getUser();
+    }
+
+    /**
+     * Sets the user of the underlying database. The cached users are discarded, if the user changes,
+     * as the new user may be created.
+     */
+    @Override
+    public void setUser(User user) {
+        if (!Objects.equals(delegate.getUser(), user)) {
+            users.invalidateAll();
+            loadingUsers.clear();
+        }
+        delegate.setUser(user);
+    }
+
+    @Override
+    public CompletableFuture<Stream<User>> getAllUsers() {
+        return cached(users, loadingUsers, Query.USERS, delegate::getAllUsers);
+    }
+
+    @Override
+    public CompletableFuture<Stream<Card>> getAllEntries() {
+        return cachedCards(Query.Kind.ALL, 0, Projection.FULL, delegate::getAllEntries);
+    }
+
+    @Override
+    public CompletableFuture<Stream<Card>> getGreaterOrEqualLevel(int level) {
+        return cachedCards(Query.Kind.GREATER_OR_EQUAL, level, Projection.FULL,
+                () -> delegate.getGreaterOrEqualLevel(level));
+    }
+
+    @Override
+    public CompletableFuture<Stream<Card>> getLessOrEqualLevel(int level) {
+        return getLessOrEqualLevel(level, Projection.FULL);
+    }
+
+    @Override
+    public CompletableFuture<Stream<Card>> getLessOrEqualLevel(int level, Projection projection) {
+        return cachedCards(Query.Kind.LESS_OR_EQUAL, level, requireNonNull(projection),
+                () -> delegate.getLessOrEqualLevel(level, projection));
+    }
+
+    /**
+     * Queries the underlying database, as the time of the query changes with every call
+     */
+    @Override
+    public CompletableFuture<Stream<Card>> getDueBefore(Instant time, int limit) {
+        return delegate.getDueBefore(time, limit);
+    }
+
+    /**
+     * Queries the underlying database, as the time of the query changes with every call
+     */
+    @Override
+    public CompletableFuture<UpdatedCards> getUpdatedSince(Instant time) {
+        return delegate.getUpdatedSince(time);
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteEntry(Card card) {
+        return deleteEntries(Collections.singletonList(card));
+    }
+
+    @Override
+    public CompletableFuture<Void> addOrUpdateEntry(Card card) {
+        return addOrUpdateEntries(Collections.singletonList(card));
+    }
+
+    /**
+     * Updates the review and patches the cached cards with the level and the last review of the given card.
+     * The card is moved between the cached results of the levels, if any of them contains it, or the results,
+     * that would contain it after the update, are discarded otherwise.
+     */
+    @Override
+    public CompletableFuture<Void> updateReview(Card card) {
+        return writeReviews(Collections.singletonList(card), () -> delegate.updateReview(card));
+    }
+
+    /**
+     * Updates the reviews and patches the cached cards like {@link #updateReview(Card)}
+     */
+    @Override
+    public CompletableFuture<Void> updateReviews(Collection<? extends Card> cards) {
+        List<Card> reviews = new ArrayList<>(cards);
+        return writeReviews(reviews, () -> delegate.updateReviews(reviews));
+    }
+
+    private CompletableFuture<Void> writeReviews(List<? extends Card> reviews, Supplier<CompletableFuture<Void>> write) {
+        User user = delegate.getUser();
+        Map<String, Card> reviewed = new HashMap<>();
+        for (Card card : reviews) {
+            Card stored = getCached(user, card.getFrontSide());
+            if (stored != null) reviewed.put(card.getFrontSide(), review(stored, card));
+        }
+        return write(write, (query, cached) -> {
+            Map<String, Card> patched = byFrontSide(cached);
+            for (Card card : reviews) {
+                Card patch = reviewed.get(card.getFrontSide());
+                if (patch == null) {
+                    if (query.matches(card) && !patched.containsKey(card.getFrontSide())) return null;
+                } else if (query.matches(patch)) {
+                    patched.put(patch.getFrontSide(), patch);
+                } else {
+                    patched.remove(patch.getFrontSide());
+                }
+            }
+            return new ArrayList<>(patched.values());
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> addOrUpdateEntries(Collection<? extends Card> cards) {
+        List<Card> written = new ArrayList<>(cards);
+        return write(() -> delegate.addOrUpdateEntries(written), (query, cached) -> {
+            Map<String, Card> patched = byFrontSide(cached);
+            for (Card card : written) {
+                if (query.matches(card)) patched.put(card.getFrontSide(), card);
+                else patched.remove(card.getFrontSide());
+            }
+            return new ArrayList<>(patched.values());
+        });
+    }
+
+    /**
+     * Writes the cards and discards the cached cards of the user, as the streamed cards are not collected
+     */
+    @Override
+    public CompletableFuture<Integer> addOrUpdateEntries(Stream<? extends Card> cards, ProgressListener listener) {
+        return write(() -> delegate.addOrUpdateEntries(cards, listener), (query, cached) -> null);
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteEntries(Collection<? extends Card> cards) {
+        List<Card> deleted = new ArrayList<>(cards);
+        return write(() -> delegate.deleteEntries(deleted), (query, cached) -> {
+            Map<String, Card> patched = byFrontSide(cached);
+            deleted.forEach(card -> patched.remove(card.getFrontSide()));
+            return new ArrayList<>(patched.values());
+        });
+    }
+
+    @Override
+    public ChangeSubscription addChangeListener(ChangeListener listener) {
+        return delegate.addChangeListener(listener);
+    }
+
+    /**
+     * Returns the statistics of the cached cards
+     *
+     * @return the hits, misses and evictions of the cached cards
+     */
+    public CacheStats getStats() {
+        return cards.stats();
+    }
+
+    /**
+     * Discards all the cached results
+     */
+    public void invalidateAll() {
+        cards.invalidateAll();
+        loadingCards.clear();
+        users.invalidateAll();
+        loadingUsers.clear();
+    }
+
+    private CompletableFuture<Stream<Card>> cachedCards(Query.Kind kind, int level, Projection projection,
+                                                        Supplier<CompletableFuture<Stream<Card>>> request) {
+        User user = delegate.getUser();
+        if (user == null) return request.get();
+        return cached(cards, loadingCards, new Query(user, kind, level, projection), request);
+    }
+
+    /**
+     * Returns the cached result of the given query or makes the request, sharing a request already in progress
+     *
+     * @return the request to get the result
+     */
+    private static <T> CompletableFuture<Stream<T>> cached(Cache<Query, List<T>> cache,
+                                                           ConcurrentMap<Query, CompletableFuture<List<T>>> loading,
+                                                           Query query,
+                                                           Supplier<CompletableFuture<Stream<T>>> request) {
+        List<T> cached = cache.getIfPresent(query);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached.stream());
+        }
+        CompletableFuture<List<T>> created = new CompletableFuture<>();
+        CompletableFuture<List<T>> existing = loading.putIfAbsent(query, created);
+        if (existing != null) {
+            return existing.thenApply(List::stream);
+        }
+        CompletableFuture<Stream<T>> response;
+        try {
+            response = request.get();
+        } catch (RuntimeException e) {
+            loading.remove(query, created);
+            created.completeExceptionally(e);
+            throw e;
+        }
+        response.whenComplete((result, failure) -> {
+            List<T> loaded = failure == null ? Collections.unmodifiableList(result.collect(Collectors.toList())) : null;
+            // a request invalidated meanwhile is returned to its callers, but not cached
+            if (loading.remove(query, created) && failure == null) {
+                cache.put(query, loaded);
+            }
+            if (failure != null) created.completeExceptionally(failure);
+            else created.complete(loaded);
+        });
+        return created.thenApply(List::stream);
+    }
+
+    /**
+     * Makes the given write and then patches the cached cards of the current user
+     *
+     * @param write
+     *         makes the write to the underlying database
+     * @param patch
+     *         returns the patched result of a query or {@code null} to discard it
+     * @return the request of the write
+     */
+    private <T> CompletableFuture<T> write(Supplier<CompletableFuture<T>> write,
+                                           BiFunction<Query, List<Card>, List<Card>> patch) {
+        User user = delegate.getUser();
+        invalidateLoading(user);
+        return write.get().whenComplete((result, failure) -> {
+            invalidateLoading(user);
+            for (Query query : cards.asMap().keySet()) {
+                if (!Objects.equals(query.user, user)) continue;
+                cards.asMap().computeIfPresent(query, (q, cached) -> {
+                    if (failure != null) return null;
+                    List<Card> patched = patch.apply(q, cached);
+                    return patched == null ? null : Collections.unmodifiableList(patched);
+                });
+            }
+        });
+    }
+
+    /**
+     * Prevents the queries in progress of the given user from being cached, as they may miss a write
+     */
+    private void invalidateLoading(User user) {
+        loadingCards.keySet().removeIf(query -> Objects.equals(query.user, user));
+    }
+
+    /**
+     * Returns the card of the given user with the given front side from any of the cached results
+     *
+     * @return the cached card or {@code null} if no cached result contains it
+     */
+    private Card getCached(User user, String frontSide) {
+        for (Map.Entry<Query, List<Card>> cached : cards.asMap().entrySet()) {
+            if (!Objects.equals(cached.getKey().user, user)) continue;
+            for (Card card : cached.getValue()) {
+                if (card.getFrontSide().equals(frontSide)) return card;
+            }
+        }
+        return null;
+    }
+
+    private static Map<String, Card> byFrontSide(List<Card> cards) {
+        Map<String, Card> byFrontSide = new LinkedHashMap<>();
+        for (Card card : cards) {
+            byFrontSide.put(card.getFrontSide(), card);
+        }
+        return byFrontSide;
+    }
+
+    /**
+     * Returns the stored card with the level and the last review of the given card, without loading the back side
+     */
+    private static Card review(Card stored, Card review) {
+        if (stored instanceof LazyCard && !((LazyCard) stored).isLoaded()) {
+            return new LazyCard(stored.getFrontSide(), review.getLevel(), review.getLastReview(), stored::getBackSide);
+        }
+        return new SimpleCard.Builder(stored)
+                .setLevel(review.getLevel())
+                .setLastReview(review.getLastReview())
+                .create();
+    }
+
+    @Override
+    public void close() throws Exception {
+        invalidateAll();
+        delegate.close();
+    }
+
+    /**
+     * A cached query of a user
+     */
+    @Immutable
+    private static final class Query {
+        /** The query of all the users */
+        static final Query USERS = new Query(null, Kind.USERS, 0, Projection.FULL);
+
+        enum Kind {ALL, GREATER_OR_EQUAL, LESS_OR_EQUAL, USERS}
+
+        private final User user;
+        private final Kind kind;
+        private final int level;
+        private final Projection projection;
+
+        Query(User user, Kind kind, int level, Projection projection) {
+            this.user = user;
+            this.kind = kind;
+            this.level = level;
+            this.projection = projection;
+        }
+
+        /**
+         * Returns whether the given card is a result of this query
+         */
+        boolean matches(Card card) {
+            switch (kind) {
+                case GREATER_OR_EQUAL:
+                    return card.getLevel() >= level;
+                case LESS_OR_EQUAL:
+                    return card.getLevel() <= level;
+                default:
+                    return true;
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Query query = (Query) o;
+            return level == query.level
+                    && Objects.equals(user, query.user)
+                    && kind == query.kind
+                    && projection == query.projection;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(user, kind, level, projection);
+        }
+    }
+
+    /**
+     * The builder of {@link CachingDatabase}
+     */
+    public static class Builder {
+        private final Database delegate;
+        private Duration expireAfterWrite = DEFAULT_EXPIRE_AFTER_WRITE;
+        private long maximumCards = DEFAULT_MAXIMUM_CARDS;
+        private Ticker ticker = Ticker.systemTicker();
+
+        /**
+         * Creates a new builder of the cache
+         *
+         * @param delegate
+         *         the underlying database
+         */
+        public Builder(Database delegate) {
+            this.delegate = requireNonNull(delegate);
+        }
+
+        /**
+         * Sets the time the results are cached for
+         *
+         * @param expireAfterWrite
+         *         the time after the results are loaded or patched
+         * @return this builder
+         */
+        public Builder setExpireAfterWrite(Duration expireAfterWrite) {
+            this.expireAfterWrite = expireAfterWrite;
+            return this;
+        }
+
+        /**
+         * Sets the maximal number of cached cards. Each cached result weighs the number of its cards plus one.
+         *
+         * @param maximumCards
+         *         the maximal number of cards
+         * @return this builder
+         */
+        public Builder setMaximumCards(long maximumCards) {
+            this.maximumCards = maximumCards;
+            return this;
+        }
+
+        /**
+         * Sets the ticker measuring the age of the cached results, the system ticker by default
+         *
+         * @param ticker
+         *         the ticker
+         * @return this builder
+         */
+        public Builder setTicker(Ticker ticker) {
+            this.ticker = ticker;
+            return this;
+        }
+
+        /**
+         * Creates a {@link CachingDatabase}
+         *
+         * @return a new {@link CachingDatabase}
+         */
+        public CachingDatabase create() {
+            validate();
+            Cache<Query, List<Card>> cards = CacheBuilder.newBuilder()
+                    .maximumWeight(maximumCards)
+                    .weigher((Query query, List<Card> result) -> result.size() + 1)
+                    .expireAfterWrite(expireAfterWrite.toNanos(), TimeUnit.NANOSECONDS)
+                    .ticker(ticker)
+                    .recordStats()
+                    .build();
+            Cache<Query, List<User>> users = CacheBuilder.newBuilder()
+                    .maximumSize(1)
+                    .expireAfterWrite(expireAfterWrite.toNanos(), TimeUnit.NANOSECONDS)
+                    .ticker(ticker)
+                    .build();
+            return new CachingDatabase(delegate, cards, users);
+        }
+
+        private void validate() {
+            requireNonNull(expireAfterWrite, "Expiration must be set");
+            requireNonNull(ticker, "Ticker must be set");
+            if (expireAfterWrite.isNegative()) {
+                throw new IllegalArgumentException("Expiration must not be negative: " + expireAfterWrite);
+            }
+            if (maximumCards < 0) {
+                throw new IllegalArgumentException("Maximum cards must not be negative: " + maximumCards);
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package coden.decks.core.persistence;
+
+import static java.util.Objects.requireNonNull;
+
+import coden.decks.core.data.Card;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Represents a single change of a card in a database, delivered to a {@link ChangeListener}.
+ */
+@Immutable
+public final class CardChange {
+
+    /**
+     * The type of the change
+     */
+    public enum Type {
+        /** The card was added */
+        ADDED,
+        /** The card was updated */
+        MODIFIED,
+        /** The card was deleted */
+        REMOVED
+    }
+
+    /** The type of the change */
+    private final Type type;
+    /** The card after the change, or the last state of the card if it was removed */
+    private final Card card;
+
+    public CardChange(Type type, Card card) {
+        this.type = requireNonNull(type);
+        this.card = requireNonNull(card);
+    }
+
+    /**
+     * Returns the type of the change
+     *
+     * @return the type
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Returns the card after the change, or the last state of the card if it was removed
+     *
+     * @return the card
+     */
+    public Card getCard() {
+        return card;
+    }
+
+    @Override
+    public String toString() {
+        return "CardChange{" +
+                "type=" + type +
+                ", card=" + card +
+                '}';
+    }
+}
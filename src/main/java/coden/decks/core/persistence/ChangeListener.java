@@ -0,0 +1,27 @@
+package coden.decks.core.persistence;
+
+import java.util.List;
+
+/**
+ * Represents a listener of the changes of the cards in a database, registered with
+ * {@link Database#addChangeListener(ChangeListener)}.
+ */
+@FunctionalInterface
+public interface ChangeListener {
+    /**
+     * Called each time some cards are changed. The first call contains all the current cards as added.
+     *
+     * @param changes
+     *         the changes in order they were made
+     */
+    void onChanges(List<CardChange> changes);
+
+    /**
+     * Called when the change feed fails. No changes are delivered after that.
+     *
+     * @param error
+     *         the cause of the failure
+     */
+    default void onError(Throwable error) {
+    }
+}
@@ -0,0 +1,13 @@
+package coden.decks.core.persistence;
+
+/**
+ * Represents the registration of a {@link ChangeListener}. Closing it stops the delivery of the changes.
+ */
+@FunctionalInterface
+public interface ChangeSubscription extends AutoCloseable {
+    /**
+     * Unregisters the listener
+     */
+    @Override
+    void close();
+}
@@ -3,6 +3,8 @@ package coden.decks.core.persistence;
 import coden.decks.core.data.Card;
 import coden.decks.core.user.User;
 
+import java.time.Instant;
+import java.util.Collection;
 import java.util.concurrent.CompletableFuture;
 import java.util.stream.Stream;
 
@@ -58,6 +60,51 @@ public interface Database extends AutoCloseable {
      */
     CompletableFuture<Stream<Card>> getLessOrEqualLevel(int level);
 
+    /**
+     * Returns all entries of cards, that have level less than given asynchronously, fetching only the
+     * fields of the given projection. By default all the fields are fetched with {@link #getLessOrEqualLevel(int)}.
+     *
+     * @param level
+     *         the given level
+     * @param projection
+     *         the fields to fetch
+     * @return the request to get stream of all cards, with level less or equal than given level.
+     */
+    default CompletableFuture<Stream<Card>> getLessOrEqualLevel(int level, Projection projection) {
+        return getLessOrEqualLevel(level);
+    }
+
+    /**
+     * Returns at most {@code limit} entries of unfinished cards, which next revision time is not after
+     * the given time, asynchronously. The card with the latest next revision time comes first.
+     *
+     * @param time
+     *         the time, the cards have to be due at
+     * @param limit
+     *         the maximal number of cards
+     * @return the request to get stream of the cards due at the given time
+     * @throws UnsupportedOperationException
+     *         if the database does not index the next revision times
+     */
+    default CompletableFuture<Stream<Card>> getDueBefore(Instant time, int limit) {
+        throw new UnsupportedOperationException("Next revision times are not indexed");
+    }
+
+    /**
+     * Returns all entries of cards, which were written not before the given time, asynchronously. The times
+     * of the writes are assigned by the database, independent of the clocks of the clients. Querying since
+     * {@link Instant#EPOCH} or earlier returns all the cards.
+     *
+     * @param time
+     *         the earliest write time, as returned by {@link UpdatedCards#getLatestUpdate()}
+     * @return the request to get the cards written since the given time
+     * @throws UnsupportedOperationException
+     *         if the database does not record the write times
+     */
+    default CompletableFuture<UpdatedCards> getUpdatedSince(Instant time) {
+        throw new UnsupportedOperationException("Write times are not recorded");
+    }
+
     /**
      * Creates an asynchronous request to delete a given card.
      *
@@ -76,4 +123,97 @@ public interface Database extends AutoCloseable {
      * @return the request to add/update the card
      */
     CompletableFuture<Void> addOrUpdateEntry(Card card);
+
+    /**
+     * Updates only the level and the last review of the given existing card asynchronously,
+     * leaving the other fields untouched. By default the whole card is written with {@link #addOrUpdateEntry(Card)},
+     * so a missing card is added instead.
+     *
+     * @param card
+     *         the reviewed card
+     * @return the request to update the card, failing with {@link java.util.NoSuchElementException} if the card
+     * does not exist
+     */
+    default CompletableFuture<Void> updateReview(Card card) {
+        return addOrUpdateEntry(card);
+    }
+
+    /**
+     * Updates only the levels and the last reviews of all the given existing cards at once,
+     * leaving the other fields untouched. By default each card is updated with {@link #updateReview(Card)}.
+     *
+     * @param cards
+     *         the reviewed cards
+     * @return the request to update the cards, failing with {@link java.util.NoSuchElementException} if any of
+     * the cards does not exist
+     */
+    default CompletableFuture<Void> updateReviews(Collection<? extends Card> cards) {
+        return CompletableFuture.allOf(cards.stream()
+                .map(this::updateReview)
+                .toArray(CompletableFuture<?>[]::new));
+    }
+
+    /**
+     * Creates an asynchronous request to add or update all the given cards at once.
+     * As id the {@link Card#getFrontSide()} is used. By default each card is written with
+     * {@link #addOrUpdateEntry(Card)}.
+     *
+     * @param cards
+     *         the cards to be added
+     * @return the request to add/update the cards
+     */
+    default CompletableFuture<Void> addOrUpdateEntries(Collection<? extends Card> cards) {
+        return CompletableFuture.allOf(cards.stream()
+                .map(this::addOrUpdateEntry)
+                .toArray(CompletableFuture<?>[]::new));
+    }
+
+    /**
+     * Creates an asynchronous request to add or update all the cards of the given stream. The stream is
+     * consumed lazily, so it never has to be materialized in memory. The given listener is notified
+     * each time another part of the cards is written.
+     * As id the {@link Card#getFrontSide()} is used. By default each card is written with
+     * {@link #addOrUpdateEntry(Card)} and the listener is notified once all of them are written.
+     *
+     * @param cards
+     *         the cards to be added
+     * @param listener
+     *         the listener to be notified about the number of written cards
+     * @return the request to add/update the cards, returning the number of written cards
+     */
+    default CompletableFuture<Integer> addOrUpdateEntries(Stream<? extends Card> cards, ProgressListener listener) {
+        CompletableFuture<?>[] writes = cards.map(this::addOrUpdateEntry).toArray(CompletableFuture<?>[]::new);
+        return CompletableFuture.allOf(writes).thenApply(written -> {
+            listener.onProgress(writes.length);
+            return writes.length;
+        });
+    }
+
+    /**
+     * Creates an asynchronous request to delete all the given cards at once. By default each card is deleted
+     * with {@link #deleteEntry(Card)}.
+     *
+     * @param cards
+     *         the cards to be deleted
+     * @return the request to delete the cards
+     */
+    default CompletableFuture<Void> deleteEntries(Collection<? extends Card> cards) {
+        return CompletableFuture.allOf(cards.stream()
+                .map(this::deleteEntry)
+                .toArray(CompletableFuture<?>[]::new));
+    }
+
+    /**
+     * Registers a listener of the changes of the cards of the current user. The listener is first
+     * notified with all the current cards as added and then with the changes as they are made.
+     *
+     * @param listener
+     *         the listener to notify about the changes
+     * @return the subscription to unregister the listener
+     * @throws UnsupportedOperationException
+     *         if the database does not provide a change feed
+     */
+    default ChangeSubscription addChangeListener(ChangeListener listener) {
+        throw new UnsupportedOperationException("Changes are not provided");
+    }
 }
@@ -0,0 +1,627 @@
+package coden.decks.core.persistence;
+
+import static java.util.Objects.requireNonNull;
+
+import coden.decks.core.data.Card;
+import coden.decks.core.data.SimpleCard;
+import coden.decks.core.revision.RevisionManager;
+import coden.decks.core.user.User;
+import coden.decks.core.user.UserNotProvidedException;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * The {@code InMemoryDatabase} is a {@link Database} keeping the decks of its users in memory, for the tests,
+ * load simulations and benchmarks, that cannot reach firebase.
+ * <p>
+ * The cards of each user are stored by their front sides and indexed by their levels, so the level queries
+ * are range lookups. If created with a {@link RevisionManager}, the unfinished cards are also indexed by their
+ * next revision time, as stamped by {@code Firebase}, to answer {@link #getDueBefore(Instant, int)}.
+ * <p>
+ * Every request is applied at the time it is made, but its result can be delayed by a fixed latency and it can
+ * fail at a given rate with an {@link IOException}, to simulate a remote database. A failed write is not
+ * applied. The changes are delivered to the listeners in the order they were made, on the latency thread if
+ * the requests are delayed, or on the thread making the change otherwise.
+ */
+@ThreadSafe
+public class InMemoryDatabase implements Database {
+
+    /** The number of cards written at once by the bulk writes, reported to the progress listeners */
+    static final int BATCH_SIZE = 500;
+
+    /** The decks by their users */
+    private final ConcurrentMap<User, Deck> decks = new ConcurrentHashMap<>();
+    /** The revision manager to index the next revision times, may be {@code null} */
+    private final RevisionManager revisor;
+    /** The latency of the requests */
+    private final Duration latency;
+    /** The rate of the failed requests */
+    private final double failureRate;
+    /** The source of the failures */
+    private final Random random;
+    /** The clock assigning the update times of the written cards */
+    private final Clock clock;
+    /** The scheduler of the delayed responses, {@code null} if the requests are not delayed */
+    private final ScheduledExecutorService scheduler;
+    /** Whether the scheduler was created by and has to be shut down with this database */
+    private final boolean ownsScheduler;
+    /** The current user */
+    private volatile User user;
+
+    private InMemoryDatabase(RevisionManager revisor, Duration latency, double failureRate, Random random,
+                             Clock clock, ScheduledExecutorService scheduler, boolean ownsScheduler) {
+        this.revisor = revisor;
+        this.latency = latency;
+        this.failureRate = failureRate;
+        this.random = random;
+        this.clock = clock;
+        this.scheduler = scheduler;
+        this.ownsScheduler = ownsScheduler;
+    }
+
+    @Override
+    public User getUser() {
+        return user;
+    }
+
+    /**
+     * Sets the current user and creates its deck, if it does not exist
+     *
+     * @param user
+     *         the user
+     */
+    @Override
+    public void setUser(User user) {
+        if (user != null) decks.computeIfAbsent(user, u -> new Deck());
+        this.user = user;
+    }
+
+    /**
+     * Returns the users, that were ever set
+     */
+    @Override
+    public CompletableFuture<Stream<User>> getAllUsers() {
+        return respond(() -> new ArrayList<>(decks.keySet()).stream());
+    }
+
+    @Override
+    public CompletableFuture<Stream<Card>> getAllEntries() throws UserNotProvidedException {
+        Deck deck = getDeck();
+        return respond(() -> deck.getAll().stream());
+    }
+
+    @Override
+    public CompletableFuture<Stream<Card>> getGreaterOrEqualLevel(int level) throws UserNotProvidedException {
+        Deck deck = getDeck();
+        return respond(() -> deck.getGreaterOrEqualLevel(level).stream());
+    }
+
+    @Override
+    public CompletableFuture<Stream<Card>> getLessOrEqualLevel(int level) throws UserNotProvidedException {
+        Deck deck = getDeck();
+        return respond(() -> deck.getLessOrEqualLevel(level).stream());
+    }
+
+    /**
+     * Returns the full cards with any projection, as nothing is transferred
+     */
+    @Override
+    public CompletableFuture<Stream<Card>> getLessOrEqualLevel(int level, Projection projection)
+            throws UserNotProvidedException {
+        return getLessOrEqualLevel(level);
+    }
+
+    /**
+     * Queries the next revision index of the unfinished cards
+     *
+     * @throws IllegalStateException
+     *         if the database was created without a revision manager
+     */
+    @Override
+    public CompletableFuture<Stream<Card>> getDueBefore(Instant time, int limit) throws UserNotProvidedException {
+        if (revisor == null) throw new IllegalStateException("Next revisions are not indexed without a revision manager");
+        Deck deck = getDeck();
+        return respond(() -> deck.getDueBefore(time, limit).stream());
+    }
+
+    /**
+     * Returns the cards written and the cards deleted since the given time, as given by the clock of the database.
+     * The deletions are remembered until the cards are added again.
+     */
+    @Override
+    public CompletableFuture<UpdatedCards> getUpdatedSince(Instant time) throws UserNotProvidedException {
+        Deck deck = getDeck();
+        return respond(() -> deck.getUpdatedSince(time));
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteEntry(Card card) throws UserNotProvidedException {
+        return deleteEntries(Collections.singletonList(card));
+    }
+
+    @Override
+    public CompletableFuture<Void> addOrUpdateEntry(Card card) throws UserNotProvidedException {
+        return addOrUpdateEntries(Collections.singletonList(card));
+    }
+
+    /**
+     * Updates the level and the last review of the stored card
+     *
+     * @return the request failing with {@link NoSuchElementException} if the card does not exist
+     */
+    @Override
+    public CompletableFuture<Void> updateReview(Card card) throws UserNotProvidedException {
+        Deck deck = getDeck();
+        return respond(() -> {
+            deck.updateReviews(Collections.singletonList(card));
+            return null;
+        });
+    }
+
+    /**
+     * Updates the levels and the last reviews of the stored cards at once
+     *
+     * @return the request failing with {@link NoSuchElementException} without updating any card, if any
+     * of the cards does not exist
+     */
+    @Override
+    public CompletableFuture<Void> updateReviews(Collection<? extends Card> cards) throws UserNotProvidedException {
+        Deck deck = getDeck();
+        List<Card> reviews = new ArrayList<>(cards);
+        return respond(() -> {
+            deck.updateReviews(reviews);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> addOrUpdateEntries(Collection<? extends Card> cards) throws UserNotProvidedException {
+        Deck deck = getDeck();
+        return respond(() -> {
+            deck.put(cards);
+            return null;
+        });
+    }
+
+    /**
+     * Writes the given cards in batches of {@value #BATCH_SIZE} cards, each batch applied atomically
+     */
+    @Override
+    public CompletableFuture<Integer> addOrUpdateEntries(Stream<? extends Card> cards, ProgressListener listener)
+            throws UserNotProvidedException {
+        Deck deck = getDeck();
+        requireNonNull(listener);
+        return respond(() -> {
+            int written = 0;
+            List<Card> batch = new ArrayList<>(BATCH_SIZE);
+            for (Iterator<? extends Card> iterator = cards.iterator(); iterator.hasNext(); ) {
+                batch.add(iterator.next());
+                if (batch.size() == BATCH_SIZE || !iterator.hasNext()) {
+                    deck.put(batch);
+                    written += batch.size();
+                    batch.clear();
+                    listener.onProgress(written);
+                }
+            }
+            return written;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteEntries(Collection<? extends Card> cards) throws UserNotProvidedException {
+        Deck deck = getDeck();
+        return respond(() -> {
+            deck.remove(cards);
+            return null;
+        });
+    }
+
+    /**
+     * Registers the listener on the deck of the current user. The first call of the listener contains all the
+     * current cards, even if there are none.
+     */
+    @Override
+    public ChangeSubscription addChangeListener(ChangeListener listener) throws UserNotProvidedException {
+        requireNonNull(listener);
+        return getDeck().subscribe(listener);
+    }
+
+    /**
+     * Returns the stored card of the current user with the given front side
+     *
+     * @param frontSide
+     *         the front side of the card
+     * @return the card or {@code null} if it does not exist
+     * @throws UserNotProvidedException
+     *         if no user is set
+     */
+    Card getEntry(String frontSide) throws UserNotProvidedException {
+        return getDeck().get(frontSide);
+    }
+
+    /**
+     * Returns the deck of the current user
+     *
+     * @return the deck
+     * @throws UserNotProvidedException
+     *         if no user is set
+     */
+    private Deck getDeck() throws UserNotProvidedException {
+        User current = user;
+        if (current == null) throw new UserNotProvidedException();
+        return decks.get(current);
+    }
+
+    /**
+     * Makes the given request now, unless it fails, and responds after the latency
+     *
+     * @param request
+     *         the request
+     * @return the response
+     */
+    private <T> CompletableFuture<T> respond(Supplier<T> request) {
+        CompletableFuture<T> response = new CompletableFuture<>();
+        Runnable respond;
+        if (failureRate > 0 && random.nextDouble() < failureRate) {
+            IOException failure = new IOException("Injected failure");
+            respond = () -> response.completeExceptionally(failure);
+        } else {
+            try {
+                T result = request.get();
+                respond = () -> response.complete(result);
+            } catch (RuntimeException e) {
+                respond = () -> response.completeExceptionally(e);
+            }
+        }
+        if (scheduler == null) {
+            respond.run();
+        } else {
+            scheduler.schedule(respond, latency.toNanos(), TimeUnit.NANOSECONDS);
+        }
+        return response;
+    }
+
+    /**
+     * Delivers the changes to the listeners, on the latency thread or right away
+     *
+     * @param listeners
+     *         the listeners to notify
+     * @param changes
+     *         the changes in order they were made
+     */
+    private void deliver(Collection<ChangeListener> listeners, List<CardChange> changes) {
+        if (scheduler == null) {
+            notify(listeners, changes);
+        } else {
+            scheduler.execute(() -> notify(listeners, changes));
+        }
+    }
+
+    private static void notify(Collection<ChangeListener> listeners, List<CardChange> changes) {
+        for (ChangeListener listener : listeners) {
+            listener.onChanges(changes);
+        }
+    }
+
+    /**
+     * Shuts down the scheduler of the delayed responses, if it was created by this database
+     */
+    @Override
+    public void close() {
+        if (ownsScheduler) scheduler.shutdown();
+    }
+
+    /**
+     * The deck of a single user. The changes are delivered while the deck is locked, so the listeners observe
+     * them in the order they were made.
+     */
+    private final class Deck {
+        /** The cards by their front sides, guarded by {@code this} */
+        private final Map<String, Card> cards = new LinkedHashMap<>();
+        /** The cards by their levels, guarded by {@code this} */
+        private final Index<Integer> levels = new Index<>();
+        /** The unfinished cards by their next revision times, guarded by {@code this} */
+        private final Index<Instant> revisions = new Index<>();
+        /** The indexed next revision times by the front sides, guarded by {@code this} */
+        private final Map<String, Instant> nextRevisions = new HashMap<>();
+        /** The times the cards were written by their front sides, guarded by {@code this} */
+        private final Map<String, Instant> updateTimes = new HashMap<>();
+        /** The times the cards, that were not added again, were deleted by their front sides, guarded by {@code this} */
+        private final Map<String, Instant> deletionTimes = new HashMap<>();
+        /** The listeners of the changes, modified under the lock of the deck */
+        private final List<ChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+        synchronized Card get(String frontSide) {
+            return cards.get(frontSide);
+        }
+
+        synchronized List<Card> getAll() {
+            return new ArrayList<>(cards.values());
+        }
+
+        synchronized List<Card> getLessOrEqualLevel(int level) {
+            return Index.values(levels.entries.headMap(level, true));
+        }
+
+        synchronized List<Card> getGreaterOrEqualLevel(int level) {
+            return Index.values(levels.entries.tailMap(level, true));
+        }
+
+        synchronized UpdatedCards getUpdatedSince(Instant time) {
+            List<Card> updated = new ArrayList<>();
+            Instant latest = time;
+            for (Card card : cards.values()) {
+                Instant updateTime = updateTimes.get(card.getFrontSide());
+                if (updateTime.isBefore(time)) continue;
+                updated.add(card);
+                if (updateTime.isAfter(latest)) latest = updateTime;
+            }
+            List<String> removed = new ArrayList<>();
+            for (Map.Entry<String, Instant> deletion : deletionTimes.entrySet()) {
+                if (deletion.getValue().isBefore(time)) continue;
+                removed.add(deletion.getKey());
+                if (deletion.getValue().isAfter(latest)) latest = deletion.getValue();
+            }
+            return new UpdatedCards(updated, removed, latest);
+        }
+
+        synchronized List<Card> getDueBefore(Instant time, int limit) {
+            List<Card> due = new ArrayList<>(Math.min(limit, cards.size()));
+            for (Map<String, Card> bucket : revisions.entries.headMap(time, true).descendingMap().values()) {
+                for (Card card : bucket.values()) {
+                    if (due.size() >= limit) return due;
+                    due.add(card);
+                }
+            }
+            return due;
+        }
+
+        synchronized void put(Collection<? extends Card> updated) {
+            List<CardChange> changes = new ArrayList<>(updated.size());
+            Instant updateTime = clock.instant();
+            for (Card card : updated) {
+                Card previous = unindex(card.getFrontSide());
+                index(card);
+                updateTimes.put(card.getFrontSide(), updateTime);
+                deletionTimes.remove(card.getFrontSide());
+                changes.add(new CardChange(previous == null ? CardChange.Type.ADDED : CardChange.Type.MODIFIED, card));
+            }
+            publish(changes);
+        }
+
+        synchronized void updateReviews(Collection<? extends Card> reviews) {
+            List<Card> reviewed = new ArrayList<>(reviews.size());
+            for (Card review : reviews) {
+                Card stored = cards.get(review.getFrontSide());
+                if (stored == null) throw new NoSuchElementException("Card does not exist: " + review.getFrontSide());
+                reviewed.add(new SimpleCard.Builder(stored)
+                        .setLevel(review.getLevel())
+                        .setLastReview(review.getLastReview())
+                        .create());
+            }
+            put(reviewed);
+        }
+
+        synchronized void remove(Collection<? extends Card> removed) {
+            List<CardChange> changes = new ArrayList<>(removed.size());
+            Instant deletionTime = clock.instant();
+            for (Card card : removed) {
+                Card previous = unindex(card.getFrontSide());
+                if (previous != null) {
+                    deletionTimes.put(card.getFrontSide(), deletionTime);
+                    changes.add(new CardChange(CardChange.Type.REMOVED, previous));
+                }
+            }
+            publish(changes);
+        }
+
+        synchronized ChangeSubscription subscribe(ChangeListener listener) {
+            List<CardChange> snapshot = new ArrayList<>(cards.size());
+            for (Card card : cards.values()) {
+                snapshot.add(new CardChange(CardChange.Type.ADDED, card));
+            }
+            listeners.add(listener);
+            deliver(Collections.singletonList(listener), snapshot);
+            return () -> listeners.remove(listener);
+        }
+
+        private void index(Card card) {
+            cards.put(card.getFrontSide(), card);
+            levels.add(card.getLevel(), card);
+            if (revisor != null && card.getLevel() < revisor.getMaxLevel()) {
+                Instant nextRevision = revisor.getNextRevision(card);
+                nextRevisions.put(card.getFrontSide(), nextRevision);
+                revisions.add(nextRevision, card);
+            }
+        }
+
+        private Card unindex(String frontSide) {
+            Card previous = cards.remove(frontSide);
+            if (previous == null) return null;
+            updateTimes.remove(frontSide);
+            levels.remove(previous.getLevel(), frontSide);
+            Instant nextRevision = nextRevisions.remove(frontSide);
+            if (nextRevision != null) revisions.remove(nextRevision, frontSide);
+            return previous;
+        }
+
+        private void publish(List<CardChange> changes) {
+            if (!changes.isEmpty() && !listeners.isEmpty()) {
+                deliver(listeners, Collections.unmodifiableList(changes));
+            }
+        }
+    }
+
+    /**
+     * A sorted index of the cards by a key, the cards with the same key are kept by their front sides
+     *
+     * @param <K>
+     *         the type of the key
+     */
+    private static final class Index<K extends Comparable<K>> {
+        /** The cards by their keys and front sides */
+        private final NavigableMap<K, Map<String, Card>> entries = new TreeMap<>();
+
+        void add(K key, Card card) {
+            entries.computeIfAbsent(key, k -> new LinkedHashMap<>()).put(card.getFrontSide(), card);
+        }
+
+        void remove(K key, String frontSide) {
+            Map<String, Card> bucket = entries.get(key);
+            if (bucket != null) {
+                bucket.remove(frontSide);
+                if (bucket.isEmpty()) entries.remove(key);
+            }
+        }
+
+        static List<Card> values(Map<?, Map<String, Card>> range) {
+            List<Card> values = new ArrayList<>();
+            for (Map<String, Card> bucket : range.values()) {
+                values.addAll(bucket.values());
+            }
+            return values;
+        }
+    }
+
+    /**
+     * The builder of {@link InMemoryDatabase}
+     */
+    public static class Builder {
+        private RevisionManager revisor;
+        private Duration latency = Duration.ZERO;
+        private double failureRate;
+        private Random random = new Random();
+        private Clock clock = Clock.systemUTC();
+        private ScheduledExecutorService scheduler;
+
+        /**
+         * Sets the revision manager to index the next revision times of the unfinished cards
+         *
+         * @param revisor
+         *         the revision manager or {@code null} to not index them
+         * @return this builder
+         */
+        public Builder setRevisionManager(RevisionManager revisor) {
+            this.revisor = revisor;
+            return this;
+        }
+
+        /**
+         * Sets the time, after which the requests respond
+         *
+         * @param latency
+         *         the latency, {@link Duration#ZERO} to respond right away
+         * @return this builder
+         */
+        public Builder setLatency(Duration latency) {
+            this.latency = latency;
+            return this;
+        }
+
+        /**
+         * Sets the rate of the requests failing with an {@link IOException}
+         *
+         * @param failureRate
+         *         the rate between 0 and 1
+         * @return this builder
+         */
+        public Builder setFailureRate(double failureRate) {
+            this.failureRate = failureRate;
+            return this;
+        }
+
+        /**
+         * Sets the source of the simulated failures, so the failed requests can be reproduced
+         *
+         * @param random
+         *         the source of the failures
+         * @return this builder
+         */
+        public Builder setRandom(Random random) {
+            this.random = random;
+            return this;
+        }
+
+        /**
+         * Sets the clock assigning the update times of the written cards
+         *
+         * @param clock
+         *         the clock
+         * @return this builder
+         */
+        public Builder setClock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        /**
+         * Sets the scheduler of the delayed responses, that is not shut down with the database. The changes
+         * are delivered in order only by a single threaded scheduler. By default a single daemon thread is
+         * created, if the latency is not zero.
+         *
+         * @param scheduler
+         *         the scheduler
+         * @return this builder
+         */
+        public Builder setScheduler(ScheduledExecutorService scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+
+        /**
+         * Creates an {@link InMemoryDatabase}
+         *
+         * @return a new {@link InMemoryDatabase}
+         */
+        public InMemoryDatabase create() {
+            validate();
+            if (latency.isZero()) {
+                return new InMemoryDatabase(revisor, latency, failureRate, requireNonNull(random), requireNonNull(clock), null, false);
+            }
+            if (scheduler != null) {
+                return new InMemoryDatabase(revisor, latency, failureRate, requireNonNull(random), requireNonNull(clock), scheduler, false);
+            }
+            ScheduledExecutorService created = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "in-memory-database");
+                thread.setDaemon(true);
+                return thread;
+            });
+            return new InMemoryDatabase(revisor, latency, failureRate, requireNonNull(random), requireNonNull(clock), created, true);
+        }
+
+        private void validate() {
+            if (latency == null || latency.isNegative()) {
+                throw new IllegalArgumentException("Latency must not be negative: " + latency);
+            }
+            if (failureRate < 0 || failureRate > 1) {
+                throw new IllegalArgumentException("Failure rate must be between 0 and 1: " + failureRate);
+            }
+        }
+    }
+}
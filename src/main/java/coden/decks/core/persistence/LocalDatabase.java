@@ -0,0 +1,726 @@
+package coden.decks.core.persistence;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.requireNonNull;
+
+import coden.decks.core.data.Card;
+import coden.decks.core.data.SimpleCard;
+import coden.decks.core.revision.RevisionManager;
+import coden.decks.core.user.User;
+import coden.decks.core.user.UserEntry;
+import coden.decks.core.user.UserNotProvidedException;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * The {@code LocalDatabase} is a {@link Database} persisting the decks of its users in a local directory, for the
+ * offline clients, that cannot rely on an external service.
+ * <p>
+ * The reads are served from an {@link InMemoryDatabase} per user. The writes are appended to a memory mapped
+ * log by a single writer thread, which commits all the writes queued meanwhile as a group with a single
+ * {@link MappedByteBuffer#force()}. A write is visible to the reads as soon as it is appended, and its request
+ * completes when its group is forced to the disk.
+ * <p>
+ * Each record of the log consists of the length and the CRC32 of its payload, followed by the payload: the type of
+ * the mutation, the user, the front side and, for the written cards, the back side, the level and the last review.
+ * The reviews are logged as the whole updated cards, so replaying any record twice is harmless. When the log grows
+ * over the compaction threshold, all the cards are written to a snapshot file of the same format, which replaces the
+ * previous snapshot atomically, and the log is cleared. On start the snapshot and then the log are replayed up to
+ * the first incomplete record.
+ */
+@ThreadSafe
+public class LocalDatabase implements Database {
+
+    /** The name of the log file */
+    static final String LOG = "cards.log";
+    /** The name of the snapshot file */
+    static final String SNAPSHOT = "cards.snapshot";
+    /** The default size of the log, above which the log is compacted into the snapshot */
+    public static final long DEFAULT_COMPACTION_THRESHOLD = 64L << 20;
+
+    /** The initially mapped size of the log */
+    static final int INITIAL_LOG_CAPACITY = 1 << 20;
+    /** The maximal number of mutations committed as a group */
+    static final int MAX_GROUP_SIZE = 1024;
+    /** The number of cards of a stream written by a single mutation */
+    static final int BATCH_SIZE = 500;
+    /** The size of the length and the checksum preceding each payload */
+    private static final int HEADER_SIZE = 8;
+
+    /** The type of the record of a written card */
+    private static final byte PUT = 1;
+    /** The type of the record of a deleted card */
+    private static final byte DELETE = 2;
+    /** The type of a mutation updating the review of a card, logged as {@link #PUT} */
+    private static final byte REVIEW = 3;
+
+    /** Stops the writer */
+    private static final Mutation CLOSE = new Mutation(null, (byte) 0, Collections.emptyList());
+
+    /** The directory of the log and the snapshot */
+    private final Path directory;
+    /** The revision manager to index the next revision times, may be {@code null} */
+    private final RevisionManager revisor;
+    /** The size of the log, above which it is compacted */
+    private final long compactionThreshold;
+    /** The cards in memory by the names of their users */
+    private final ConcurrentMap<String, InMemoryDatabase> decks = new ConcurrentHashMap<>();
+    /** The mutations waiting for the writer */
+    private final BlockingQueue<Mutation> mutations = new LinkedBlockingQueue<>();
+    /** The thread appending the mutations to the log */
+    private final Thread writer;
+    /** The channel of the log, used by the writer only */
+    private final FileChannel log;
+    /** The mapped log, used by the writer only */
+    private MappedByteBuffer mapped;
+    /** Whether the database is closed */
+    private volatile boolean closed;
+    /** The current user */
+    private volatile User user;
+
+    private LocalDatabase(Path directory, RevisionManager revisor, long compactionThreshold) throws IOException {
+        this.directory = directory;
+        this.revisor = revisor;
+        this.compactionThreshold = compactionThreshold;
+        Files.createDirectories(directory);
+        Map<String, Map<String, Card>> cards = new HashMap<>();
+        Path snapshot = directory.resolve(SNAPSHOT);
+        if (Files.exists(snapshot)) {
+            replay(snapshot, cards);
+        }
+        Path logFile = directory.resolve(LOG);
+        int end = Files.exists(logFile) ? replay(logFile, cards) : 0;
+        for (Map.Entry<String, Map<String, Card>> deck : cards.entrySet()) {
+            getDeck(deck.getKey()).addOrUpdateEntries(deck.getValue().values()).join();
+        }
+        this.log = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        // an incomplete record at the end is dropped, so it cannot be mistaken for a part of the next records
+        if (log.size() > end) log.truncate(end);
+        this.mapped = log.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(INITIAL_LOG_CAPACITY, end));
+        this.mapped.position(end);
+        this.writer = new Thread(this::write, "local-database-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    @Override
+    public User getUser() {
+        return user;
+    }
+
+    @Override
+    public void setUser(User user) {
+        if (user != null) getDeck(user.getName());
+        this.user = user;
+    }
+
+    /**
+     * Returns the users, that have been set or have cards
+     */
+    @Override
+    public CompletableFuture<Stream<User>> getAllUsers() {
+        List<User> users = new ArrayList<>(decks.size());
+        for (String name : decks.keySet()) {
+            users.add(new UserEntry(name));
+        }
+        return CompletableFuture.completedFuture(users.stream());
+    }
+
+    @Override
+    public CompletableFuture<Stream<Card>> getAllEntries() throws UserNotProvidedException {
+        return getDeck().getAllEntries();
+    }
+
+    @Override
+    public CompletableFuture<Stream<Card>> getGreaterOrEqualLevel(int level) throws UserNotProvidedException {
+        return getDeck().getGreaterOrEqualLevel(level);
+    }
+
+    @Override
+    public CompletableFuture<Stream<Card>> getLessOrEqualLevel(int level) throws UserNotProvidedException {
+        return getDeck().getLessOrEqualLevel(level);
+    }
+
+    @Override
+    public CompletableFuture<Stream<Card>> getLessOrEqualLevel(int level, Projection projection)
+            throws UserNotProvidedException {
+        return getDeck().getLessOrEqualLevel(level, projection);
+    }
+
+    /**
+     * Queries the next revision index of the unfinished cards
+     *
+     * @throws IllegalStateException
+     *         if the database was created without a revision manager
+     */
+    @Override
+    public CompletableFuture<Stream<Card>> getDueBefore(Instant time, int limit) throws UserNotProvidedException {
+        return getDeck().getDueBefore(time, limit);
+    }
+
+    /**
+     * Returns the cards written and deleted since the given time, as given by the clock of this process. The cards
+     * replayed on start count as written when they are replayed, the deletions before the start are not returned.
+     */
+    @Override
+    public CompletableFuture<UpdatedCards> getUpdatedSince(Instant time) throws UserNotProvidedException {
+        return getDeck().getUpdatedSince(time);
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteEntry(Card card) throws UserNotProvidedException {
+        return deleteEntries(Collections.singletonList(card));
+    }
+
+    @Override
+    public CompletableFuture<Void> addOrUpdateEntry(Card card) throws UserNotProvidedException {
+        return addOrUpdateEntries(Collections.singletonList(card));
+    }
+
+    /**
+     * Logs the stored card with the level and the last review of the given card
+     *
+     * @return the request failing with {@link NoSuchElementException} if the card does not exist
+     */
+    @Override
+    public CompletableFuture<Void> updateReview(Card card) throws UserNotProvidedException {
+        return submit(getCurrentUser(), REVIEW, Collections.singletonList(card));
+    }
+
+    /**
+     * Logs the stored cards with the levels and the last reviews of the given cards in a single mutation
+     *
+     * @return the request failing with {@link NoSuchElementException} without logging any card, if any of the
+     * cards does not exist
+     */
+    @Override
+    public CompletableFuture<Void> updateReviews(Collection<? extends Card> cards) throws UserNotProvidedException {
+        return submit(getCurrentUser(), REVIEW, new ArrayList<>(cards));
+    }
+
+    @Override
+    public CompletableFuture<Void> addOrUpdateEntries(Collection<? extends Card> cards) throws UserNotProvidedException {
+        return addOrUpdateEntries(getCurrentUser(), cards);
+    }
+
+    /**
+     * Writes the given cards in mutations of {@value #BATCH_SIZE} cards, the listener is notified when each of
+     * them is committed
+     */
+    @Override
+    public CompletableFuture<Integer> addOrUpdateEntries(Stream<? extends Card> cards, ProgressListener listener)
+            throws UserNotProvidedException {
+        return addOrUpdateEntries(getCurrentUser(), cards, listener);
+    }
+
+    /**
+     * Writes the given cards of the given user, whether it is the current user or not
+     *
+     * @param user
+     *         the user of the cards
+     * @param cards
+     *         the cards to be added
+     * @return the request completed when the cards are forced to the disk
+     */
+    CompletableFuture<Void> addOrUpdateEntries(User user, Collection<? extends Card> cards) {
+        return submit(user, PUT, new ArrayList<>(cards));
+    }
+
+    /**
+     * Writes the given cards of the given user, whether it is the current user or not, like
+     * {@link #addOrUpdateEntries(Stream, ProgressListener)}
+     *
+     * @param user
+     *         the user of the cards
+     * @param cards
+     *         the cards to be added
+     * @param listener
+     *         the listener notified about the number of committed cards
+     * @return the request completed with the number of written cards
+     */
+    CompletableFuture<Integer> addOrUpdateEntries(User user, Stream<? extends Card> cards, ProgressListener listener) {
+        requireNonNull(listener);
+        CompletableFuture<Void> last = CompletableFuture.completedFuture(null);
+        int written = 0;
+        List<Card> batch = new ArrayList<>(BATCH_SIZE);
+        for (Iterator<? extends Card> iterator = cards.iterator(); iterator.hasNext(); ) {
+            batch.add(iterator.next());
+            if (batch.size() == BATCH_SIZE || !iterator.hasNext()) {
+                written += batch.size();
+                int done = written;
+                CompletableFuture<Void> committed = submit(user, PUT, batch);
+                last = last.thenCombine(committed, (a, b) -> null);
+                committed.thenRun(() -> listener.onProgress(done));
+                batch = new ArrayList<>(BATCH_SIZE);
+            }
+        }
+        int total = written;
+        return last.thenApply(v -> total);
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteEntries(Collection<? extends Card> cards) throws UserNotProvidedException {
+        return submit(getCurrentUser(), DELETE, new ArrayList<>(cards));
+    }
+
+    /**
+     * Deletes the given cards of the given user, whether it is the current user or not
+     *
+     * @param user
+     *         the user of the cards
+     * @param cards
+     *         the cards to be deleted
+     * @return the request completed when the deletions are forced to the disk
+     */
+    CompletableFuture<Void> deleteEntries(User user, Collection<? extends Card> cards) {
+        return submit(user, DELETE, new ArrayList<>(cards));
+    }
+
+    /**
+     * Registers the listener on the cards of the current user in memory. The changes are delivered when they
+     * are appended to the log.
+     */
+    @Override
+    public ChangeSubscription addChangeListener(ChangeListener listener) throws UserNotProvidedException {
+        return getDeck().addChangeListener(listener);
+    }
+
+    /**
+     * Compacts the log into the snapshot after all the queued mutations are written
+     *
+     * @return the request completed when the log is compacted
+     */
+    public CompletableFuture<Void> compact() {
+        Mutation compaction = new Mutation(null, (byte) 0, Collections.emptyList());
+        enqueue(compaction);
+        return compaction.done;
+    }
+
+    /**
+     * Returns the card of the current user with the given front side
+     *
+     * @param frontSide
+     *         the front side of the card
+     * @return the card or {@code null} if it does not exist
+     * @throws UserNotProvidedException
+     *         if no user is set
+     */
+    Card getEntry(String frontSide) throws UserNotProvidedException {
+        return getDeck().getEntry(frontSide);
+    }
+
+    private User getCurrentUser() throws UserNotProvidedException {
+        User current = user;
+        if (current == null) throw new UserNotProvidedException();
+        return current;
+    }
+
+    /**
+     * Returns the cards in memory of the current user
+     *
+     * @return the cards of the current user
+     * @throws UserNotProvidedException
+     *         if no user is set
+     */
+    private InMemoryDatabase getDeck() throws UserNotProvidedException {
+        return getDeck(getCurrentUser().getName());
+    }
+
+    private InMemoryDatabase getDeck(String userName) {
+        return decks.computeIfAbsent(userName, name -> {
+            InMemoryDatabase deck = new InMemoryDatabase.Builder().setRevisionManager(revisor).create();
+            deck.setUser(new UserEntry(name));
+            return deck;
+        });
+    }
+
+    private CompletableFuture<Void> submit(User user, byte type, Collection<? extends Card> cards) {
+        Mutation mutation = new Mutation(user.getName(), type, cards);
+        enqueue(mutation);
+        return mutation.done;
+    }
+
+    private void enqueue(Mutation mutation) {
+        if (closed) {
+            mutation.done.completeExceptionally(new IllegalStateException("The database is closed"));
+            return;
+        }
+        mutations.add(mutation);
+    }
+
+    /**
+     * Appends the queued mutations to the log group by group, until closed
+     */
+    private void write() {
+        List<Mutation> group = new ArrayList<>();
+        boolean stop = false;
+        while (!stop) {
+            try {
+                group.add(mutations.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            mutations.drainTo(group, MAX_GROUP_SIZE - 1);
+            List<Mutation> appended = new ArrayList<>(group.size());
+            List<Mutation> compactions = new ArrayList<>();
+            for (Mutation mutation : group) {
+                if (mutation == CLOSE) {
+                    stop = true;
+                } else if (mutation.user == null) {
+                    compactions.add(mutation);
+                } else {
+                    try {
+                        append(mutation);
+                        appended.add(mutation);
+                    } catch (IOException | RuntimeException e) {
+                        mutation.done.completeExceptionally(e);
+                    }
+                }
+            }
+            try {
+                mapped.force();
+                appended.forEach(mutation -> mutation.done.complete(null));
+            } catch (RuntimeException e) {
+                appended.forEach(mutation -> mutation.done.completeExceptionally(e));
+            }
+            if (!compactions.isEmpty() || mapped.position() > compactionThreshold) {
+                try {
+                    compactLog();
+                    compactions.forEach(compaction -> compaction.done.complete(null));
+                } catch (IOException | RuntimeException e) {
+                    // the log stays valid, the compaction is tried again after the next group
+                    compactions.forEach(compaction -> compaction.done.completeExceptionally(e));
+                }
+            }
+            group.clear();
+        }
+    }
+
+    /**
+     * Appends the records of the given mutation to the log and applies it to the cards in memory. The records
+     * are encoded before any of them is appended, so a failing mutation leaves no records in the log.
+     */
+    private void append(Mutation mutation) throws IOException {
+        InMemoryDatabase deck = getDeck(mutation.user);
+        List<Card> cards = new ArrayList<>(mutation.cards.size());
+        for (Card card : mutation.cards) {
+            cards.add(mutation.type == REVIEW ? review(deck, card) : card);
+        }
+        byte type = mutation.type == DELETE ? DELETE : PUT;
+        List<ByteBuffer> records = new ArrayList<>(cards.size());
+        long size = 0;
+        for (Card card : cards) {
+            ByteBuffer record = encode(type, mutation.user, card);
+            records.add(record);
+            size += record.remaining();
+        }
+        if (mapped.remaining() < size) {
+            remap(mapped.position() + size);
+        }
+        for (ByteBuffer record : records) {
+            mapped.put(record);
+        }
+        if (type == DELETE) {
+            deck.deleteEntries(cards).join();
+        } else {
+            deck.addOrUpdateEntries(cards).join();
+        }
+    }
+
+    private static Card review(InMemoryDatabase deck, Card review) {
+        Card stored = deck.getEntry(review.getFrontSide());
+        if (stored == null) throw new NoSuchElementException("Card does not exist: " + review.getFrontSide());
+        return new SimpleCard.Builder(stored)
+                .setLevel(review.getLevel())
+                .setLastReview(review.getLastReview())
+                .create();
+    }
+
+    /**
+     * Maps a larger part of the log file
+     *
+     * @param required
+     *         the required size
+     * @throws IOException
+     *         if the log cannot be larger
+     */
+    private void remap(long required) throws IOException {
+        long capacity = Math.max(2L * mapped.capacity(), required);
+        if (capacity > Integer.MAX_VALUE) throw new IOException("The log exceeds " + Integer.MAX_VALUE + " bytes");
+        int position = mapped.position();
+        mapped.force();
+        mapped = log.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        mapped.position(position);
+    }
+
+    /**
+     * Writes all the cards to a new snapshot, replaces the previous one and clears the log
+     */
+    private void compactLog() throws IOException {
+        Path temporary = directory.resolve(SNAPSHOT + ".tmp");
+        try (FileChannel snapshot = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Map.Entry<String, InMemoryDatabase> deck : decks.entrySet()) {
+                Iterator<Card> cards = deck.getValue().getAllEntries().join().iterator();
+                while (cards.hasNext()) {
+                    ByteBuffer record = encode(PUT, deck.getKey(), cards.next());
+                    while (record.hasRemaining()) {
+                        snapshot.write(record);
+                    }
+                }
+            }
+            snapshot.force(true);
+        }
+        Files.move(temporary, directory.resolve(SNAPSHOT),
+                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        // the rename has to be durable before the log is cleared, or a crash could lose both
+        forceDirectory();
+        // the first record is cleared and forced first, so a partially cleared log is never replayed
+        int end = mapped.position();
+        mapped.putInt(0, 0);
+        mapped.force();
+        for (int i = 4; i < end; i++) {
+            mapped.put(i, (byte) 0);
+        }
+        mapped.position(0);
+        mapped.force();
+    }
+
+    /**
+     * Forces the entries of the directory to the disk, if the platform supports opening directories
+     */
+    private void forceDirectory() throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(directory, StandardOpenOption.READ);
+        } catch (IOException e) {
+            // the directories cannot be opened on some platforms, which then make the renames durable on their own
+            return;
+        }
+        try (FileChannel opened = channel) {
+            opened.force(true);
+        }
+    }
+
+    /**
+     * Encodes the record of the given card
+     *
+     * @return the buffer containing the record
+     */
+    private static ByteBuffer encode(byte type, String userName, Card card) {
+        byte[] user = userName.getBytes(UTF_8);
+        byte[] frontSide = card.getFrontSide().getBytes(UTF_8);
+        byte[] backSide = type == PUT ? card.getBackSide().getBytes(UTF_8) : null;
+        int length = 1 + 4 + user.length + 4 + frontSide.length;
+        if (type == PUT) {
+            length += 4 + backSide.length + 4 + 8 + 4;
+        }
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + length);
+        record.position(HEADER_SIZE);
+        record.put(type);
+        putBytes(record, user);
+        putBytes(record, frontSide);
+        if (type == PUT) {
+            putBytes(record, backSide);
+            record.putInt(card.getLevel());
+            record.putLong(card.getLastReview().getEpochSecond());
+            record.putInt(card.getLastReview().getNano());
+        }
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), HEADER_SIZE, length);
+        record.putInt(0, length);
+        record.putInt(4, (int) crc.getValue());
+        record.flip();
+        return record;
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    /**
+     * Replays the records of the given file up to the first incomplete record
+     *
+     * @param file
+     *         the file to replay
+     * @param cards
+     *         the cards by their front sides by the names of their users to apply the records to
+     * @return the position after the last complete record
+     */
+    private static int replay(Path file, Map<String, Map<String, Card>> cards) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) throw new IOException("The file is too large: " + file);
+            buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // read the whole file
+            }
+            buffer.flip();
+        }
+        CRC32 crc = new CRC32();
+        int end = 0;
+        while (buffer.remaining() >= HEADER_SIZE) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) break;
+            crc.reset();
+            crc.update(buffer.array(), start + HEADER_SIZE, length);
+            if ((int) crc.getValue() != checksum) break;
+            byte type = buffer.get();
+            String userName = getString(buffer);
+            String frontSide = getString(buffer);
+            Map<String, Card> deck = cards.computeIfAbsent(userName, name -> new LinkedHashMap<>());
+            if (type == DELETE) {
+                deck.remove(frontSide);
+            } else {
+                String backSide = getString(buffer);
+                int level = buffer.getInt();
+                Instant lastReview = Instant.ofEpochSecond(buffer.getLong(), buffer.getInt());
+                deck.put(frontSide, new SimpleCard.Builder()
+                        .setFrontSide(frontSide)
+                        .setBackSide(backSide)
+                        .setLevel(level)
+                        .setLastReview(lastReview)
+                        .create());
+            }
+            end = start + HEADER_SIZE + length;
+            buffer.position(end);
+        }
+        return end;
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Writes the queued mutations, stops the writer and closes the log
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        mutations.add(CLOSE);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mapped.force();
+        log.close();
+        for (Mutation mutation : mutations) {
+            mutation.done.completeExceptionally(new IllegalStateException("The database is closed"));
+        }
+    }
+
+    /**
+     * A mutation of the cards of a user
+     */
+    private static final class Mutation {
+        /** The name of the user, {@code null} for the compactions */
+        private final String user;
+        /** The type of the mutation */
+        private final byte type;
+        /** The cards to write or delete */
+        private final Collection<? extends Card> cards;
+        /** Completed when the mutation is forced to the disk */
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Mutation(String user, byte type, Collection<? extends Card> cards) {
+            this.user = user;
+            this.type = type;
+            this.cards = cards;
+        }
+    }
+
+    /**
+     * The builder of {@link LocalDatabase}
+     */
+    public static class Builder {
+        private final Path directory;
+        private RevisionManager revisor;
+        private long compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+
+        /**
+         * Creates a new builder of the database
+         *
+         * @param directory
+         *         the directory of the log and the snapshot, created if missing
+         */
+        public Builder(Path directory) {
+            this.directory = requireNonNull(directory);
+        }
+
+        /**
+         * Sets the revision manager to index the next revision times of the unfinished cards
+         *
+         * @param revisor
+         *         the revision manager or {@code null} to not index them
+         * @return this builder
+         */
+        public Builder setRevisionManager(RevisionManager revisor) {
+            this.revisor = revisor;
+            return this;
+        }
+
+        /**
+         * Sets the size of the log, above which it is compacted into the snapshot
+         *
+         * @param compactionThreshold
+         *         the size in bytes
+         * @return this builder
+         */
+        public Builder setCompactionThreshold(long compactionThreshold) {
+            this.compactionThreshold = compactionThreshold;
+            return this;
+        }
+
+        /**
+         * Opens the {@link LocalDatabase}, replaying its snapshot and log
+         *
+         * @return the opened {@link LocalDatabase}
+         * @throws IOException
+         *         if the files cannot be read or created
+         */
+        public LocalDatabase create() throws IOException {
+            validate();
+            return new LocalDatabase(directory, revisor, compactionThreshold);
+        }
+
+        private void validate() {
+            if (compactionThreshold <= 0) {
+                throw new IllegalArgumentException("Compaction threshold must be positive: " + compactionThreshold);
+            }
+        }
+    }
+}
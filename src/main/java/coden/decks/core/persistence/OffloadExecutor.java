@@ -0,0 +1,216 @@
+package coden.decks.core.persistence;
+
+import static java.util.Objects.requireNonNull;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@code OffloadExecutor} runs the work following a database request away from the thread, that completed
+ * the request, so that the transport threads of the database are not blocked by the deserialization and
+ * evaluation of the cards.
+ * <p>
+ * The executor measures the number of queued tasks and the time the completing threads spend handing the
+ * results over in {@link #offload(CompletableFuture)}. With a direct executor the latter is the time of all
+ * the dependent stages, with a pool it is the time to enqueue a task.
+ */
+@ThreadSafe
+public class OffloadExecutor implements Executor, AutoCloseable {
+
+    /** The number of queued tasks of the default pool, above which the tasks run on the submitting thread */
+    public static final int DEFAULT_QUEUE_CAPACITY = 10_000;
+
+    /** The executor running the tasks */
+    private final Executor delegate;
+    /** Whether the executor was created by and has to be shut down with this executor */
+    private final boolean ownsDelegate;
+    /** The number of submitted, but not yet started tasks */
+    private final AtomicInteger queued = new AtomicInteger();
+    /** The number of completed tasks */
+    private final AtomicLong completed = new AtomicLong();
+    /** The number of results handed over by the completing threads */
+    private final AtomicLong handOffs = new AtomicLong();
+    /** The time the completing threads spent handing over the results in nanos */
+    private final AtomicLong handOffNanos = new AtomicLong();
+
+    /**
+     * Creates a new executor running the tasks on the given executor, that is not shut down on close
+     *
+     * @param delegate
+     *         the executor running the tasks
+     */
+    public OffloadExecutor(Executor delegate) {
+        this(delegate, false);
+    }
+
+    private OffloadExecutor(Executor delegate, boolean ownsDelegate) {
+        this.delegate = requireNonNull(delegate);
+        this.ownsDelegate = ownsDelegate;
+    }
+
+    /**
+     * Creates a new executor with its own threads: a virtual thread per task if the runtime supports
+     * virtual threads, or a pool of daemon threads otherwise
+     *
+     * @return a new executor
+     * @see #pool(int, int)
+     */
+    public static OffloadExecutor create() {
+        ExecutorService virtual = newVirtualThreadExecutor();
+        if (virtual != null) {
+            return new OffloadExecutor(virtual, true);
+        }
+        return pool(Runtime.getRuntime().availableProcessors(), DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Creates a new executor with a pool of the given number of daemon threads. If the queue is full, the
+     * tasks run on the submitting thread, slowing the submitter down instead of failing the task. After the
+     * executor is closed, the tasks are rejected with a {@link RejectedExecutionException}.
+     *
+     * @param threads
+     *         the number of threads
+     * @param queueCapacity
+     *         the maximal number of queued tasks
+     * @return a new executor
+     */
+    public static OffloadExecutor pool(int threads, int queueCapacity) {
+        AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.MINUTES,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+            Thread thread = new Thread(runnable, "decks-offload-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, (task, executor) -> {
+            if (executor.isShutdown()) throw new RejectedExecutionException("Executor is closed");
+            task.run();
+        });
+        pool.allowCoreThreadTimeOut(true);
+        return new OffloadExecutor(pool, true);
+    }
+
+    /**
+     * Creates an executor starting a virtual thread per task, looked up reflectively to stay compatible
+     * with the runtimes without virtual threads
+     *
+     * @return the executor or {@code null} if virtual threads are not supported
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        requireNonNull(task);
+        queued.incrementAndGet();
+        try {
+            delegate.execute(() -> {
+                queued.decrementAndGet();
+                try {
+                    task.run();
+                } finally {
+                    completed.incrementAndGet();
+                }
+            });
+        } catch (RuntimeException e) {
+            queued.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a future completed on this executor with the result of the given future. The time the
+     * thread completing the given future spends on handing the result over is measured. Cancelling the returned
+     * future cancels the given future.
+     *
+     * @param source
+     *         the future to offload
+     * @param <T>
+     *         the type of the result
+     * @return the future completed on this executor
+     */
+    public <T> CompletableFuture<T> offload(CompletableFuture<T> source) {
+        CompletableFuture<T> target = new CompletableFuture<>();
+        source.whenComplete((value, failure) -> {
+            long start = System.nanoTime();
+            try {
+                execute(() -> {
+                    if (failure == null) target.complete(value);
+                    else target.completeExceptionally(failure);
+                });
+            } catch (RuntimeException e) {
+                target.completeExceptionally(e);
+            } finally {
+                handOffNanos.addAndGet(System.nanoTime() - start);
+                handOffs.incrementAndGet();
+            }
+        });
+        target.whenComplete((value, failure) -> {
+            if (target.isCancelled()) source.cancel(false);
+        });
+        return target;
+    }
+
+    /**
+     * Returns the number of submitted, but not yet started tasks
+     *
+     * @return the queue depth
+     */
+    public int getQueueDepth() {
+        return queued.get();
+    }
+
+    /**
+     * Returns the number of completed tasks
+     *
+     * @return the number of completed tasks
+     */
+    public long getCompletedTasks() {
+        return completed.get();
+    }
+
+    /**
+     * Returns the number of results handed over by {@link #offload(CompletableFuture)}
+     *
+     * @return the number of hand-offs
+     */
+    public long getHandOffs() {
+        return handOffs.get();
+    }
+
+    /**
+     * Returns the total time the completing threads spent on handing over the results
+     *
+     * @return the total time of the hand-offs
+     */
+    public Duration getHandOffTime() {
+        return Duration.ofNanos(handOffNanos.get());
+    }
+
+    /**
+     * Shuts down the threads, if they were created by this executor. The queued tasks are still run.
+     */
+    @Override
+    public void close() {
+        if (ownsDelegate) {
+            ((ExecutorService) delegate).shutdown();
+        }
+    }
+}
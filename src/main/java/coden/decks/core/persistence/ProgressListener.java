@@ -0,0 +1,15 @@
+package coden.decks.core.persistence;
+
+/**
+ * Represents a listener, that is notified about the progress of a bulk operation.
+ */
+@FunctionalInterface
+public interface ProgressListener {
+    /**
+     * Called each time another part of the bulk operation is done
+     *
+     * @param done
+     *         the total number of entries processed so far
+     */
+    void onProgress(int done);
+}
@@ -0,0 +1,14 @@
+package coden.decks.core.persistence;
+
+/**
+ * Represents the fields of the cards fetched by a query.
+ */
+public enum Projection {
+    /** All the fields of the cards are fetched */
+    FULL,
+    /**
+     * Only the fields needed for scheduling are fetched: the front side, the level and the last review.
+     * The back side of the returned cards is loaded lazily on the first access.
+     */
+    SCHEDULING
+}
@@ -0,0 +1,709 @@
+package coden.decks.core.persistence;
+
+import static java.util.Objects.requireNonNull;
+
+import coden.decks.core.data.Card;
+import coden.decks.core.data.SimpleCard;
+import coden.decks.core.revision.RevisionManager;
+import coden.decks.core.user.User;
+import coden.decks.core.user.UserNotProvidedException;
+import com.google.common.collect.Lists;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The {@code SyncingDatabase} is an offline first {@link Database} decorator of a remote database. The cards are
+ * read from and written to a local replica, and each written card is first recorded in a local journal, so the
+ * writes are acknowledged as soon as they are on the local disk, whether the remote database is reachable or not.
+ * The journaled cards, that did not reach the replica before a crash, are written to it when their user is set.
+ * <p>
+ * The journaled cards are pushed to the remote database in batches by a background synchronization, which first
+ * pulls the remote cards updated since the watermark of the user: the latest update time of the pulled cards, as
+ * assigned by the remote database, less an overlap tolerating the writes becoming visible after the later ones.
+ * The watermarks are persisted per user in the directory, so a reopened database does not pull all the cards
+ * again. The conflicts are resolved by the last writer, as given by the last reviews of the cards: a journaled
+ * card reviewed after the remote one is pushed, otherwise the remote card replaces it.
+ * <p>
+ * The deletions are journaled as tombstones in a separate local journal and pushed before the journaled cards. A
+ * deletion supersedes the journaled card and a card written again supersedes the journaled deletion. The remote
+ * deletions are pulled with the updated cards: a remote deletion removes the card from the replica and supersedes
+ * its journaled card, while a pulled card whose deletion is still journaled is ignored.
+ */
+@ThreadSafe
+public class SyncingDatabase implements Database {
+
+    /** The default time between the synchronizations */
+    public static final Duration DEFAULT_SYNC_INTERVAL = Duration.ofSeconds(30);
+    /** The default time the pulls reach back before the watermark */
+    public static final Duration DEFAULT_WATERMARK_OVERLAP = Duration.ofMinutes(5);
+    /** The number of cards pushed at once */
+    static final int BATCH_SIZE = 500;
+    /** The name of the file of the watermarks in the directory */
+    static final String WATERMARKS = "watermarks.properties";
+
+    /** The remote database */
+    private final Database remote;
+    /** The local copy of the cards serving all the reads */
+    private final LocalDatabase replica;
+    /** The local cards not yet pushed to the remote database */
+    private final LocalDatabase journal;
+    /** The tombstones of the local deletions not yet pushed to the remote database */
+    private final LocalDatabase deletions;
+    /** The time the pulls reach back before the watermark */
+    private final Duration watermarkOverlap;
+    /** The scheduler of the synchronizations */
+    private final ScheduledExecutorService scheduler;
+    /** Whether the scheduler was created by and has to be shut down with this database */
+    private final boolean ownsScheduler;
+    /** The periodic synchronization */
+    private final ScheduledFuture<?> scheduledSync;
+
+    /** The journaled cards of the current user by their front sides, guarded by {@code this} */
+    private final Map<String, Card> pending = new HashMap<>();
+    /** The journaled tombstones of the current user by their front sides, guarded by {@code this} */
+    private final Map<String, Card> pendingDeletions = new HashMap<>();
+    /** The file persisting the watermarks */
+    private final Path watermarkFile;
+    /** The latest update times of the pulled cards by the names of the users, guarded by itself */
+    private final Properties watermarks;
+    /** The running synchronization, guarded by {@code this} */
+    private CompletableFuture<Void> runningSync;
+    /** The number of user changes in progress, which no synchronization is started during, guarded by {@code this} */
+    private int switchingUsers;
+
+    private SyncingDatabase(Builder builder, LocalDatabase replica, LocalDatabase journal, LocalDatabase deletions,
+                            Properties watermarks) {
+        this.remote = builder.remote;
+        this.replica = replica;
+        this.journal = journal;
+        this.deletions = deletions;
+        this.watermarkFile = builder.directory.resolve(WATERMARKS);
+        this.watermarks = watermarks;
+        this.watermarkOverlap = builder.watermarkOverlap;
+        this.ownsScheduler = builder.scheduler == null;
+        this.scheduler = ownsScheduler ? Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "database-sync");
+            thread.setDaemon(true);
+            return thread;
+        }) : builder.scheduler;
+        long interval = builder.syncInterval.toMillis();
+        this.scheduledSync = scheduler.scheduleWithFixedDelay(this::sync, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public User getUser() {
+        return replica.getUser();
+    }
+
+    /**
+     * Waits for the running synchronization, changes the user and starts synchronizing the cards of the new user.
+     * No other synchronization is started until the user is changed.
+     *
+     * @param user
+     *         the user
+     */
+    @Override
+    public void setUser(User user) {
+        CompletableFuture<Void> sync;
+        synchronized (this) {
+            switchingUsers++;
+            sync = runningSync;
+        }
+        try {
+            if (sync != null) sync.handle((v, t) -> null).join();
+            synchronized (this) {
+                remote.setUser(user);
+                replica.setUser(user);
+                journal.setUser(user);
+                deletions.setUser(user);
+                pending.clear();
+                pendingDeletions.clear();
+                if (user == null) return;
+                journal.getAllEntries().join().forEach(card -> pending.put(card.getFrontSide(), card));
+                deletions.getAllEntries().join().forEach(tombstone -> pendingDeletions.put(tombstone.getFrontSide(), tombstone));
+                List<Card> unapplied = new ArrayList<>();
+                for (Card card : pending.values()) {
+                    Card local = replica.getEntry(card.getFrontSide());
+                    if (local == null || !isSame(local, card)) unapplied.add(card);
+                }
+                if (!unapplied.isEmpty()) replica.addOrUpdateEntries(unapplied).join();
+                List<Card> undeleted = new ArrayList<>();
+                for (Card tombstone : pendingDeletions.values()) {
+                    if (replica.getEntry(tombstone.getFrontSide()) != null) undeleted.add(tombstone);
+                }
+                if (!undeleted.isEmpty()) replica.deleteEntries(undeleted).join();
+            }
+        } finally {
+            synchronized (this) {
+                switchingUsers--;
+            }
+        }
+        sync();
+    }
+
+    /**
+     * Returns the users of the remote database
+     */
+    @Override
+    public CompletableFuture<Stream<User>> getAllUsers() {
+        return remote.getAllUsers();
+    }
+
+    @Override
+    public CompletableFuture<Stream<Card>> getAllEntries() {
+        return replica.getAllEntries();
+    }
+
+    @Override
+    public CompletableFuture<Stream<Card>> getGreaterOrEqualLevel(int level) {
+        return replica.getGreaterOrEqualLevel(level);
+    }
+
+    @Override
+    public CompletableFuture<Stream<Card>> getLessOrEqualLevel(int level) {
+        return replica.getLessOrEqualLevel(level);
+    }
+
+    @Override
+    public CompletableFuture<Stream<Card>> getLessOrEqualLevel(int level, Projection projection) {
+        return replica.getLessOrEqualLevel(level, projection);
+    }
+
+    @Override
+    public CompletableFuture<Stream<Card>> getDueBefore(Instant time, int limit) {
+        return replica.getDueBefore(time, limit);
+    }
+
+    @Override
+    public CompletableFuture<UpdatedCards> getUpdatedSince(Instant time) {
+        return replica.getUpdatedSince(time);
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteEntry(Card card) {
+        return deleteEntries(Collections.singletonList(card));
+    }
+
+    @Override
+    public CompletableFuture<Void> addOrUpdateEntry(Card card) {
+        return addOrUpdateEntries(Collections.singletonList(card));
+    }
+
+    /**
+     * Journals the stored card with the level and the last review of the given card and then writes it to the
+     * replica
+     *
+     * @param card
+     *         the reviewed card
+     * @return the request completed when the review is written to the replica, failing with
+     * {@link NoSuchElementException} if the card does not exist
+     */
+    @Override
+    public CompletableFuture<Void> updateReview(Card card) {
+        return updateReviews(Collections.singletonList(card));
+    }
+
+    /**
+     * Journals the stored cards with the levels and the last reviews of the given cards and then writes them to
+     * the replica
+     *
+     * @param cards
+     *         the reviewed cards
+     * @return the request completed when the reviews are written to the replica, failing with
+     * {@link NoSuchElementException} without journaling any review, if any of the cards does not exist
+     */
+    @Override
+    public CompletableFuture<Void> updateReviews(Collection<? extends Card> cards) {
+        User user;
+        List<Card> reviewed = new ArrayList<>(cards.size());
+        synchronized (this) {
+            user = requireUser();
+            for (Card card : cards) {
+                Card stored = replica.getEntry(card.getFrontSide());
+                if (stored == null) {
+                    CompletableFuture<Void> missing = new CompletableFuture<>();
+                    missing.completeExceptionally(new NoSuchElementException("Card does not exist: " + card.getFrontSide()));
+                    return missing;
+                }
+                reviewed.add(new SimpleCard.Builder(stored)
+                        .setLevel(card.getLevel())
+                        .setLastReview(card.getLastReview())
+                        .create());
+            }
+        }
+        return journal(user, reviewed).thenCompose(v -> replica.addOrUpdateEntries(user, reviewed));
+    }
+
+    /**
+     * Journals the cards and then writes them to the replica
+     *
+     * @param cards
+     *         the cards to be added
+     * @return the request completed when the cards are written to the replica
+     */
+    @Override
+    public CompletableFuture<Void> addOrUpdateEntries(Collection<? extends Card> cards) {
+        User user = requireUser();
+        List<Card> written = new ArrayList<>(cards);
+        return journal(user, written).thenCompose(v -> replica.addOrUpdateEntries(user, written));
+    }
+
+    /**
+     * Journals the cards and then writes them to the replica, the listener is notified about the progress of the
+     * latter. The cards are collected, as the replica holds them in memory anyway.
+     */
+    @Override
+    public CompletableFuture<Integer> addOrUpdateEntries(Stream<? extends Card> cards, ProgressListener listener) {
+        User user = requireUser();
+        List<Card> written = cards.collect(Collectors.toList());
+        return journal(user, written).thenCompose(v -> replica.addOrUpdateEntries(user, written.stream(), listener));
+    }
+
+    /**
+     * Journals the tombstones of the cards and then deletes the cards from the replica and from the journal
+     *
+     * @param cards
+     *         the cards to be deleted
+     * @return the request completed when the cards are deleted from the replica
+     */
+    @Override
+    public CompletableFuture<Void> deleteEntries(Collection<? extends Card> cards) {
+        User user;
+        List<Card> tombstones = new ArrayList<>(cards.size());
+        CompletableFuture<Void> journaled;
+        synchronized (this) {
+            user = requireUser();
+            for (Card card : cards) {
+                Card tombstone = tombstone(card.getFrontSide());
+                tombstones.add(tombstone);
+                pending.remove(card.getFrontSide());
+                pendingDeletions.put(card.getFrontSide(), tombstone);
+            }
+            journaled = deletions.addOrUpdateEntries(user, tombstones);
+        }
+        return journaled.thenCompose(v -> CompletableFuture.allOf(
+                replica.deleteEntries(user, tombstones),
+                journal.deleteEntries(user, tombstones)));
+    }
+
+    /**
+     * Registers the listener at the replica, so the pulled changes are delivered as well
+     */
+    @Override
+    public ChangeSubscription addChangeListener(ChangeListener listener) {
+        return replica.addChangeListener(listener);
+    }
+
+    /**
+     * Pulls the remote changes since the watermark and then pushes the journaled deletions and cards of the current
+     * user.
+     * If a synchronization is running already, no other is started. The synchronization is bound to the current
+     * user: if the user is changed meanwhile, it stops without applying its results.
+     *
+     * @return the running synchronization, completed immediately if no user is set or the user is being changed
+     */
+    public synchronized CompletableFuture<Void> sync() {
+        if (switchingUsers > 0) return CompletableFuture.completedFuture(null);
+        if (runningSync != null) return runningSync;
+        User user = replica.getUser();
+        if (user == null) return CompletableFuture.completedFuture(null);
+        CompletableFuture<Void> sync = CompletableFuture.completedFuture(user)
+                .thenCompose(this::pull)
+                .thenCompose(v -> push(user));
+        runningSync = sync;
+        sync.whenComplete((v, t) -> {
+            synchronized (this) {
+                if (runningSync == sync) runningSync = null;
+            }
+        });
+        return sync;
+    }
+
+    /**
+     * Requests the remote cards updated since the watermark of the given user, less the overlap
+     */
+    private CompletableFuture<Void> pull(User user) {
+        return remote.getUpdatedSince(getWatermark(user).minus(watermarkOverlap))
+                .thenCompose(pulled -> merge(user, pulled));
+    }
+
+    /**
+     * Writes the pulled cards, that were reviewed after the local ones and are not deleted locally, to the replica
+     * and removes the local cards they replace from the journal. Deletes the pulled deletions from the replica and
+     * removes the journaled cards and deletions they supersede. Nothing is applied if the user was changed
+     * meanwhile. Then the watermark of the user is advanced to the latest update time of the pulled changes.
+     */
+    private CompletableFuture<Void> merge(User user, UpdatedCards pulled) {
+        List<Card> updated = new ArrayList<>();
+        List<Card> superseded = new ArrayList<>();
+        List<Card> removed = new ArrayList<>();
+        List<Card> deletedRemotely = new ArrayList<>();
+        CompletableFuture<Void> written;
+        synchronized (this) {
+            if (!isCurrent(user)) return CompletableFuture.completedFuture(null);
+            for (String frontSide : pulled.getRemoved()) {
+                Card tombstone = pendingDeletions.remove(frontSide);
+                if (tombstone != null) {
+                    deletedRemotely.add(tombstone);
+                    continue;
+                }
+                Card journaled = pending.remove(frontSide);
+                if (journaled != null) superseded.add(journaled);
+                Card local = replica.getEntry(frontSide);
+                if (local != null) removed.add(local);
+            }
+            for (Card card : pulled.getCards()) {
+                if (pendingDeletions.containsKey(card.getFrontSide())) continue;
+                Card local = replica.getEntry(card.getFrontSide());
+                if (local != null && local.getLastReview().isAfter(card.getLastReview())) continue;
+                Card journaled = pending.remove(card.getFrontSide());
+                if (journaled != null) superseded.add(journaled);
+                if (local == null || !isSame(local, card)) updated.add(card);
+            }
+            written = CompletableFuture.allOf(
+                    unlessEmpty(updated, replica::addOrUpdateEntries),
+                    unlessEmpty(superseded, journal::deleteEntries),
+                    unlessEmpty(removed, replica::deleteEntries),
+                    unlessEmpty(deletedRemotely, deletions::deleteEntries));
+        }
+        return written.thenRun(() -> advanceWatermark(user, pulled.getLatestUpdate()));
+    }
+
+    /**
+     * Returns the watermark of the given user
+     *
+     * @param user
+     *         the user
+     * @return the latest update time of the pulled cards or {@link Instant#EPOCH} if none were pulled yet
+     */
+    Instant getWatermark(User user) {
+        synchronized (watermarks) {
+            String watermark = watermarks.getProperty(user.getName());
+            return watermark == null ? Instant.EPOCH : Instant.parse(watermark);
+        }
+    }
+
+    /**
+     * Advances the watermark of the given user to the given time, if it is later, and persists the watermarks.
+     * The file is replaced atomically, but not forced to the disk, as a lost watermark only repeats a pull.
+     */
+    private void advanceWatermark(User user, Instant latestUpdate) {
+        synchronized (watermarks) {
+            if (!latestUpdate.isAfter(getWatermark(user))) return;
+            watermarks.setProperty(user.getName(), latestUpdate.toString());
+            Path temporary = watermarkFile.resolveSibling(WATERMARKS + ".tmp");
+            try {
+                try (OutputStream out = Files.newOutputStream(temporary)) {
+                    watermarks.store(out, null);
+                }
+                Files.move(temporary, watermarkFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot persist the watermarks to " + watermarkFile, e);
+            }
+        }
+    }
+
+    /**
+     * Reads the persisted watermarks from the given file
+     *
+     * @param file
+     *         the file of the watermarks
+     * @return the watermarks, empty if the file does not exist
+     * @throws IOException
+     *         if the file cannot be read
+     */
+    private static Properties loadWatermarks(Path file) throws IOException {
+        Properties watermarks = new Properties();
+        if (Files.exists(file)) {
+            try (InputStream in = Files.newInputStream(file)) {
+                watermarks.load(in);
+            }
+        }
+        return watermarks;
+    }
+
+    /**
+     * Returns whether the given user is still the current one and is not being changed
+     */
+    private synchronized boolean isCurrent(User user) {
+        return switchingUsers == 0 && Objects.equals(replica.getUser(), user);
+    }
+
+    private static boolean isSame(Card local, Card remote) {
+        return local.getLevel() == remote.getLevel()
+                && local.getLastReview().equals(remote.getLastReview())
+                && Objects.equals(local.getBackSide(), remote.getBackSide());
+    }
+
+    /**
+     * Requests the given write of the given cards, unless there are none
+     */
+    private static CompletableFuture<Void> unlessEmpty(List<Card> cards, Function<List<Card>, CompletableFuture<Void>> write) {
+        return cards.isEmpty() ? CompletableFuture.completedFuture(null) : write.apply(cards);
+    }
+
+    /**
+     * Creates the tombstone of the card with the given front side, journaled for a deletion. Only its front side
+     * is meaningful.
+     */
+    private static Card tombstone(String frontSide) {
+        return new SimpleCard.Builder()
+                .setFrontSide(frontSide)
+                .setBackSide("")
+                .setLevel(0)
+                .setLastReview(Instant.EPOCH)
+                .create();
+    }
+
+    /**
+     * Deletes the journaled deletions and then writes the journaled cards of the given user to the remote database
+     * batch by batch, until the user is changed
+     */
+    private CompletableFuture<Void> push(User user) {
+        List<Card> tombstones;
+        List<Card> cards;
+        synchronized (this) {
+            if (!isCurrent(user)) return CompletableFuture.completedFuture(null);
+            tombstones = new ArrayList<>(pendingDeletions.values());
+            cards = new ArrayList<>(pending.values());
+        }
+        CompletableFuture<Void> pushed = CompletableFuture.completedFuture(null);
+        for (List<Card> batch : Lists.partition(tombstones, BATCH_SIZE)) {
+            pushed = pushed
+                    .thenCompose(v -> isCurrent(user)
+                            ? remote.deleteEntries(batch)
+                            : CompletableFuture.<Void>completedFuture(null))
+                    .thenRun(() -> deleted(user, batch));
+        }
+        for (List<Card> batch : Lists.partition(cards, BATCH_SIZE)) {
+            pushed = pushed
+                    .thenCompose(v -> isCurrent(user)
+                            ? remote.addOrUpdateEntries(batch)
+                            : CompletableFuture.<Void>completedFuture(null))
+                    .thenRun(() -> pushed(user, batch));
+        }
+        return pushed;
+    }
+
+    /**
+     * Removes the pushed tombstones from the journal, unless the cards were deleted or written again meanwhile or
+     * the user was changed
+     */
+    private synchronized void deleted(User user, List<Card> batch) {
+        if (!isCurrent(user)) return;
+        List<Card> done = new ArrayList<>(batch.size());
+        for (Card tombstone : batch) {
+            if (pendingDeletions.get(tombstone.getFrontSide()) == tombstone) {
+                pendingDeletions.remove(tombstone.getFrontSide());
+                done.add(tombstone);
+            }
+        }
+        if (!done.isEmpty()) deletions.deleteEntries(done);
+    }
+
+    /**
+     * Removes the pushed cards from the journal, unless they were journaled again meanwhile or the user was changed
+     */
+    private synchronized void pushed(User user, List<Card> batch) {
+        if (!isCurrent(user)) return;
+        List<Card> done = new ArrayList<>(batch.size());
+        for (Card card : batch) {
+            if (pending.get(card.getFrontSide()) == card) {
+                pending.remove(card.getFrontSide());
+                done.add(card);
+            }
+        }
+        if (!done.isEmpty()) journal.deleteEntries(done);
+    }
+
+    /**
+     * Records the given cards of the given user in the journal, superseding their journaled deletions
+     *
+     * @param user
+     *         the user of the cards
+     * @param cards
+     *         the written cards
+     * @return the request completed when the cards are journaled
+     */
+    private synchronized CompletableFuture<Void> journal(User user, List<Card> cards) {
+        if (Objects.equals(replica.getUser(), user)) {
+            List<Card> revived = new ArrayList<>();
+            for (Card card : cards) {
+                pending.put(card.getFrontSide(), card);
+                Card tombstone = pendingDeletions.remove(card.getFrontSide());
+                if (tombstone != null) revived.add(tombstone);
+            }
+            if (!revived.isEmpty()) deletions.deleteEntries(user, revived);
+        }
+        return journal.addOrUpdateEntries(user, cards);
+    }
+
+    private User requireUser() throws UserNotProvidedException {
+        User user = replica.getUser();
+        if (user == null) throw new UserNotProvidedException();
+        return user;
+    }
+
+    /**
+     * Stops the synchronizations, waits for the running one and closes the local and the remote databases
+     */
+    @Override
+    public void close() throws Exception {
+        scheduledSync.cancel(false);
+        CompletableFuture<Void> sync;
+        synchronized (this) {
+            sync = runningSync;
+        }
+        try {
+            if (sync != null) sync.handle((v, t) -> null).join();
+        } finally {
+            if (ownsScheduler) scheduler.shutdown();
+            closeAll(remote, journal, deletions, replica);
+        }
+    }
+
+    /**
+     * Closes all the given databases, even if any of them fails, and rethrows the first failure
+     */
+    private static void closeAll(AutoCloseable... databases) throws Exception {
+        Exception failure = null;
+        for (AutoCloseable database : databases) {
+            try {
+                database.close();
+            } catch (Exception e) {
+                if (failure == null) failure = e;
+                else failure.addSuppressed(e);
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
+    /**
+     * The builder of {@link SyncingDatabase}
+     */
+    public static class Builder {
+        private final Database remote;
+        private final Path directory;
+        private RevisionManager revisor;
+        private Duration syncInterval = DEFAULT_SYNC_INTERVAL;
+        private Duration watermarkOverlap = DEFAULT_WATERMARK_OVERLAP;
+        private ScheduledExecutorService scheduler;
+
+        /**
+         * Creates a new builder of the database
+         *
+         * @param remote
+         *         the remote database
+         * @param directory
+         *         the directory of the replica and the journal
+         */
+        public Builder(Database remote, Path directory) {
+            this.remote = requireNonNull(remote);
+            this.directory = requireNonNull(directory);
+        }
+
+        /**
+         * Sets the revision manager to index the next revision times in the replica
+         *
+         * @param revisor
+         *         the revision manager or {@code null} to not index them
+         * @return this builder
+         */
+        public Builder setRevisionManager(RevisionManager revisor) {
+            this.revisor = revisor;
+            return this;
+        }
+
+        /**
+         * Sets the time between the background synchronizations
+         *
+         * @param syncInterval
+         *         the time between the synchronizations
+         * @return this builder
+         */
+        public Builder setSyncInterval(Duration syncInterval) {
+            this.syncInterval = syncInterval;
+            return this;
+        }
+
+        /**
+         * Sets the time the pulls reach back before the latest update time of the pulled cards
+         *
+         * @param watermarkOverlap
+         *         the overlap of the pulls
+         * @return this builder
+         */
+        public Builder setWatermarkOverlap(Duration watermarkOverlap) {
+            this.watermarkOverlap = watermarkOverlap;
+            return this;
+        }
+
+        /**
+         * Sets the scheduler of the synchronizations, that is not shut down on close
+         *
+         * @param scheduler
+         *         the scheduler or {@code null} to create an own one
+         * @return this builder
+         */
+        public Builder setScheduler(ScheduledExecutorService scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+
+        /**
+         * Opens the replica and the journals, reads the watermarks and starts the synchronizations
+         *
+         * @return the created {@link SyncingDatabase}
+         * @throws IOException
+         *         if the replica, the journals or the watermarks cannot be opened
+         */
+        public SyncingDatabase create() throws IOException {
+            validate();
+            Properties watermarks = loadWatermarks(directory.resolve(WATERMARKS));
+            LocalDatabase replica = new LocalDatabase.Builder(directory.resolve("replica"))
+                    .setRevisionManager(revisor)
+                    .create();
+            LocalDatabase journal = new LocalDatabase.Builder(directory.resolve("journal")).create();
+            LocalDatabase deletions = new LocalDatabase.Builder(directory.resolve("deletions")).create();
+            return new SyncingDatabase(this, replica, journal, deletions, watermarks);
+        }
+
+        private void validate() {
+            requireNonNull(syncInterval, "Sync interval must be set");
+            requireNonNull(watermarkOverlap, "Watermark overlap must be set");
+            if (syncInterval.isNegative() || syncInterval.isZero()) {
+                throw new IllegalArgumentException("Sync interval must be positive: " + syncInterval);
+            }
+            if (watermarkOverlap.isNegative()) {
+                throw new IllegalArgumentException("Watermark overlap must not be negative: " + watermarkOverlap);
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package coden.decks.core.persistence;
+
+import static java.util.Objects.requireNonNull;
+
+import coden.decks.core.data.Card;
+
+import javax.annotation.concurrent.Immutable;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Represents the cards updated and the front sides of the cards removed since a given time, returned by
+ * {@link Database#getUpdatedSince(Instant)}, with the latest of their update times. The update times are assigned
+ * by the database, not by the clients, so the latest one can be used as the start of the next query.
+ */
+@Immutable
+public final class UpdatedCards {
+
+    /** The updated cards */
+    private final List<Card> cards;
+    /** The front sides of the removed cards */
+    private final List<String> removed;
+    /** The latest update time of the cards, or the queried time if there are none */
+    private final Instant latestUpdate;
+
+    public UpdatedCards(List<? extends Card> cards, Instant latestUpdate) {
+        this(cards, Collections.emptyList(), latestUpdate);
+    }
+
+    public UpdatedCards(List<? extends Card> cards, List<String> removed, Instant latestUpdate) {
+        this.cards = Collections.unmodifiableList(new ArrayList<>(cards));
+        this.removed = Collections.unmodifiableList(new ArrayList<>(removed));
+        this.latestUpdate = requireNonNull(latestUpdate);
+    }
+
+    /**
+     * Returns the updated cards
+     *
+     * @return the unmodifiable list of the cards
+     */
+    public List<Card> getCards() {
+        return cards;
+    }
+
+    /**
+     * Returns the front sides of the removed cards, that were not added again since
+     *
+     * @return the unmodifiable list of the front sides
+     */
+    public List<String> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * Returns the latest update time of the cards, including the removal times, as assigned by the database
+     *
+     * @return the latest update time, or the queried time if no cards were updated or removed
+     */
+    public Instant getLatestUpdate() {
+        return latestUpdate;
+    }
+
+    @Override
+    public String toString() {
+        return "UpdatedCards{" +
+                "cards=" + cards +
+                ", removed=" + removed +
+                ", latestUpdate=" + latestUpdate +
+                '}';
+    }
+}
@@ -0,0 +1,453 @@
+package coden.decks.core.persistence;
+
+import static java.util.Objects.requireNonNull;
+
+import coden.decks.core.data.Card;
+import coden.decks.core.data.LazyCard;
+import coden.decks.core.data.SimpleCard;
+import coden.decks.core.user.User;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * The {@code WriteBehindDatabase} is a {@link Database} decorator, that buffers the single card updates
+ * and writes them to the underlying database with {@link Database#addOrUpdateEntries(Collection)}, as soon
+ * as the buffer reaches the maximal batch size or the oldest buffered update reaches the maximal delay.
+ * <p>
+ * Repeated updates of the same card (identified by the front side) are coalesced into a single write.
+ * The returned requests complete only when the batch containing the update is written.
+ * The writes are passed to the underlying database one after another, in the order they were made.
+ * The reads do not flush the buffer: they wait for the writes passed to the underlying database already and
+ * the buffered updates are laid over their results, so they observe all the previous updates. Only
+ * {@link #flush()}, the batch size, the delay and {@link #close()} write the buffer.
+ * <p>
+ * Each request is made for the user, that was current when it was made. Changing the user does not wait
+ * for the pending writes: they are still written for the previous user and the underlying database is switched
+ * to the new user when they are done.
+ */
+@ThreadSafe
+public class WriteBehindDatabase implements Database {
+
+    /** The underlying database */
+    private final Database delegate;
+    /** The number of buffered cards triggering a flush */
+    private final int maxBatchSize;
+    /** The maximal time a card stays buffered */
+    private final Duration maxDelay;
+    /** The scheduler to trigger the delayed flushes */
+    private final ScheduledExecutorService scheduler;
+    /** Whether the scheduler was created by and has to be shut down with this database */
+    private final boolean ownsScheduler;
+
+    /** The buffered updates by the front side of the card, guarded by {@code this} */
+    private final Map<String, BufferedUpdate> buffer = new LinkedHashMap<>();
+    /** The scheduled flush of the buffer, guarded by {@code this} */
+    private ScheduledFuture<?> scheduledFlush;
+    /** The last write passed to the underlying database, guarded by {@code this} */
+    private CompletableFuture<?> lastWrite = CompletableFuture.completedFuture(null);
+    /** The current user, that the underlying database may not be switched to yet, guarded by {@code this} */
+    private User user;
+    /** Guards switching the user of the underlying database together with issuing a request */
+    private final Object userLock = new Object();
+
+    /**
+     * Creates a new write behind database with its own scheduler thread
+     *
+     * @param delegate
+     *         the underlying database
+     * @param maxBatchSize
+     *         the number of buffered cards triggering a flush
+     * @param maxDelay
+     *         the maximal time a card stays buffered
+     */
+    public WriteBehindDatabase(Database delegate, int maxBatchSize, Duration maxDelay) {
+        this(delegate, maxBatchSize, maxDelay, Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "write-behind-flush");
+            thread.setDaemon(true);
+            return thread;
+        }), true);
+    }
+
+    /**
+     * Creates a new write behind database using the given scheduler for delayed flushes
+     *
+     * @param delegate
+     *         the underlying database
+     * @param maxBatchSize
+     *         the number of buffered cards triggering a flush
+     * @param maxDelay
+     *         the maximal time a card stays buffered
+     * @param scheduler
+     *         the scheduler to trigger delayed flushes, not shut down on close
+     */
+    public WriteBehindDatabase(Database delegate, int maxBatchSize, Duration maxDelay, ScheduledExecutorService scheduler) {
+        this(delegate, maxBatchSize, maxDelay, scheduler, false);
+    }
+
+    private WriteBehindDatabase(Database delegate, int maxBatchSize, Duration maxDelay,
+                                ScheduledExecutorService scheduler, boolean ownsScheduler) {
+        if (maxBatchSize < 1) throw new IllegalArgumentException("Batch size must be positive: " + maxBatchSize);
+        this.delegate = requireNonNull(delegate);
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelay = requireNonNull(maxDelay);
+        this.scheduler = requireNonNull(scheduler);
+        this.ownsScheduler = ownsScheduler;
+        this.user = delegate.getUser();
+    }
+
+    @Override
+    public synchronized User getUser() {
+        return user;
+    }
+
+    /**
+     * Writes all the buffered updates for the current user, before changing the user. The underlying
+     * database is switched to the given user immediately, if no writes are pending, or when the pending writes
+     * are done otherwise.
+     *
+     * @param user
+     *         the user
+     */
+    @Override
+    public synchronized void setUser(User user) {
+        if (!Objects.equals(this.user, user)) {
+            flush();
+        }
+        this.user = user;
+        if (lastWrite.isDone()) {
+            synchronized (userLock) {
+                delegate.setUser(user);
+            }
+        }
+    }
+
+    @Override
+    public CompletableFuture<Stream<User>> getAllUsers() {
+        return delegate.getAllUsers();
+    }
+
+    @Override
+    public CompletableFuture<Stream<Card>> getAllEntries() {
+        return overlaid(card -> true, delegate::getAllEntries);
+    }
+
+    @Override
+    public CompletableFuture<Stream<Card>> getGreaterOrEqualLevel(int level) {
+        return overlaid(card -> card.getLevel() >= level, () -> delegate.getGreaterOrEqualLevel(level));
+    }
+
+    @Override
+    public CompletableFuture<Stream<Card>> getLessOrEqualLevel(int level) {
+        return overlaid(card -> card.getLevel() <= level, () -> delegate.getLessOrEqualLevel(level));
+    }
+
+    @Override
+    public CompletableFuture<Stream<Card>> getLessOrEqualLevel(int level, Projection projection) {
+        return overlaid(card -> card.getLevel() <= level, () -> delegate.getLessOrEqualLevel(level, projection));
+    }
+
+    /**
+     * Leaves the buffered cards out of the due cards, as their next revision times are not known before they
+     * are written. The buffered cards are mostly just reviewed and not due anyway.
+     */
+    @Override
+    public CompletableFuture<Stream<Card>> getDueBefore(Instant time, int limit) {
+        return overlaid(card -> false, () -> delegate.getDueBefore(time, limit));
+    }
+
+    /**
+     * Returns the updated cards without the buffered ones, as their update times are assigned only when they are
+     * written
+     */
+    @Override
+    public CompletableFuture<UpdatedCards> getUpdatedSince(Instant time) {
+        return afterWrites(() -> delegate.getUpdatedSince(time));
+    }
+
+    @Override
+    public synchronized CompletableFuture<Void> deleteEntry(Card card) {
+        flush();
+        return write(() -> delegate.deleteEntry(card));
+    }
+
+    /**
+     * Buffers the given card. If the card with the same front side is already buffered, it is replaced.
+     *
+     * @param card
+     *         the card to be added
+     * @return the request completed when the batch containing the card is written
+     */
+    @Override
+    public synchronized CompletableFuture<Void> addOrUpdateEntry(Card card) {
+        BufferedUpdate update = buffer.get(card.getFrontSide());
+        if (update == null) {
+            update = new BufferedUpdate();
+            buffer.put(card.getFrontSide(), update);
+        }
+        update.card = card;
+        update.reviewOnly = false;
+        return buffered(update);
+    }
+
+    /**
+     * Buffers the review of the given card. The buffered reviews are written together with
+     * {@link Database#updateReviews(Collection)}, unless a full update of the same card is buffered as well.
+     *
+     * @param card
+     *         the reviewed card
+     * @return the request completed when the batch containing the review is written
+     */
+    @Override
+    public synchronized CompletableFuture<Void> updateReview(Card card) {
+        BufferedUpdate update = buffer.get(card.getFrontSide());
+        if (update == null) {
+            update = new BufferedUpdate();
+            update.reviewOnly = true;
+            buffer.put(card.getFrontSide(), update);
+        }
+        update.card = card;
+        return buffered(update);
+    }
+
+    /**
+     * Buffers the reviews of the given cards like {@link #updateReview(Card)}
+     *
+     * @param cards
+     *         the reviewed cards
+     * @return the request completed when the batches containing the reviews are written
+     */
+    @Override
+    public synchronized CompletableFuture<Void> updateReviews(Collection<? extends Card> cards) {
+        return CompletableFuture.allOf(cards.stream()
+                .map(this::updateReview)
+                .toArray(CompletableFuture<?>[]::new));
+    }
+
+    /**
+     * Flushes the buffer if it is full, or schedules the flush after the maximal delay
+     *
+     * @param update
+     *         the buffered update
+     * @return the request completed when the batch containing the update is written
+     */
+    private CompletableFuture<Void> buffered(BufferedUpdate update) {
+        if (buffer.size() >= maxBatchSize) {
+            flush();
+        } else if (scheduledFlush == null) {
+            scheduledFlush = scheduler.schedule(this::flush, maxDelay.toMillis(), TimeUnit.MILLISECONDS);
+        }
+        return update.written;
+    }
+
+    @Override
+    public synchronized CompletableFuture<Void> addOrUpdateEntries(Collection<? extends Card> cards) {
+        flush();
+        return write(() -> delegate.addOrUpdateEntries(cards));
+    }
+
+    @Override
+    public synchronized CompletableFuture<Integer> addOrUpdateEntries(Stream<? extends Card> cards, ProgressListener listener) {
+        flush();
+        return write(() -> delegate.addOrUpdateEntries(cards, listener));
+    }
+
+    @Override
+    public synchronized CompletableFuture<Void> deleteEntries(Collection<? extends Card> cards) {
+        flush();
+        return write(() -> delegate.deleteEntries(cards));
+    }
+
+    /**
+     * Registers the listener at the underlying database. The buffered updates are delivered only
+     * when they are written.
+     *
+     * @param listener
+     *         the listener to notify about the changes
+     * @return the subscription to unregister the listener
+     */
+    @Override
+    public ChangeSubscription addChangeListener(ChangeListener listener) {
+        return delegate.addChangeListener(listener);
+    }
+
+    /**
+     * Writes all the buffered updates as a single batch
+     *
+     * @return the request completed when all the writes made so far are done
+     */
+    public synchronized CompletableFuture<Void> flush() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        if (buffer.isEmpty()) {
+            return lastWrite.thenApply(v -> null);
+        }
+        List<Card> cards = new ArrayList<>(buffer.size());
+        List<Card> reviews = new ArrayList<>();
+        List<CompletableFuture<Void>> written = new ArrayList<>(buffer.size());
+        for (BufferedUpdate update : buffer.values()) {
+            (update.reviewOnly ? reviews : cards).add(update.card);
+            written.add(update.written);
+        }
+        buffer.clear();
+        return write(() -> writeBuffered(cards, reviews)).whenComplete((v, t) -> {
+            for (CompletableFuture<Void> future : written) {
+                if (t == null) future.complete(null);
+                else future.completeExceptionally(t);
+            }
+        });
+    }
+
+    /**
+     * Writes the full updates as a single batch and the reviews as a single batch of partial updates
+     */
+    private CompletableFuture<Void> writeBuffered(List<Card> cards, List<Card> reviews) {
+        if (reviews.isEmpty()) {
+            return delegate.addOrUpdateEntries(cards);
+        }
+        if (cards.isEmpty()) {
+            return delegate.updateReviews(reviews);
+        }
+        return CompletableFuture.allOf(delegate.addOrUpdateEntries(cards), delegate.updateReviews(reviews));
+    }
+
+    /**
+     * Passes the given write to the underlying database after the last write is done
+     *
+     * @param write
+     *         makes the write to the underlying database
+     * @return the request of the write
+     */
+    private synchronized <T> CompletableFuture<T> write(Supplier<CompletableFuture<T>> write) {
+        User user = this.user;
+        CompletableFuture<T> current = lastWrite.handle((v, t) -> null).thenCompose(v -> request(user, write));
+        lastWrite = current;
+        return current;
+    }
+
+    /**
+     * Makes the given request after the writes passed to the underlying database so far are done, without
+     * flushing the buffer
+     *
+     * @param request
+     *         makes the request to the underlying database
+     * @return the request
+     */
+    private synchronized <T> CompletableFuture<T> afterWrites(Supplier<CompletableFuture<T>> request) {
+        User user = this.user;
+        return lastWrite.handle((v, t) -> null).thenCompose(v -> request(user, request));
+    }
+
+    /**
+     * Makes the given query after the writes passed to the underlying database so far are done and lays the
+     * buffered updates over its result: a buffered card matching the query replaces the stored one or is added,
+     * a buffered card not matching the query is removed
+     *
+     * @param matches
+     *         whether a card is a result of the query
+     * @param request
+     *         makes the query to the underlying database
+     * @return the query
+     */
+    private synchronized CompletableFuture<Stream<Card>> overlaid(Predicate<? super Card> matches,
+                                                                   Supplier<CompletableFuture<Stream<Card>>> request) {
+        Map<String, Card> updates = new LinkedHashMap<>();
+        Map<String, Card> reviews = new LinkedHashMap<>();
+        for (Map.Entry<String, BufferedUpdate> buffered : buffer.entrySet()) {
+            (buffered.getValue().reviewOnly ? reviews : updates).put(buffered.getKey(), buffered.getValue().card);
+        }
+        CompletableFuture<Stream<Card>> stored = afterWrites(request);
+        if (updates.isEmpty() && reviews.isEmpty()) {
+            return stored;
+        }
+        return stored.thenApply(cards -> {
+            Map<String, Card> result = new LinkedHashMap<>();
+            cards.forEach(card -> result.put(card.getFrontSide(), card));
+            updates.values().forEach(card -> overlay(result, card, matches));
+            for (Card review : reviews.values()) {
+                Card card = result.get(review.getFrontSide());
+                overlay(result, card == null ? review : review(card, review), matches);
+            }
+            return result.values().stream();
+        });
+    }
+
+    private static void overlay(Map<String, Card> result, Card card, Predicate<? super Card> matches) {
+        if (matches.test(card)) result.put(card.getFrontSide(), card);
+        else result.remove(card.getFrontSide());
+    }
+
+    /**
+     * Returns the stored card with the level and the last review of the given card, without loading the back side
+     */
+    private static Card review(Card stored, Card review) {
+        if (stored instanceof LazyCard && !((LazyCard) stored).isLoaded()) {
+            return new LazyCard(stored.getFrontSide(), review.getLevel(), review.getLastReview(), stored::getBackSide);
+        }
+        return new SimpleCard.Builder(stored)
+                .setLevel(review.getLevel())
+                .setLastReview(review.getLastReview())
+                .create();
+    }
+
+    /**
+     * Makes the given request to the underlying database for the given user, switching the user if needed
+     *
+     * @param user
+     *         the user of the request
+     * @param request
+     *         makes the request to the underlying database
+     * @return the request
+     */
+    private <T> CompletableFuture<T> request(User user, Supplier<CompletableFuture<T>> request) {
+        synchronized (userLock) {
+            if (!Objects.equals(delegate.getUser(), user)) {
+                delegate.setUser(user);
+            }
+            return request.get();
+        }
+    }
+
+    /**
+     * Flushes the buffered updates, waits for all the writes and closes the underlying database
+     */
+    @Override
+    public void close() throws Exception {
+        try {
+            flush().handle((v, t) -> null).join();
+        } finally {
+            if (ownsScheduler) scheduler.shutdown();
+            delegate.close();
+        }
+    }
+
+    /**
+     * A buffered update of a card
+     */
+    private static final class BufferedUpdate {
+        /** The latest state of the card */
+        private Card card;
+        /** Whether only the review of the card has to be written */
+        private boolean reviewOnly;
+        /** Completed when the batch containing the card is written */
+        private final CompletableFuture<Void> written = new CompletableFuture<>();
+    }
+}
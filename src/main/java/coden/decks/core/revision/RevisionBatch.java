@@ -0,0 +1,190 @@
+package coden.decks.core.revision;
+
+import coden.decks.core.data.Card;
+
+import javax.annotation.concurrent.Immutable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * The {@code RevisionBatch} is the result of evaluating a snapshot of cards at a single point of time.
+ * For each card it holds the next revision time as epoch millis, so the readiness and the ordering
+ * of the cards can be computed without reading the clock or allocating {@link java.time.Duration}s
+ * again.
+ *
+ * @see RevisionManager#evaluate
+ */
+@Immutable
+public final class RevisionBatch {
+    /** The evaluated cards */
+    private final List<Card> cards;
+    /** The next revision times of the cards in epoch millis, indexed as {@link #cards} */
+    private final long[] nextRevisions;
+    /** The time of the evaluation in epoch millis */
+    private final long now;
+
+    /**
+     * Creates a new batch from the given cards and their next revision times
+     *
+     * @param cards
+     *         the evaluated cards
+     * @param nextRevisions
+     *         the next revision time of each card in epoch millis
+     * @param now
+     *         the time of the evaluation in epoch millis
+     */
+    public RevisionBatch(List<Card> cards, long[] nextRevisions, long now) {
+        if (cards.size() != nextRevisions.length) {
+            throw new IllegalArgumentException("Each card must have exactly one next revision time");
+        }
+        this.cards = Collections.unmodifiableList(Objects.requireNonNull(cards));
+        this.nextRevisions = nextRevisions;
+        this.now = now;
+    }
+
+    /**
+     * Returns the number of evaluated cards
+     *
+     * @return the size of the batch
+     */
+    public int size() {
+        return cards.size();
+    }
+
+    /**
+     * Returns the time, the batch was evaluated at
+     *
+     * @return the time in epoch millis
+     */
+    public long getNow() {
+        return now;
+    }
+
+    /**
+     * Returns the card at the given position
+     *
+     * @param index
+     *         the position of the card
+     * @return the card
+     */
+    public Card getCard(int index) {
+        return cards.get(index);
+    }
+
+    /**
+     * Returns the next revision time of the card at the given position
+     *
+     * @param index
+     *         the position of the card
+     * @return the next revision time in epoch millis
+     */
+    public long getNextRevision(int index) {
+        return nextRevisions[index];
+    }
+
+    /**
+     * Tells whether the card at the given position was ready at the time of evaluation
+     *
+     * @param index
+     *         the position of the card
+     * @return {@code true} if the card is ready to be reviewed, {@code false} otherwise
+     */
+    public boolean isReady(int index) {
+        return nextRevisions[index] <= now;
+    }
+
+    /**
+     * Returns all evaluated cards
+     *
+     * @return the unmodifiable list of cards
+     */
+    public List<Card> getCards() {
+        return cards;
+    }
+
+    /**
+     * Returns the ready cards, the one with the latest next revision time first
+     *
+     * @return the list of ready cards
+     */
+    public List<Card> getReadyCards() {
+        return select(true);
+    }
+
+    /**
+     * Returns the pending cards, the one with the latest next revision time first
+     *
+     * @return the list of pending cards
+     */
+    public List<Card> getPendingCards() {
+        return select(false);
+    }
+
+    /**
+     * Returns the ready card with the latest next revision time. Finds the card in a single
+     * scan without sorting the batch.
+     *
+     * @return the next ready card or {@code null} if no cards are ready
+     */
+    public Card getNextReadyCard() {
+        int next = -1;
+        for (int i = 0; i < nextRevisions.length; i++) {
+            if (isReady(i) && (next == -1 || nextRevisions[i] > nextRevisions[next])) {
+                next = i;
+            }
+        }
+        return next == -1 ? null : cards.get(next);
+    }
+
+    /**
+     * Returns at most {@code limit} ready cards, the one with the latest next revision time first.
+     * The cards are selected with a heap bounded by the limit, so only the selected cards are sorted.
+     *
+     * @param limit
+     *         the maximal number of cards to return
+     * @return the list of ready cards
+     * @throws IllegalArgumentException
+     *         if the limit is negative
+     */
+    public List<Card> getReadyCards(int limit) {
+        if (limit < 0) throw new IllegalArgumentException("Limit must not be negative: " + limit);
+        if (limit == 0) return Collections.emptyList();
+        // the head of the queue is the worst of the selected cards
+        Comparator<Integer> order = Comparator.comparingLong((Integer i) -> nextRevisions[i])
+                .thenComparing(Comparator.reverseOrder());
+        PriorityQueue<Integer> selected = new PriorityQueue<>(Math.min(limit, nextRevisions.length) + 1, order);
+        for (int i = 0; i < nextRevisions.length; i++) {
+            if (!isReady(i)) continue;
+            if (selected.size() < limit) {
+                selected.add(i);
+            } else if (order.compare(i, selected.peek()) > 0) {
+                selected.poll();
+                selected.add(i);
+            }
+        }
+        Integer[] indices = selected.toArray(new Integer[0]);
+        Arrays.sort(indices, order.reversed());
+        List<Card> result = new ArrayList<>(indices.length);
+        for (int index : indices) {
+            result.add(cards.get(index));
+        }
+        return result;
+    }
+
+    private List<Card> select(boolean ready) {
+        return IntStream.range(0, nextRevisions.length)
+                .filter(i -> isReady(i) == ready)
+                .boxed()
+                .sorted(Comparator.comparingLong((Integer i) -> nextRevisions[i]).reversed())
+                .map(cards::get)
+                .collect(Collectors.toList());
+    }
+}
@@ -2,9 +2,12 @@ package coden.decks.core.revision;
 
 import coden.decks.core.data.Card;
 
+import java.time.Clock;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 /**
  * The represents basic revision manager. The {@code RevisionManager} can be used to manage the current
@@ -61,6 +64,31 @@ public interface RevisionManager {
      */
     Instant getNextRevision(Card card);
 
+    /**
+     * Evaluates the given cards at a single point of time. The clock is read exactly once, so
+     * the readiness and the ordering of all cards in the returned batch are consistent.
+     * Cards that reached the maximal level are never due, their next revision time is {@link Long#MAX_VALUE}.
+     *
+     * @param cards
+     *         the cards to evaluate
+     * @param clock
+     *         the clock to read the current time from
+     * @return the batch containing the next revision time of each card
+     */
+    default RevisionBatch evaluate(Collection<? extends Card> cards, Clock clock) {
+        long now = clock.millis();
+        int maxLevel = getMaxLevel();
+        List<Card> snapshot = new ArrayList<>(cards);
+        long[] nextRevisions = new long[snapshot.size()];
+        for (int i = 0; i < nextRevisions.length; i++) {
+            Card card = snapshot.get(i);
+            nextRevisions[i] = card.getLevel() >= maxLevel
+                    ? Long.MAX_VALUE
+                    : getNextRevision(card).toEpochMilli();
+        }
+        return new RevisionBatch(snapshot, nextRevisions, now);
+    }
+
     /**
      * Sets current levels to operate
      * @param levels the revision levels
@@ -2,24 +2,27 @@ package coden.decks.core.revision;
 
 import coden.decks.core.data.Card;
 
+import java.time.Clock;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.TemporalAmount;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Comparator;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.List;
 
 /**
  * The actual implementation of {@link RevisionManager} that reads
  * from the given config file, which contains the revision levels and their corresponding
  * delays.
+ * <p>
+ * The given levels are compiled into an immutable {@link LevelTable} on every
+ * {@link #setRevisionLevels(Collection)}, so that each query is a constant time lookup.
  *
  * @see RevisionLevel
  */
 public class RevisionManagerImpl implements RevisionManager {
-    /** The revision levels */
-    private final Set<RevisionLevel> levels = new HashSet<>();
+    /** The lookup table built from the current revision levels */
+    private volatile LevelTable table;
 
     /**
      * Creates a new revision manager from the given revision levels. Revision Manager
@@ -34,19 +37,12 @@ public class RevisionManagerImpl implements RevisionManager {
 
     @Override
     public int getMinLevel() {
-        return levels.stream()
-                .min(Comparator.comparing(RevisionLevel::getLevel))
-                .map(RevisionLevel::getLevel)
-                .orElse(0);
+        return table.minLevel;
     }
 
     @Override
     public int getMaxLevel() {
-        return levels.stream()
-                .max(Comparator.comparing(RevisionLevel::getLevel))
-                .map(RevisionLevel::getLevel)
-                .map(i -> i + 1)
-                .orElse(0);
+        return table.maxLevel;
     }
 
     /**
@@ -59,11 +55,9 @@ public class RevisionManagerImpl implements RevisionManager {
      */
     @Override
     public Duration getTimeToNextRevision(int level) {
-        return levels.stream()
-                .filter(entry -> entry.getLevel() == level)
-                .findAny()
-                .map(RevisionLevel::getDelayToNextRevision)
-                .orElseThrow(() -> new RuntimeException("Unable to get next reminder delay"));
+        Duration delay = table.getDelay(level);
+        if (delay == null) throw new RuntimeException("Unable to get next reminder delay");
+        return delay;
     }
 
     /**
@@ -110,9 +104,100 @@ public class RevisionManagerImpl implements RevisionManager {
         return lastReview.plus(nextReminderDelay);
     }
 
+    /**
+     * Evaluates the given cards against a single reading of the clock, adding the delay
+     * in millis of each card's level to its last review. Cards that reached the maximal level
+     * are never due.
+     *
+     * @param cards
+     *         the cards to evaluate
+     * @param clock
+     *         the clock to read the current time from
+     * @return the batch containing the next revision time of each card
+     */
+    @Override
+    public RevisionBatch evaluate(Collection<? extends Card> cards, Clock clock) {
+        LevelTable table = this.table;
+        long now = clock.millis();
+        List<Card> snapshot = new ArrayList<>(cards);
+        long[] nextRevisions = new long[snapshot.size()];
+        for (int i = 0; i < nextRevisions.length; i++) {
+            Card card = snapshot.get(i);
+            nextRevisions[i] = card.getLevel() >= table.maxLevel
+                    ? Long.MAX_VALUE
+                    : card.getLastReview().toEpochMilli() + table.getDelayMillis(card.getLevel());
+        }
+        return new RevisionBatch(snapshot, nextRevisions, now);
+    }
+
     @Override
     public void setRevisionLevels(Collection<RevisionLevel> levels) {
-        this.levels.clear();
-        this.levels.addAll(levels);
+        this.table = new LevelTable(levels);
+    }
+
+    /**
+     * An immutable dense table of delays indexed by level, with the minimal and maximal
+     * level computed once on creation.
+     */
+    private static final class LevelTable {
+        /** The minimal level, i.e. the level stored at index 0 */
+        private final int minLevel;
+        /** The maximal level, i.e. the greatest configured level plus one */
+        private final int maxLevel;
+        /** The delays indexed by {@code level - minLevel}, {@code null} for missing levels */
+        private final Duration[] delays;
+        /** The delays in millis indexed as {@link #delays} */
+        private final long[] delayMillis;
+
+        LevelTable(Collection<RevisionLevel> levels) {
+            if (levels.isEmpty()) {
+                this.minLevel = 0;
+                this.maxLevel = 0;
+                this.delays = new Duration[0];
+                this.delayMillis = new long[0];
+                return;
+            }
+            int min = Integer.MAX_VALUE;
+            int max = Integer.MIN_VALUE;
+            for (RevisionLevel level : levels) {
+                min = Math.min(min, level.getLevel());
+                max = Math.max(max, level.getLevel());
+            }
+            this.minLevel = min;
+            this.maxLevel = max + 1;
+            this.delays = new Duration[max - min + 1];
+            this.delayMillis = new long[delays.length];
+            for (RevisionLevel level : levels) {
+                delays[level.getLevel() - min] = level.getDelayToNextRevision();
+                delayMillis[level.getLevel() - min] = level.getDelayToNextRevision().toMillis();
+            }
+        }
+
+        /**
+         * Returns the delay of the given level
+         *
+         * @param level
+         *         the level
+         * @return the delay or {@code null} if the level is not configured
+         */
+        Duration getDelay(int level) {
+            int index = level - minLevel;
+            if (index < 0 || index >= delays.length) return null;
+            return delays[index];
+        }
+
+        /**
+         * Returns the delay of the given level in millis
+         *
+         * @param level
+         *         the level
+         * @return the delay in millis
+         * @throws RuntimeException
+         *         if the level is not configured
+         */
+        long getDelayMillis(int level) {
+            if (getDelay(level) == null) throw new RuntimeException("Unable to get next reminder delay");
+            return delayMillis[level - minLevel];
+        }
     }
 }
@@ -0,0 +1,60 @@
+package coden.decks.core.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class LazyCardTest {
+
+    @Test
+    void testBackSideIsLoadedOnce() {
+        //setup
+        AtomicInteger loads = new AtomicInteger();
+        LazyCard card = new LazyCard("front", 1, Instant.EPOCH, () -> {
+            loads.incrementAndGet();
+            return "back";
+        });
+
+        //exercise
+        String frontSide = card.getFrontSide();
+        String description = card.toString();
+
+        //verify
+        assertEquals("front", frontSide);
+        assertEquals("Card<front:...>", description);
+        assertFalse(card.isLoaded());
+        assertEquals(0, loads.get());
+
+        //exercise
+        String first = card.getBackSide();
+        String second = card.getBackSide();
+
+        //verify
+        assertEquals("back", first);
+        assertEquals("back", second);
+        assertTrue(card.isLoaded());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void testMissingBackSideIsLoadedAgain() {
+        //setup
+        AtomicInteger loads = new AtomicInteger();
+        LazyCard card = new LazyCard("front", 1, Instant.EPOCH, () -> loads.incrementAndGet() == 1 ? null : "back");
+
+        //exercise
+        assertThrows(NoSuchElementException.class, card::getBackSide);
+        String backSide = card.getBackSide();
+
+        //verify
+        assertEquals("back", backSide);
+        assertEquals(2, loads.get());
+    }
+}
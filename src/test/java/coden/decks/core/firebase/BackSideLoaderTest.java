@@ -0,0 +1,66 @@
+package coden.decks.core.firebase;
+
+import static coden.decks.core.firebase.card.FirebaseCardSerializer.BACK_SIDE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.api.core.ApiFutures;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldMask;
+import com.google.cloud.firestore.Firestore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+class BackSideLoaderTest {
+
+    private final FirebaseRequests requests = new FirebaseRequests(new RequestOptions.Builder().create());
+
+    @AfterEach
+    void tearDown() {
+        requests.close();
+    }
+
+    @Test
+    void testDeletedDocumentIsMissing() {
+        //setup
+        Firestore firestore = mock(Firestore.class);
+        DocumentReference a = document("a");
+        DocumentReference b = document("b");
+        DocumentSnapshot loaded = snapshot("a", true, "back a");
+        DocumentSnapshot deleted = snapshot("b", false, null);
+        when(firestore.getAll(any(DocumentReference[].class), any(FieldMask.class)))
+                .thenReturn(ApiFutures.immediateFuture(Arrays.asList(loaded, deleted)));
+        BackSideLoader loader = new BackSideLoader(firestore, requests, Arrays.asList(a, b));
+
+        //exercise
+        String backSide = loader.load("a");
+
+        //verify
+        assertEquals("back a", backSide);
+        assertThrows(NoSuchElementException.class, () -> loader.load("b"));
+        verify(firestore, times(1)).getAll(any(DocumentReference[].class), any(FieldMask.class));
+    }
+
+    private static DocumentReference document(String id) {
+        DocumentReference document = mock(DocumentReference.class);
+        when(document.getId()).thenReturn(id);
+        return document;
+    }
+
+    private static DocumentSnapshot snapshot(String id, boolean exists, String backSide) {
+        DocumentSnapshot snapshot = mock(DocumentSnapshot.class);
+        when(snapshot.getId()).thenReturn(id);
+        when(snapshot.exists()).thenReturn(exists);
+        if (exists) when(snapshot.getString(BACK_SIDE)).thenReturn(backSide);
+        return snapshot;
+    }
+}
@@ -0,0 +1,126 @@
+package coden.decks.core.firebase;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.api.core.ApiFutures;
+import com.google.api.core.SettableApiFuture;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class FirebaseRequestsTest {
+
+    private FirebaseRequests requests;
+
+    @AfterEach
+    void tearDown() {
+        if (requests != null) requests.close();
+    }
+
+    @Test
+    void testFailureIsPropagated() {
+        requests = new FirebaseRequests(new RequestOptions.Builder().create());
+        IllegalStateException failure = new IllegalStateException();
+
+        CompletableFuture<String> result = requests.read(() -> ApiFutures.immediateFailedFuture(failure));
+
+        ExecutionException thrown = assertThrows(ExecutionException.class, () -> result.get(1, TimeUnit.SECONDS));
+        assertEquals(failure, thrown.getCause());
+    }
+
+    @Test
+    void testDeadlineCancelsRequest() {
+        //setup
+        requests = new FirebaseRequests(new RequestOptions.Builder()
+                .setDeadline(Duration.ofMillis(50))
+                .setRetryPolicy(RetryPolicy.NONE)
+                .create());
+        SettableApiFuture<String> pending = SettableApiFuture.create();
+
+        //exercise
+        CompletableFuture<String> result = requests.write(pending);
+
+        //verify
+        ExecutionException thrown = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+        assertTrue(thrown.getCause() instanceof TimeoutException);
+        assertTrue(pending.isCancelled());
+    }
+
+    @Test
+    void testTransientFailureIsRetried() throws Exception {
+        //setup
+        requests = new FirebaseRequests(new RequestOptions.Builder()
+                .setDeadline(Duration.ofMillis(50))
+                .setRetryPolicy(new RetryPolicy(3, Duration.ofMillis(1), Duration.ofMillis(10), 2))
+                .create());
+        AtomicInteger attempts = new AtomicInteger();
+
+        //exercise
+        CompletableFuture<String> result = requests.read(() -> attempts.incrementAndGet() < 3
+                ? SettableApiFuture.<String>create()
+                : ApiFutures.immediateFuture("result"));
+
+        //verify
+        assertEquals("result", result.get(5, TimeUnit.SECONDS));
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    void testRetriesAreBounded() {
+        //setup
+        requests = new FirebaseRequests(new RequestOptions.Builder()
+                .setDeadline(Duration.ofMillis(10))
+                .setRetryPolicy(new RetryPolicy(2, Duration.ofMillis(1), Duration.ofMillis(1), 1))
+                .create());
+        AtomicInteger attempts = new AtomicInteger();
+
+        //exercise
+        CompletableFuture<String> result = requests.read(() -> {
+            attempts.incrementAndGet();
+            return SettableApiFuture.create();
+        });
+
+        //verify
+        assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    void testHedgedReadTakesFirstResponse() throws Exception {
+        //setup
+        requests = new FirebaseRequests(new RequestOptions.Builder()
+                .setHedgeDelay(Duration.ofMillis(10))
+                .create());
+        List<SettableApiFuture<String>> calls = new CopyOnWriteArrayList<>();
+
+        //exercise
+        CompletableFuture<String> result = requests.hedgedRead(() -> {
+            SettableApiFuture<String> call = SettableApiFuture.create();
+            calls.add(call);
+            if (calls.size() == 2) call.set("hedged");
+            return call;
+        });
+
+        //verify
+        assertEquals("hedged", result.get(5, TimeUnit.SECONDS));
+        assertEquals(2, calls.size());
+        assertTrue(calls.get(0).isCancelled());
+    }
+
+    @Test
+    void testTransientFailures() {
+        assertTrue(FirebaseRequests.isTransient(new TimeoutException()));
+        assertFalse(FirebaseRequests.isTransient(new IllegalStateException()));
+    }
+}
@@ -0,0 +1,87 @@
+package coden.decks.core.firebase;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import coden.decks.core.persistence.CardChange;
+import coden.decks.core.user.User;
+import coden.decks.core.user.UserEntry;
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.EventListener;
+import com.google.cloud.firestore.ListenerRegistration;
+import com.google.cloud.firestore.QuerySnapshot;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+@ExtendWith(MockitoExtension.class)
+class FirebaseSessionTest {
+
+    @Mock
+    private FirebaseClient client;
+
+    @Mock
+    private CollectionReference deck;
+
+    @Mock
+    private CollectionReference deletions;
+
+    @Test
+    void testDatabaseSwitchesSessions() {
+        //setup
+        User user = new UserEntry("user");
+        User other = new UserEntry("other");
+        when(client.session(user)).thenReturn(new FirebaseSession(client, user, deck, deletions));
+        when(client.session(other)).thenReturn(new FirebaseSession(client, other, deck, deletions));
+        Firebase database = new Firebase(client);
+
+        //exercise
+        database.setUser(user);
+        FirebaseSession session = database.getSession();
+        database.setUser(other);
+
+        //verify
+        assertEquals(user, session.getUser());
+        assertEquals(other, database.getUser());
+        assertEquals(other, database.getSession().getUser());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testFirstSnapshotIsDeliveredIfEmpty() {
+        //setup
+        FirebaseSession session = new FirebaseSession(client, new UserEntry("user"), deck, deletions);
+        ArgumentCaptor<EventListener<QuerySnapshot>> snapshots = ArgumentCaptor.forClass(EventListener.class);
+        when(deck.addSnapshotListener(snapshots.capture())).thenReturn(mock(ListenerRegistration.class));
+        QuerySnapshot empty = mock(QuerySnapshot.class);
+        when(empty.getDocumentChanges()).thenReturn(Collections.emptyList());
+        List<List<CardChange>> delivered = new ArrayList<>();
+
+        //exercise
+        session.addChangeListener(delivered::add);
+        snapshots.getValue().onEvent(empty, null);
+        snapshots.getValue().onEvent(empty, null);
+
+        //verify
+        assertEquals(1, delivered.size());
+        assertTrue(delivered.get(0).isEmpty());
+    }
+
+    @Test
+    void testDueBeforeRequiresStamping() {
+        FirebaseSession session = new FirebaseSession(client, new UserEntry("user"), deck, deletions);
+
+        assertThrows(IllegalStateException.class, () -> session.getDueBefore(Instant.now(), 1));
+        assertThrows(IllegalStateException.class, session::stampNextRevisions);
+    }
+}
@@ -0,0 +1,95 @@
+package coden.decks.core.firebase;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.QuerySnapshot;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+
+class QueryPagesTest {
+
+    @Test
+    void testPagesArePrefetchedAfterTheCursor() {
+        //setup
+        QueryDocumentSnapshot a = document("a");
+        QueryDocumentSnapshot b = document("b");
+        QueryDocumentSnapshot c = document("c");
+        List<DocumentSnapshot> cursors = new ArrayList<>();
+        List<CompletableFuture<QuerySnapshot>> requests = new ArrayList<>();
+        QueryPages<String> pages = new QueryPages<>(cursor -> {
+            cursors.add(cursor);
+            CompletableFuture<QuerySnapshot> request = new CompletableFuture<>();
+            requests.add(request);
+            return request;
+        }, 2, DocumentSnapshot::getId);
+
+        //verify
+        assertEquals(1, requests.size());
+        assertNull(cursors.get(0));
+
+        //exercise
+        requests.get(0).complete(snapshot(a, b));
+        List<String> first = pages.next();
+
+        //verify
+        assertEquals(Arrays.asList("a", "b"), first);
+        assertEquals(2, requests.size());
+        assertSame(b, cursors.get(1));
+
+        //exercise
+        requests.get(1).complete(snapshot(c));
+        List<String> second = pages.next();
+
+        //verify
+        assertEquals(Collections.singletonList("c"), second);
+        assertEquals(2, requests.size());
+        assertFalse(pages.hasNext());
+        assertThrows(NoSuchElementException.class, pages::next);
+    }
+
+    @Test
+    void testCloseCancelsPrefetch() {
+        //setup
+        List<CompletableFuture<QuerySnapshot>> requests = new ArrayList<>();
+        QueryPages<String> pages = new QueryPages<>(cursor -> {
+            CompletableFuture<QuerySnapshot> request = new CompletableFuture<>();
+            requests.add(request);
+            return request;
+        }, 1, DocumentSnapshot::getId);
+
+        //exercise
+        pages.close();
+
+        //verify
+        assertTrue(requests.get(0).isCancelled());
+        assertFalse(pages.hasNext());
+    }
+
+    private static QueryDocumentSnapshot document(String id) {
+        QueryDocumentSnapshot document = mock(QueryDocumentSnapshot.class);
+        when(document.getId()).thenReturn(id);
+        return document;
+    }
+
+    private static QuerySnapshot snapshot(QueryDocumentSnapshot... documents) {
+        QuerySnapshot snapshot = mock(QuerySnapshot.class);
+        when(snapshot.getDocuments()).thenReturn(Arrays.asList(documents));
+        when(snapshot.isEmpty()).thenReturn(documents.length == 0);
+        return snapshot;
+    }
+}
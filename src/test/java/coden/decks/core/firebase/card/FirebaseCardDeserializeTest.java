@@ -1,11 +1,18 @@
 package coden.decks.core.firebase.card;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
+import coden.decks.core.data.Card;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldPath;
 import org.junit.jupiter.api.Test;
 
 import java.time.Instant;
@@ -28,4 +35,38 @@ class FirebaseCardDeserializeTest {
         assertEquals(1, card.getLevel());
         assertEquals(Instant.ofEpochSecond(1234567, 1234), card.getLastReview());
     }
-}
\ No newline at end of file
+
+    @Test
+    void testDeserializeDocument() {
+        DocumentSnapshot document = mock(DocumentSnapshot.class);
+        when(document.exists()).thenReturn(true);
+        when(document.get(FieldPath.of("frontSide"))).thenReturn("front");
+        when(document.get(FieldPath.of("backSide"))).thenReturn("back");
+        when(document.get(FieldPath.of("level"))).thenReturn(1L);
+        when(document.get(FieldPath.of("lastReview", "epochSecond"))).thenReturn(1234567L);
+        when(document.get(FieldPath.of("lastReview", "nano"))).thenReturn(1234L);
+
+        Card card = new FirebaseCardDeserializer().deserialize(document);
+
+        assertEquals("front", card.getFrontSide());
+        assertEquals("back", card.getBackSide());
+        assertEquals(1, card.getLevel());
+        assertEquals(Instant.ofEpochSecond(1234567, 1234), card.getLastReview());
+        assertSame(card.getLastReview(), card.getLastReview());
+    }
+
+    @Test
+    void testDeserializeProjectedDocumentWithTimestamp() {
+        DocumentSnapshot document = mock(DocumentSnapshot.class);
+        when(document.exists()).thenReturn(true);
+        when(document.get(FieldPath.of("frontSide"))).thenReturn("front");
+        when(document.get(FieldPath.of("lastReview"))).thenReturn(Timestamp.ofTimeSecondsAndNanos(1234567, 1234));
+
+        Card card = new FirebaseCardDeserializer().deserialize(document);
+
+        assertEquals("front", card.getFrontSide());
+        assertNull(card.getBackSide());
+        assertEquals(0, card.getLevel());
+        assertEquals(Instant.ofEpochSecond(1234567, 1234), card.getLastReview());
+    }
+}
@@ -0,0 +1,33 @@
+package coden.decks.core.firebase.card;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import coden.decks.core.data.Card;
+import coden.decks.core.data.SimpleCard;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.Map;
+
+class FirebaseCardSerializerTest {
+    @Test
+    void testSerialize() {
+        ObjectMapper objectMapper = new JsonMapper();
+        Card card = new SimpleCard.Builder()
+                .setFrontSide("front")
+                .setBackSide("back")
+                .setLevel(3)
+                .setLastReview(Instant.ofEpochSecond(1234567, 1234))
+                .create();
+
+        Map<String, Object> fields = new FirebaseCardSerializer().serialize(card);
+        FirebaseCard firebaseCard = objectMapper.convertValue(fields, FirebaseCard.class);
+
+        assertEquals("front", firebaseCard.getFrontSide());
+        assertEquals("back", firebaseCard.getBackSide());
+        assertEquals(3, firebaseCard.getLevel());
+        assertEquals(Instant.ofEpochSecond(1234567, 1234), firebaseCard.getLastReview());
+    }
+}
@@ -0,0 +1,313 @@
+package coden.decks.core.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import coden.decks.core.data.Card;
+import coden.decks.core.data.SimpleCard;
+import coden.decks.core.persistence.CardChange;
+import coden.decks.core.persistence.ChangeListener;
+import coden.decks.core.persistence.ChangeSubscription;
+import coden.decks.core.persistence.Database;
+import coden.decks.core.revision.RevisionLevel;
+import coden.decks.core.revision.RevisionManager;
+import coden.decks.core.revision.RevisionManagerImpl;
+import coden.decks.core.user.User;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+@ExtendWith(MockitoExtension.class)
+class CachedDecksTest {
+
+    private static final int CARDS = 2000;
+    private static final int THREADS = 8;
+
+    @Mock
+    private Database database;
+
+    @Mock
+    private User user;
+
+    private final RevisionManager revisor = new RevisionManagerImpl(Collections.singletonList(
+            new RevisionLevel(0, Duration.ofMinutes(1))));
+
+    @Test
+    void testNoCardHandedOutTwice() throws Exception {
+        //setup
+        List<Card> cards = new ArrayList<>();
+        for (int i = 0; i < CARDS; i++) {
+            cards.add(new SimpleCard.Builder()
+                    .setFrontSide("front" + i)
+                    .setBackSide("back" + i)
+                    .setLevel(0)
+                    .setLastReview(Instant.now().minus(Duration.ofDays(1)))
+                    .create());
+        }
+        // every refresh returns all the cards, as if none of them was reviewed yet
+        when(database.getLessOrEqualLevel(anyInt(), any()))
+                .thenAnswer(invocation -> CompletableFuture.supplyAsync(cards::stream));
+        CachedDecks decks = new CachedDecks(user, revisor, database, 60);
+
+        //exercise
+        Set<String> handedOut = ConcurrentHashMap.newKeySet();
+        AtomicInteger duplicates = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> consumers = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            consumers.add(executor.submit(() -> {
+                start.await();
+                Card card;
+                while ((card = decks.getNextCard().get()) != null) {
+                    if (!handedOut.add(card.getFrontSide())) duplicates.incrementAndGet();
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> consumer : consumers) {
+            consumer.get();
+        }
+        executor.shutdown();
+
+        //verify
+        assertEquals(0, duplicates.get());
+        assertEquals(CARDS, handedOut.size());
+        assertNull(decks.getNextCard().get());
+    }
+
+    @Test
+    void testReviewedCardIsHandedOutAgain() throws Exception {
+        //setup
+        Card card = new SimpleCard.Builder()
+                .setFrontSide("front")
+                .setBackSide("back")
+                .setLevel(0)
+                .setLastReview(Instant.now().minus(Duration.ofDays(1)))
+                .create();
+        when(database.getLessOrEqualLevel(anyInt(), any()))
+                .thenAnswer(invocation -> CompletableFuture.completedFuture(Collections.singletonList(card).stream()));
+        when(database.updateReview(any())).thenReturn(CompletableFuture.completedFuture(null));
+        CachedDecks decks = new CachedDecks(user, revisor, database, 60);
+
+        //exercise
+        Card first = decks.getNextCard().get();
+        Card second = decks.getNextCard().get();
+        decks.setDontKnow(first);
+        Card third = decks.getNextCard().get();
+
+        //verify
+        assertEquals(card, first);
+        assertNull(second);
+        assertEquals(card, third);
+    }
+
+    @Test
+    void testUnreviewedCardIsHandedOutAgainAfterLease() throws Exception {
+        //setup
+        Instant now = Instant.now();
+        Card card = card("front", now.minus(Duration.ofDays(1)));
+        when(database.getLessOrEqualLevel(anyInt(), any()))
+                .thenAnswer(invocation -> CompletableFuture.completedFuture(Stream.of(card)));
+        MutableClock clock = new MutableClock(now);
+        CachedDecks decks = new CachedDecks(user, revisor, database, 60, clock);
+
+        //exercise
+        Card first = decks.getNextCard().get();
+        Card second = decks.getNextCard().get();
+        clock.instant = now.plus(CachedDecks.HAND_OUT_LEASE).plusSeconds(1);
+        Card third = decks.getNextCard().get();
+
+        //verify
+        assertEquals(card, first);
+        assertNull(second);
+        assertEquals(card, third);
+    }
+
+    @Test
+    void testPushModeAppliesChanges() throws Exception {
+        //setup
+        Instant now = Instant.now();
+        Card ready = card("ready", now.minus(Duration.ofMinutes(2)));
+        Card pending = card("pending", now.minusSeconds(30));
+        AtomicReference<ChangeListener> listener = new AtomicReference<>();
+        when(database.addChangeListener(any())).thenAnswer(invocation -> {
+            listener.set(invocation.getArgument(0));
+            return (ChangeSubscription) () -> {};
+        });
+        when(database.updateReview(any())).thenReturn(CompletableFuture.completedFuture(null));
+        MutableClock clock = new MutableClock(now);
+        RefreshScheduler scheduler = mock(RefreshScheduler.class);
+        CachedDecks decks = new CachedDecks(user, revisor, database, scheduler, new PrefetchPolicy(), clock);
+
+        //exercise
+        listener.get().onChanges(Arrays.asList(
+                new CardChange(CardChange.Type.ADDED, ready),
+                new CardChange(CardChange.Type.ADDED, pending)));
+        Card first = decks.getNextCard().get();
+        Card second = decks.getNextCard().get();
+
+        ArgumentCaptor<Runnable> wakeUp = ArgumentCaptor.forClass(Runnable.class);
+        verify(scheduler, atLeastOnce()).schedule(wakeUp.capture(), eq(Duration.ofSeconds(30)));
+        clock.instant = now.plusSeconds(30);
+        wakeUp.getValue().run();
+        Card third = decks.getNextCard().get();
+
+        listener.get().onChanges(Collections.singletonList(new CardChange(CardChange.Type.REMOVED, ready)));
+        decks.setDontKnow(first);
+        Card fourth = decks.getNextCard().get();
+
+        //verify
+        assertEquals(ready, first);
+        assertNull(second);
+        assertEquals(pending, third);
+        assertNull(fourth);
+        verify(database, never()).getLessOrEqualLevel(anyInt(), any());
+    }
+
+    @Test
+    void testPushModeStartsWithEmptyDeck() throws Exception {
+        //setup
+        Card ready = card("ready", Instant.now().minus(Duration.ofMinutes(2)));
+        AtomicReference<ChangeListener> listener = new AtomicReference<>();
+        when(database.addChangeListener(any())).thenAnswer(invocation -> {
+            listener.set(invocation.getArgument(0));
+            return (ChangeSubscription) () -> {};
+        });
+        PrefetchPolicy prefetch = spy(new PrefetchPolicy());
+        CachedDecks decks = new CachedDecks(user, revisor, database, mock(RefreshScheduler.class),
+                prefetch, Clock.systemUTC());
+
+        //exercise
+        listener.get().onChanges(Collections.emptyList());
+        Card none = decks.getNextCard().get(1, TimeUnit.SECONDS);
+        listener.get().onChanges(Collections.singletonList(new CardChange(CardChange.Type.ADDED, ready)));
+        Card added = decks.getNextCard().get(1, TimeUnit.SECONDS);
+
+        //verify
+        assertNull(none);
+        assertEquals(ready, added);
+        verify(prefetch, never()).recordRefresh(anyLong());
+    }
+
+    @Test
+    void testPushModeSubscribesAgainAfterError() throws Exception {
+        //setup
+        Card ready = card("ready", Instant.now().minus(Duration.ofMinutes(2)));
+        List<ChangeListener> listeners = new ArrayList<>();
+        when(database.addChangeListener(any())).thenAnswer(invocation -> {
+            listeners.add(invocation.getArgument(0));
+            return (ChangeSubscription) () -> {};
+        });
+        CachedDecks decks = new CachedDecks(user, revisor, database, mock(RefreshScheduler.class),
+                new PrefetchPolicy(), Clock.systemUTC());
+        listeners.get(0).onChanges(Collections.emptyList());
+
+        //exercise
+        listeners.get(0).onError(new IllegalStateException("stopped"));
+        CompletableFuture<Card> next = decks.getNextCard();
+        listeners.get(listeners.size() - 1).onChanges(
+                Collections.singletonList(new CardChange(CardChange.Type.ADDED, ready)));
+        Card card = next.get(1, TimeUnit.SECONDS);
+
+        //verify
+        assertEquals(2, listeners.size());
+        assertEquals(ready, card);
+    }
+
+    @Test
+    void testSwitchingUserIsolatesPartitions() throws Exception {
+        //setup
+        User other = mock(User.class);
+        Card userCard = card("user", Instant.now().minus(Duration.ofDays(1)));
+        Card otherCard = card("other", Instant.now().minus(Duration.ofDays(1)));
+        AtomicReference<User> databaseUser = new AtomicReference<>();
+        doAnswer(invocation -> {
+            databaseUser.set(invocation.getArgument(0));
+            return null;
+        }).when(database).setUser(any());
+        CompletableFuture<Stream<Card>> userLoad = new CompletableFuture<>();
+        when(database.getLessOrEqualLevel(anyInt(), any())).thenAnswer(invocation -> databaseUser.get() == user
+                ? userLoad
+                : CompletableFuture.completedFuture(Stream.of(otherCard)));
+        CachedDecks decks = new CachedDecks(user, revisor, database, 60);
+
+        //exercise
+        decks.setUser(other);
+        userLoad.complete(Stream.of(userCard));
+        Card fromOther = decks.getNextCard().get();
+        decks.setUser(user);
+        Card fromUser = decks.getNextCard().get();
+
+        //verify
+        assertEquals(otherCard, fromOther);
+        assertEquals(userCard, fromUser);
+    }
+
+    private static Card card(String frontSide, Instant lastReview) {
+        return new SimpleCard.Builder()
+                .setFrontSide(frontSide)
+                .setBackSide("back")
+                .setLevel(0)
+                .setLastReview(lastReview)
+                .create();
+    }
+
+    private static final class MutableClock extends Clock {
+        private volatile Instant instant;
+
+        MutableClock(Instant instant) {
+            this.instant = instant;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
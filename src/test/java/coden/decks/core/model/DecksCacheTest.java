@@ -0,0 +1,224 @@
+package coden.decks.core.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import coden.decks.core.data.Card;
+import coden.decks.core.data.SimpleCard;
+import coden.decks.core.persistence.Database;
+import coden.decks.core.revision.RevisionLevel;
+import coden.decks.core.revision.RevisionManager;
+import coden.decks.core.revision.RevisionManagerImpl;
+import coden.decks.core.user.User;
+import coden.decks.core.user.UserEntry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+class DecksCacheTest {
+
+    private final RevisionManager revisor = new RevisionManagerImpl(Collections.singletonList(
+            new RevisionLevel(0, Duration.ofMinutes(1))));
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Test
+    void testConcurrentRequestsShareLoad() throws Exception {
+        //setup
+        CompletableFuture<Stream<Card>> pending = new CompletableFuture<>();
+        DecksCache cache = new DecksCache.Builder(revisor)
+                .setLoader(user -> {
+                    loads.incrementAndGet();
+                    return pending;
+                })
+                .create();
+        User user = new UserEntry("user");
+        Card card = card("front", Instant.now().minus(Duration.ofDays(1)));
+
+        //exercise
+        CompletableFuture<Card> first = cache.getNextCard(user);
+        CompletableFuture<List<Card>> second = cache.getReadyCards(user);
+        pending.complete(Stream.of(card));
+
+        //verify
+        assertEquals(card, first.get());
+        assertEquals(Collections.singletonList(card), second.get());
+        assertEquals(card, cache.getNextCard(user).get());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void testEvictsOverCardBudget() throws Exception {
+        //setup
+        DecksCache cache = new DecksCache.Builder(revisor)
+                .setLoader(this::loadTenCards)
+                .setMaximumCards(25)
+                .create();
+
+        //exercise
+        for (int i = 0; i < 10; i++) {
+            cache.getReadyCards(new UserEntry("user" + i)).get();
+        }
+        cache.getReadyCards(new UserEntry("user0")).get();
+
+        //verify
+        assertEquals(2, cache.size());
+        assertEquals(11, loads.get());
+    }
+
+    @Test
+    void testUpdatesCachedDeck() throws Exception {
+        //setup
+        DecksCache cache = new DecksCache.Builder(revisor)
+                .setLoader(this::loadTenCards)
+                .create();
+        User user = new UserEntry("user");
+        Card next = cache.getNextCard(user).get();
+
+        //exercise
+        cache.onUpdate(user, new SimpleCard.Builder(next).setLastReview(Instant.now()).create());
+        Card afterUpdate = cache.getNextCard(user).get();
+        cache.onDelete(user, afterUpdate);
+
+        //verify
+        assertEquals(8, cache.getReadyCards(user).get().size());
+        assertEquals(1, cache.getPendingCards(user).get().size());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void testDecksWriteThroughCache() throws Exception {
+        //setup
+        DecksCache cache = new DecksCache.Builder(revisor)
+                .setLoader(this::loadTenCards)
+                .create();
+        User user = new UserEntry("user");
+        Database database = mock(Database.class);
+        when(database.addOrUpdateEntry(any())).thenReturn(CompletableFuture.completedFuture(null));
+        when(database.deleteEntry(any())).thenReturn(CompletableFuture.completedFuture(null));
+        DecksModel decks = cache.getDecks(user, database);
+        Card added = card("added", Instant.now().minus(Duration.ofDays(1)));
+        decks.getReadyCards().get();
+
+        //exercise
+        decks.addCard(added).get();
+        decks.deleteCard(decks.getNextCard().get()).get();
+
+        //verify
+        assertEquals(10, decks.getReadyCards().get().size());
+        assertEquals(10, cache.getReadyCards(user).get().size());
+        assertEquals(1, loads.get());
+        verify(database).setUser(user);
+    }
+
+    @Test
+    void testFailedWriteInvalidatesDeck() throws Exception {
+        //setup
+        DecksCache cache = new DecksCache.Builder(revisor)
+                .setLoader(this::loadTenCards)
+                .create();
+        User user = new UserEntry("user");
+        Database database = mock(Database.class);
+        CompletableFuture<Void> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IllegalStateException("unavailable"));
+        when(database.addOrUpdateEntry(any())).thenReturn(failed);
+        DecksModel decks = cache.getDecks(user, database);
+        decks.getReadyCards().get();
+
+        //exercise
+        CompletableFuture<Void> write = decks.addCard(card("added", Instant.now().minus(Duration.ofDays(1))));
+
+        //verify
+        assertTrue(write.isCompletedExceptionally());
+        assertEquals(10, decks.getReadyCards().get().size());
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void testGrownDeckIsWeighedAgain() throws Exception {
+        //setup
+        DecksCache cache = new DecksCache.Builder(revisor)
+                .setLoader(user -> CompletableFuture.completedFuture(Stream.of(
+                        card(user.getName() + "a", Instant.now()), card(user.getName() + "b", Instant.now()))))
+                .setMaximumCards(19)
+                .create();
+        User grown = new UserEntry("grown");
+        User other = new UserEntry("other");
+        cache.getReadyCards(grown).get();
+        cache.getReadyCards(other).get();
+
+        //exercise
+        for (int i = 0; i < 10; i++) {
+            cache.onUpdate(grown, card("new" + i, Instant.now()));
+        }
+        long beforeEviction = cache.size();
+        for (int i = 10; i < 15; i++) {
+            cache.onUpdate(grown, card("new" + i, Instant.now()));
+        }
+
+        //verify
+        assertEquals(2, beforeEviction);
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void testFailedLoadIsNotCached() {
+        //setup
+        CompletableFuture<Stream<Card>> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IllegalStateException());
+        DecksCache cache = new DecksCache.Builder(revisor)
+                .setLoader(user -> {
+                    loads.incrementAndGet();
+                    return failed;
+                })
+                .create();
+        User user = new UserEntry("user");
+
+        //exercise
+        assertThrows(Exception.class, () -> cache.getNextCard(user).get());
+        assertThrows(Exception.class, () -> cache.getNextCard(user).get());
+
+        //verify
+        assertEquals(2, loads.get());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void testInvalidBudget() {
+        DecksCache.Builder builder = new DecksCache.Builder(revisor)
+                .setLoader(this::loadTenCards)
+                .setMaximumUsers(1)
+                .setMaximumCards(1);
+        assertThrows(IllegalArgumentException.class, builder::create);
+    }
+
+    private CompletableFuture<Stream<Card>> loadTenCards(User user) {
+        loads.incrementAndGet();
+        List<Card> cards = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            cards.add(card(user.getName() + i, Instant.now().minus(Duration.ofDays(1))));
+        }
+        return CompletableFuture.completedFuture(cards.stream());
+    }
+
+    private static Card card(String frontSide, Instant lastReview) {
+        return new SimpleCard.Builder()
+                .setFrontSide(frontSide)
+                .setBackSide("back")
+                .setLevel(0)
+                .setLastReview(lastReview)
+                .create();
+    }
+}
@@ -3,6 +3,9 @@ package coden.decks.core.model;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -13,18 +16,29 @@ import static org.mockito.Mockito.when;
 import coden.decks.core.data.Card;
 import coden.decks.core.data.SimpleCard;
 import coden.decks.core.persistence.Database;
+import coden.decks.core.persistence.ProgressListener;
+import coden.decks.core.persistence.Projection;
+import coden.decks.core.revision.RevisionBatch;
 import coden.decks.core.revision.RevisionManager;
 import coden.decks.core.user.User;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
 import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.time.Clock;
 import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.stream.Stream;
@@ -120,24 +134,26 @@ class DecksTest {
                 .setLevel(2)
                 .setLastReview(Instant.now())
                 .create();
+        when(database.updateReview(any())).thenReturn(CompletableFuture.completedFuture(null));
 
         // exercise
         decks.setKnow(card);
 
         // verify
         verify(revisor, times(1)).getMaxLevel();
-        verify(database, times(1)).addOrUpdateEntry(cardCaptor.capture());
+        verify(database, times(1)).updateReview(cardCaptor.capture());
 
         assertEquals(card.getLevel() + 1, cardCaptor.getValue().getLevel());
 
         Mockito.reset(database);
+        when(database.updateReview(any())).thenReturn(CompletableFuture.completedFuture(null));
         // exercise
         decks.setDontKnow(card);
 
 
         // verify
         verify(revisor, times(1)).getMinLevel();
-        verify(database, times(1)).addOrUpdateEntry(cardCaptor.capture());
+        verify(database, times(1)).updateReview(cardCaptor.capture());
 
         assertEquals(card.getLevel() - 1, cardCaptor.getValue().getLevel());
     }
@@ -149,6 +165,7 @@ class DecksTest {
     void testAddCard(){
         //setup
         Card card = Mockito.mock(Card.class);
+        when(database.addOrUpdateEntry(card)).thenReturn(CompletableFuture.completedFuture(null));
 
         //exercise
         new Decks(user, revisor, database).addCard(card);
@@ -158,10 +175,57 @@ class DecksTest {
     }
 
 
+    @Test
+    void testReviewOfUnsavedCardAddsIt() throws Exception {
+        //setup
+        when(revisor.getMaxLevel()).thenReturn(10);
+        CompletableFuture<Void> missing = new CompletableFuture<>();
+        missing.completeExceptionally(new NoSuchElementException());
+        when(database.updateReview(any())).thenReturn(missing);
+        when(database.addOrUpdateEntry(any())).thenReturn(CompletableFuture.completedFuture(null));
+        Decks decks = new Decks(user, revisor, database);
+        Card card = decks.createCard("front", "back");
+
+        //exercise
+        decks.setKnow(card).get();
+
+        //verify
+        verify(database).addOrUpdateEntry(cardCaptor.capture());
+        assertEquals("back", cardCaptor.getValue().getBackSide());
+        assertEquals(card.getLevel() + 1, cardCaptor.getValue().getLevel());
+    }
+
+
+    @Test
+    void testFailedWriteIsReported() {
+        //setup
+        Card card = Mockito.mock(Card.class);
+        CompletableFuture<Void> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IllegalStateException("offline"));
+        when(database.addOrUpdateEntry(card)).thenReturn(failed);
+        List<Throwable> failures = new ArrayList<>();
+        Decks decks = new Decks(user, revisor, database) {
+            @Override
+            protected void onWriteFailed(Throwable failure) {
+                failures.add(failure);
+            }
+        };
+
+        //exercise
+        CompletableFuture<Void> request = decks.addCard(card);
+
+        //verify
+        assertTrue(request.isCompletedExceptionally());
+        assertEquals(1, failures.size());
+        assertEquals("offline", failures.get(0).getMessage());
+    }
+
+
     @Test
     void testDeleteCard(){
         //setup
         Card card = Mockito.mock(Card.class);
+        when(database.deleteEntry(card)).thenReturn(CompletableFuture.completedFuture(null));
 
         //exercise
         new Decks(user, revisor, database).deleteCard(card);
@@ -171,13 +235,52 @@ class DecksTest {
     }
 
 
+    @Test
+    void testAddCards(){
+        //setup
+        Card card = Mockito.mock(Card.class);
+        List<Card> cards = Arrays.asList(card, card);
+        ProgressListener listener = done -> {};
+        Stream<Card> stream = Stream.of(card);
+        when(database.addOrUpdateEntries(cards)).thenReturn(CompletableFuture.completedFuture(null));
+        when(database.addOrUpdateEntries(ArgumentMatchers.<Stream<Card>>any(), eq(listener))).thenReturn(CompletableFuture.completedFuture(1));
+
+        //exercise
+        Decks decks = new Decks(user, revisor, database);
+        decks.addCards(cards);
+        decks.addCards(stream, listener);
+
+        //verify
+        verify(database).addOrUpdateEntries(cards);
+        verify(database).addOrUpdateEntries(ArgumentMatchers.<Stream<Card>>any(), eq(listener));
+        verify(database, never()).addOrUpdateEntry(any());
+    }
+
+
+    @Test
+    void testDeleteCards(){
+        //setup
+        Card card = Mockito.mock(Card.class);
+        List<Card> cards = Arrays.asList(card, card);
+        when(database.deleteEntries(cards)).thenReturn(CompletableFuture.completedFuture(null));
+
+        //exercise
+        new Decks(user, revisor, database).deleteCards(cards);
+
+        //verify
+        verify(database).deleteEntries(cards);
+        verify(database, never()).deleteEntry(any());
+    }
+
+
     @Test
     void testGetNextCard() throws ExecutionException, InterruptedException {
         //setup
         Card card = Mockito.mock(Card.class);
         when(revisor.getMaxLevel()).thenReturn(11);
-        when(database.getLessOrEqualLevel(10)).thenReturn(CompletableFuture.supplyAsync(() -> Stream.of(card, card)));
-        when(revisor.isReady(card)).thenReturn(true).thenReturn(false);
+        when(database.getLessOrEqualLevel(10, Projection.SCHEDULING)).thenReturn(CompletableFuture.supplyAsync(() -> Stream.of(card, card)));
+        when(revisor.evaluate(anyCollection(), any(Clock.class)))
+                .thenReturn(new RevisionBatch(Arrays.asList(card, card), new long[]{0, Long.MAX_VALUE}, 1));
 
         //exercise
         CompletableFuture<Card> nextCard = new Decks(user, revisor, database).getNextCard();
@@ -189,35 +292,68 @@ class DecksTest {
 
 
     @Test
-    void testGetReadyCards(){
+    void testGetReadyCards() throws ExecutionException, InterruptedException {
         //setup
-        Card card = Mockito.mock(Card.class);
-        Decks decks = new Decks(user, revisor, database);
+        Card ready = Mockito.mock(Card.class);
+        Card pending = Mockito.mock(Card.class);
+        Clock clock = Clock.fixed(Instant.ofEpochMilli(100), ZoneOffset.UTC);
+        Decks decks = new Decks(user, revisor, database, clock);
         when(revisor.getMaxLevel()).thenReturn(11);
-        when(database.getLessOrEqualLevel(10)).thenReturn(CompletableFuture.supplyAsync(() -> Stream.of(card)));
+        when(database.getLessOrEqualLevel(10, Projection.SCHEDULING)).thenReturn(CompletableFuture.supplyAsync(() -> Stream.of(ready, pending)));
+        when(revisor.evaluate(anyCollection(), eq(clock)))
+                .thenReturn(new RevisionBatch(Arrays.asList(ready, pending), new long[]{50, 150}, 100));
         //exercise
 
-        decks.getReadyCards();
+        List<Card> readyCards = decks.getReadyCards().get();
 
         //verify
-        verify(database, times(1)).getLessOrEqualLevel(10);
-        verify(revisor, times(1)).isReady(card);
+        verify(database, times(1)).getLessOrEqualLevel(10, Projection.SCHEDULING);
+        verify(revisor, times(1)).evaluate(anyCollection(), eq(clock));
+        verify(revisor, never()).isReady(any());
+        assertEquals(Collections.singletonList(ready), readyCards);
     }
 
     @Test
-    void testGetPendingCards(){
+    void testGetReadyCardsWithLimit() throws ExecutionException, InterruptedException {
         //setup
-        Card card = Mockito.mock(Card.class);
+        Card first = Mockito.mock(Card.class);
+        Card second = Mockito.mock(Card.class);
+        Card third = Mockito.mock(Card.class);
         Decks decks = new Decks(user, revisor, database);
         when(revisor.getMaxLevel()).thenReturn(11);
-        when(database.getLessOrEqualLevel(10)).thenReturn(CompletableFuture.supplyAsync(() -> Stream.of(card)));
+        when(database.getLessOrEqualLevel(10, Projection.SCHEDULING)).thenReturn(CompletableFuture.supplyAsync(() -> Stream.of(third, first, second)));
+        when(revisor.evaluate(anyCollection(), any(Clock.class)))
+                .thenReturn(new RevisionBatch(Arrays.asList(third, first, second), new long[]{10, 30, 20}, 100));
         //exercise
 
-        decks.getPendingCards();
+        List<Card> readyCards = decks.getReadyCards(2).get();
 
         //verify
-        verify(database, times(1)).getLessOrEqualLevel(10);
-        verify(revisor, times(1)).isReady(card);
+        verify(database, times(1)).getLessOrEqualLevel(10, Projection.SCHEDULING);
+        verify(revisor, never()).getTimeToNextRevision(any(Card.class));
+        assertEquals(Arrays.asList(first, second), readyCards);
+    }
+
+    @Test
+    void testGetPendingCards() throws ExecutionException, InterruptedException {
+        //setup
+        Card ready = Mockito.mock(Card.class);
+        Card pending = Mockito.mock(Card.class);
+        Clock clock = Clock.fixed(Instant.ofEpochMilli(100), ZoneOffset.UTC);
+        Decks decks = new Decks(user, revisor, database, clock);
+        when(revisor.getMaxLevel()).thenReturn(11);
+        when(database.getLessOrEqualLevel(10, Projection.SCHEDULING)).thenReturn(CompletableFuture.supplyAsync(() -> Stream.of(ready, pending)));
+        when(revisor.evaluate(anyCollection(), eq(clock)))
+                .thenReturn(new RevisionBatch(Arrays.asList(ready, pending), new long[]{50, 150}, 100));
+        //exercise
+
+        List<Card> pendingCards = decks.getPendingCards().get();
+
+        //verify
+        verify(database, times(1)).getLessOrEqualLevel(10, Projection.SCHEDULING);
+        verify(revisor, times(1)).evaluate(anyCollection(), eq(clock));
+        verify(revisor, never()).isReady(any());
+        assertEquals(Collections.singletonList(pending), pendingCards);
     }
 
     @Test
@@ -253,6 +389,37 @@ class DecksTest {
         verifyNoInteractions(revisor);
     }
 
+    @Test
+    void testGetOverview() throws ExecutionException, InterruptedException {
+        //setup
+        Card ready = Mockito.mock(Card.class);
+        Card pending = Mockito.mock(Card.class);
+        Card done = Mockito.mock(Card.class);
+        when(ready.getLevel()).thenReturn(3);
+        when(pending.getLevel()).thenReturn(3);
+        when(done.getLevel()).thenReturn(11);
+        Decks decks = new Decks(user, revisor, database);
+        when(revisor.getMaxLevel()).thenReturn(11);
+        when(database.getAllEntries()).thenReturn(CompletableFuture.supplyAsync(() -> Stream.of(done, pending, ready)));
+        when(revisor.evaluate(anyCollection(), any(Clock.class)))
+                .thenReturn(new RevisionBatch(Arrays.asList(done, pending, ready), new long[]{Long.MAX_VALUE, 150, 50}, 100));
+
+        //exercise
+        DecksOverview overview = decks.getOverview().get();
+
+        //verify
+        verify(database, times(1)).getAllEntries();
+        verify(database, never()).getLessOrEqualLevel(anyInt(), any());
+        verify(database, never()).getGreaterOrEqualLevel(any(Integer.class));
+        assertEquals(Collections.singletonList(ready), overview.getReadyCards());
+        assertEquals(Collections.singletonList(pending), overview.getPendingCards());
+        assertEquals(Collections.singletonList(done), overview.getDoneCards());
+        assertEquals(2, overview.getCount(3));
+        assertEquals(1, overview.getCount(11));
+        assertEquals(0, overview.getCount(0));
+        assertEquals(3, overview.size());
+    }
+
     @Test
     void testSetUser(){
         //setup
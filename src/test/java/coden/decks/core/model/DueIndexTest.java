@@ -0,0 +1,101 @@
+package coden.decks.core.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import coden.decks.core.data.Card;
+import coden.decks.core.data.SimpleCard;
+import coden.decks.core.revision.RevisionLevel;
+import coden.decks.core.revision.RevisionManager;
+import coden.decks.core.revision.RevisionManagerImpl;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Collections;
+
+class DueIndexTest {
+
+    private static final Instant BASE = Instant.ofEpochSecond(1_000_000);
+    private static final Duration MINUTE = Duration.ofMinutes(1);
+    private static final Duration HOUR = Duration.ofHours(1);
+
+    private final RevisionManager revisor = new RevisionManagerImpl(Arrays.asList(
+            new RevisionLevel(0, MINUTE),
+            new RevisionLevel(1, HOUR)));
+
+    private DueIndex index;
+
+    @BeforeEach
+    void setUp() {
+        index = new DueIndex(revisor);
+    }
+
+    @Test
+    void testReset() {
+        Card overdue = card("overdue", 0, BASE.minus(HOUR));
+        Card due = card("due", 1, BASE.minus(HOUR));
+        Card pending = card("pending", 0, BASE);
+        Card done = card("done", 2, BASE.minus(HOUR));
+
+        index.reset(revisor.evaluate(Arrays.asList(pending, done, overdue, due), Clock.fixed(BASE, ZoneOffset.UTC)));
+
+        long now = BASE.toEpochMilli();
+        assertEquals(3, index.size());
+        assertEquals(due, index.getNextCard(now));
+        assertEquals(Arrays.asList(due, overdue), index.getReadyCards(now));
+        assertEquals(Collections.singletonList(due), index.getReadyCards(now, 1));
+        assertEquals(Arrays.asList(due, overdue), index.getReadyCards(now, 10));
+        assertEquals(Collections.singletonList(pending), index.getPendingCards(now));
+        assertEquals(BASE.plus(MINUTE).toEpochMilli(), index.getNextRevision(now));
+    }
+
+    @Test
+    void testPutAndRemove() {
+        long now = BASE.toEpochMilli();
+        Card card = card("front", 0, BASE.minus(HOUR));
+        index.put(card);
+        assertEquals(card, index.getNextCard(now));
+
+        Card known = card("front", 1, BASE);
+        index.put(known);
+        assertEquals(1, index.size());
+        assertNull(index.getNextCard(now));
+        assertEquals(Collections.singletonList(known), index.getPendingCards(now));
+        assertEquals(known, index.getNextCard(BASE.plus(HOUR).toEpochMilli()));
+
+        index.put(card("front", 2, BASE));
+        assertEquals(0, index.size());
+        assertEquals(Long.MAX_VALUE, index.getNextRevision(now));
+
+        index.put(card);
+        assertTrue(index.remove("front"));
+        assertFalse(index.remove("front"));
+        assertTrue(index.getReadyCards(now).isEmpty());
+    }
+
+    @Test
+    void testReadyAtRevisionTime() {
+        Card card = card("front", 0, BASE);
+        index.put(card);
+        long revision = BASE.plus(MINUTE).toEpochMilli();
+        assertNull(index.getNextCard(revision - 1));
+        assertEquals(card, index.getNextCard(revision));
+        assertEquals(revision, index.getNextRevision(revision - 1));
+    }
+
+    private Card card(String frontSide, int level, Instant lastReview) {
+        return new SimpleCard.Builder()
+                .setFrontSide(frontSide)
+                .setBackSide("back")
+                .setLevel(level)
+                .setLastReview(lastReview)
+                .create();
+    }
+}
@@ -0,0 +1,100 @@
+package coden.decks.core.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.common.base.Ticker;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+class PrefetchPolicyTest {
+
+    private final FakeTicker ticker = new FakeTicker();
+
+    @Test
+    void testBounds() {
+        PrefetchPolicy policy = new PrefetchPolicy(2, 10, 2.0, ticker);
+
+        assertTrue(policy.shouldRefill(1));
+        // nothing measured yet
+        assertFalse(policy.shouldRefill(2));
+        assertFalse(policy.shouldRefill(10));
+    }
+
+    @Test
+    void testAdaptsToRate() {
+        //setup
+        PrefetchPolicy policy = new PrefetchPolicy(2, 10, 2.0, ticker);
+        long start = policy.now();
+        ticker.advance(1000);
+        policy.recordRefresh(start);
+
+        //exercise
+        // a card every 100 ms, remaining cards have to last 2 seconds
+        for (int i = 0; i < 5; i++) {
+            policy.recordConsumption();
+            ticker.advance(100);
+        }
+
+        //verify
+        assertEquals(Duration.ofMillis(100), policy.getConsumptionInterval());
+        assertEquals(Duration.ofSeconds(1), policy.getRefreshLatency());
+        assertTrue(policy.shouldRefill(9));
+        assertFalse(policy.shouldRefill(10));
+    }
+
+    @Test
+    void testSlowReviewerDoesNotRefillEarly() {
+        //setup
+        PrefetchPolicy policy = new PrefetchPolicy(2, 10, 2.0, ticker);
+        long start = policy.now();
+        ticker.advance(1000);
+        policy.recordRefresh(start);
+
+        //exercise
+        for (int i = 0; i < 5; i++) {
+            policy.recordConsumption();
+            ticker.advance(5000);
+        }
+
+        //verify
+        assertFalse(policy.shouldRefill(2));
+        assertTrue(policy.shouldRefill(1));
+    }
+
+    @Test
+    void testPercentileOfLatencies() {
+        PrefetchPolicy policy = new PrefetchPolicy(2, 10, 2.0, ticker);
+        for (int i = 1; i <= 20; i++) {
+            long start = policy.now();
+            ticker.advance(i);
+            policy.recordRefresh(start);
+        }
+
+        assertEquals(Duration.ofMillis(19), policy.getRefreshLatency());
+    }
+
+    @Test
+    void testInvalidArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new PrefetchPolicy(3, 2, 1.0));
+        assertThrows(IllegalArgumentException.class, () -> new PrefetchPolicy(-1, 2, 1.0));
+        assertThrows(IllegalArgumentException.class, () -> new PrefetchPolicy(1, 2, -1.0));
+    }
+
+    private static final class FakeTicker extends Ticker {
+        private long nanos;
+
+        void advance(long millis) {
+            nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package coden.decks.core.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class RefreshSchedulerTest {
+
+    private static final long PERIOD = Duration.ofMinutes(1).toNanos();
+
+    @Test
+    void testRegister() throws InterruptedException {
+        try (RefreshScheduler scheduler = new RefreshScheduler(1, 0.5)) {
+            CountDownLatch runs = new CountDownLatch(3);
+            RefreshScheduler.Registration registration = scheduler.register(runs::countDown, Duration.ofMillis(10));
+            assertTrue(runs.await(5, TimeUnit.SECONDS));
+            registration.close();
+        }
+    }
+
+    @Test
+    void testFirstRunsAreStaggered() {
+        //setup
+        ScheduledExecutorService executor = mockExecutor();
+        RefreshScheduler scheduler = new RefreshScheduler(executor, 0.1);
+
+        //exercise
+        for (int i = 0; i < 100; i++) {
+            scheduler.register(() -> {}, Duration.ofNanos(PERIOD));
+        }
+
+        //verify
+        ArgumentCaptor<Long> delays = ArgumentCaptor.forClass(Long.class);
+        verify(executor, times(100)).schedule(any(Runnable.class), delays.capture(), eq(TimeUnit.NANOSECONDS));
+        Set<Long> distinct = new HashSet<>(delays.getAllValues());
+        assertTrue(distinct.size() > 1);
+        for (long delay : distinct) {
+            assertTrue(delay >= 0 && delay < PERIOD, "First delay out of the period: " + delay);
+        }
+    }
+
+    @Test
+    void testNextRunsAreJittered() {
+        //setup
+        ScheduledExecutorService executor = mockExecutor();
+        RefreshScheduler scheduler = new RefreshScheduler(executor, 0.1);
+        AtomicInteger runs = new AtomicInteger();
+        scheduler.register(runs::incrementAndGet, Duration.ofNanos(PERIOD));
+        ArgumentCaptor<Runnable> run = ArgumentCaptor.forClass(Runnable.class);
+        ArgumentCaptor<Long> delays = ArgumentCaptor.forClass(Long.class);
+
+        //exercise
+        for (int i = 0; i < 100; i++) {
+            verify(executor, atLeastOnce()).schedule(run.capture(), anyLong(), eq(TimeUnit.NANOSECONDS));
+            run.getValue().run();
+        }
+
+        //verify
+        assertEquals(100, runs.get());
+        verify(executor, times(101)).schedule(any(Runnable.class), delays.capture(), eq(TimeUnit.NANOSECONDS));
+        Set<Long> distinct = new HashSet<>(delays.getAllValues().subList(1, 101));
+        assertTrue(distinct.size() > 1);
+        long maxShift = (long) (PERIOD * 0.1);
+        for (long delay : distinct) {
+            assertTrue(delay >= PERIOD - maxShift && delay <= PERIOD + maxShift, "Delay out of the jitter: " + delay);
+        }
+    }
+
+    @Test
+    void testUnregister() {
+        //setup
+        ScheduledExecutorService executor = mockExecutor();
+        RefreshScheduler scheduler = new RefreshScheduler(executor, 0);
+        AtomicInteger runs = new AtomicInteger();
+        RefreshScheduler.Registration registration = scheduler.register(runs::incrementAndGet, Duration.ofNanos(PERIOD));
+        ArgumentCaptor<Runnable> run = ArgumentCaptor.forClass(Runnable.class);
+        verify(executor).schedule(run.capture(), anyLong(), eq(TimeUnit.NANOSECONDS));
+
+        //exercise
+        registration.close();
+        run.getValue().run();
+
+        //verify
+        assertEquals(0, runs.get());
+        verify(executor, times(1)).schedule(any(Runnable.class), anyLong(), any());
+    }
+
+    @Test
+    void testDefaultIsNotClosed() {
+        //setup
+        RefreshScheduler scheduler = RefreshScheduler.getDefault();
+
+        //exercise
+        scheduler.close();
+
+        //verify
+        ScheduledFuture<?> run = scheduler.schedule(() -> {}, Duration.ofMinutes(1));
+        assertFalse(run.isCancelled());
+        run.cancel(false);
+    }
+
+    @Test
+    void testInvalidArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new RefreshScheduler(1, 2));
+        try (RefreshScheduler scheduler = new RefreshScheduler(1, 0)) {
+            assertThrows(IllegalArgumentException.class, () -> scheduler.register(() -> {}, Duration.ZERO));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ScheduledExecutorService mockExecutor() {
+        ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+        when(executor.schedule(any(Runnable.class), anyLong(), any()))
+                .thenAnswer(invocation -> mock(ScheduledFuture.class));
+        return executor;
+    }
+}
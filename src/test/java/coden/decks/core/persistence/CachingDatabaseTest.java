@@ -0,0 +1,103 @@
+package coden.decks.core.persistence;
+
+import static coden.decks.core.persistence.TestCards.card;
+import static coden.decks.core.persistence.TestCards.frontSides;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import coden.decks.core.data.Card;
+import coden.decks.core.user.UserEntry;
+import com.google.common.base.Ticker;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+class CachingDatabaseTest {
+
+    @Test
+    void testRepeatedQueriesAreCachedUntilExpired() throws Exception {
+        //setup
+        AtomicLong nanos = new AtomicLong();
+        InMemoryDatabase delegate = spy(new InMemoryDatabase.Builder().create());
+        CachingDatabase database = new CachingDatabase.Builder(delegate)
+                .setExpireAfterWrite(Duration.ofMinutes(1))
+                .setTicker(new Ticker() {
+                    @Override
+                    public long read() {
+                        return nanos.get();
+                    }
+                })
+                .create();
+        database.setUser(new UserEntry("user"));
+        database.addOrUpdateEntries(Arrays.asList(card("a", 0), card("b", 2))).get();
+
+        //exercise
+        database.getAllEntries().get();
+        database.getLessOrEqualLevel(1).get();
+        List<String> all = frontSides(database.getAllEntries());
+        List<String> unfinished = frontSides(database.getLessOrEqualLevel(1));
+        nanos.addAndGet(Duration.ofMinutes(2).toNanos());
+        database.getAllEntries().get();
+
+        //verify
+        assertEquals(Arrays.asList("a", "b"), all);
+        assertEquals(Arrays.asList("a"), unfinished);
+        verify(delegate, times(2)).getAllEntries();
+        verify(delegate, times(1)).getLessOrEqualLevel(1, Projection.FULL);
+    }
+
+    @Test
+    void testConcurrentQueriesShareRequest() throws Exception {
+        //setup
+        Database delegate = mock(Database.class);
+        CompletableFuture<Stream<Card>> response = new CompletableFuture<>();
+        when(delegate.getUser()).thenReturn(new UserEntry("user"));
+        when(delegate.getAllEntries()).thenReturn(response);
+        CachingDatabase database = new CachingDatabase.Builder(delegate).create();
+
+        //exercise
+        CompletableFuture<Stream<Card>> first = database.getAllEntries();
+        CompletableFuture<Stream<Card>> second = database.getAllEntries();
+        response.complete(Stream.of(card("a", 0)));
+
+        //verify
+        assertEquals(Arrays.asList("a"), frontSides(first));
+        assertEquals(Arrays.asList("a"), frontSides(second));
+        assertEquals(Arrays.asList("a"), frontSides(database.getAllEntries()));
+        verify(delegate, times(1)).getAllEntries();
+    }
+
+    @Test
+    void testWritesPatchCachedResults() throws Exception {
+        //setup
+        InMemoryDatabase delegate = spy(new InMemoryDatabase.Builder().create());
+        CachingDatabase database = new CachingDatabase.Builder(delegate).create();
+        database.setUser(new UserEntry("user"));
+        database.addOrUpdateEntries(Arrays.asList(card("a", 0), card("b", 1), card("c", 2))).get();
+        database.getLessOrEqualLevel(1).get();
+        database.getGreaterOrEqualLevel(2).get();
+
+        //exercise
+        database.updateReview(card("a", 2)).get();
+        database.deleteEntry(card("b", 1)).get();
+        database.addOrUpdateEntry(card("d", 0)).get();
+
+        //verify
+        assertEquals(Arrays.asList("d"), frontSides(database.getLessOrEqualLevel(1)));
+        assertEquals(Arrays.asList("c", "a"), frontSides(database.getGreaterOrEqualLevel(2)));
+        assertEquals(Arrays.asList(2, 2), database.getGreaterOrEqualLevel(2).get()
+                .map(Card::getLevel).collect(Collectors.toList()));
+        verify(delegate, times(1)).getLessOrEqualLevel(1, Projection.FULL);
+        verify(delegate, times(1)).getGreaterOrEqualLevel(2);
+    }
+}
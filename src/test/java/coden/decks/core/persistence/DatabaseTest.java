@@ -0,0 +1,56 @@
+package coden.decks.core.persistence;
+
+import static coden.decks.core.persistence.TestCards.card;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import coden.decks.core.data.Card;
+import org.junit.jupiter.api.Test;
+import org.mockito.Answers;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+class DatabaseTest {
+
+    @Test
+    void testDefaultBulkWritesWriteEachCard() {
+        //setup
+        Database database = mock(Database.class, withSettings().defaultAnswer(Answers.CALLS_REAL_METHODS));
+        when(database.addOrUpdateEntry(any())).thenReturn(CompletableFuture.completedFuture(null));
+        Card first = card("first", 0);
+        Card second = card("second", 0);
+        AtomicInteger progress = new AtomicInteger();
+
+        //exercise
+        database.addOrUpdateEntries(Arrays.asList(first, second)).join();
+        int written = database.addOrUpdateEntries(Stream.of(first), progress::set).join();
+        database.updateReview(second).join();
+
+        //verify
+        assertEquals(1, written);
+        assertEquals(1, progress.get());
+        verify(database, times(2)).addOrUpdateEntry(first);
+        verify(database, times(2)).addOrUpdateEntry(second);
+    }
+
+    @Test
+    void testDefaultFeedsAreUnsupported() {
+        //setup
+        Database database = mock(Database.class, withSettings().defaultAnswer(Answers.CALLS_REAL_METHODS));
+
+        //exercise & verify
+        assertThrows(UnsupportedOperationException.class, () -> database.addChangeListener(mock(ChangeListener.class)));
+        assertThrows(UnsupportedOperationException.class, () -> database.getUpdatedSince(Instant.EPOCH));
+        assertThrows(UnsupportedOperationException.class, () -> database.getDueBefore(Instant.EPOCH, 1));
+    }
+}
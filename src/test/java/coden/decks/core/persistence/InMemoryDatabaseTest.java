@@ -0,0 +1,166 @@
+package coden.decks.core.persistence;
+
+import static coden.decks.core.persistence.TestCards.card;
+import static coden.decks.core.persistence.TestCards.frontSides;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import coden.decks.core.data.Card;
+import coden.decks.core.data.SimpleCard;
+import coden.decks.core.revision.RevisionLevel;
+import coden.decks.core.revision.RevisionManager;
+import coden.decks.core.revision.RevisionManagerImpl;
+import coden.decks.core.user.UserEntry;
+import coden.decks.core.user.UserNotProvidedException;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+class InMemoryDatabaseTest {
+
+    private final RevisionManager revisor = new RevisionManagerImpl(Arrays.asList(
+            new RevisionLevel(0, Duration.ofHours(1)),
+            new RevisionLevel(1, Duration.ofHours(2))));
+
+    @Test
+    void testLevelQueries() throws Exception {
+        //setup
+        InMemoryDatabase database = new InMemoryDatabase.Builder().create();
+        database.setUser(new UserEntry("user"));
+        database.addOrUpdateEntries(Arrays.asList(card("a", 0, 0), card("b", 1, 0), card("c", 2, 0))).get();
+
+        //exercise
+        List<String> unfinished = frontSides(database.getLessOrEqualLevel(1));
+        List<String> done = frontSides(database.getGreaterOrEqualLevel(2));
+
+        //verify
+        assertEquals(Arrays.asList("a", "b"), unfinished);
+        assertEquals(Arrays.asList("c"), done);
+    }
+
+    @Test
+    void testDueBefore() throws Exception {
+        //setup
+        InMemoryDatabase database = new InMemoryDatabase.Builder().setRevisionManager(revisor).create();
+        database.setUser(new UserEntry("user"));
+        // next revisions: a at 1h, b at 3h, c at 2h, d is done
+        database.addOrUpdateEntries(Arrays.asList(card("a", 0, 0), card("b", 1, 1), card("c", 0, 1),
+                card("d", 2, 0))).get();
+
+        //exercise
+        List<String> due = frontSides(database.getDueBefore(Instant.EPOCH.plus(Duration.ofHours(2)), 10));
+        List<String> limited = frontSides(database.getDueBefore(Instant.EPOCH.plus(Duration.ofHours(5)), 2));
+
+        //verify
+        assertEquals(Arrays.asList("c", "a"), due);
+        assertEquals(Arrays.asList("b", "c"), limited);
+    }
+
+    @Test
+    void testUpdateReviewKeepsSides() throws Exception {
+        //setup
+        InMemoryDatabase database = new InMemoryDatabase.Builder().setRevisionManager(revisor).create();
+        database.setUser(new UserEntry("user"));
+        database.addOrUpdateEntry(card("a", 0, 0)).get();
+        List<CardChange> changes = new ArrayList<>();
+        database.addChangeListener(changes::addAll);
+
+        //exercise
+        database.updateReview(new SimpleCard.Builder()
+                .setFrontSide("a")
+                .setBackSide("ignored")
+                .setLevel(1)
+                .setLastReview(Instant.EPOCH.plus(Duration.ofHours(1)))
+                .create()).get();
+
+        //verify
+        Card stored = database.getAllEntries().get().findFirst().get();
+        assertEquals("back a", stored.getBackSide());
+        assertEquals(1, stored.getLevel());
+        assertEquals(2, changes.size());
+        assertEquals(CardChange.Type.ADDED, changes.get(0).getType());
+        assertEquals(CardChange.Type.MODIFIED, changes.get(1).getType());
+        assertEquals(0, database.getDueBefore(Instant.EPOCH.plus(Duration.ofHours(2)), 10).get().count());
+        ExecutionException missing = assertThrows(ExecutionException.class,
+                () -> database.updateReview(card("missing", 0, 0)).get());
+        assertTrue(missing.getCause() instanceof NoSuchElementException);
+    }
+
+    @Test
+    void testUpdateReviewsIsAllOrNothing() throws Exception {
+        //setup
+        InMemoryDatabase database = new InMemoryDatabase.Builder().create();
+        database.setUser(new UserEntry("user"));
+        database.addOrUpdateEntries(Arrays.asList(card("a", 0, 0), card("b", 0, 0))).get();
+
+        //exercise
+        database.updateReviews(Arrays.asList(card("a", 1, 1), card("b", 2, 1))).get();
+        ExecutionException missing = assertThrows(ExecutionException.class,
+                () -> database.updateReviews(Arrays.asList(card("a", 0, 2), card("missing", 0, 2))).get());
+
+        //verify
+        assertTrue(missing.getCause() instanceof NoSuchElementException);
+        assertEquals(Arrays.asList(1, 2), database.getAllEntries().get()
+                .sorted((x, y) -> x.getFrontSide().compareTo(y.getFrontSide()))
+                .map(Card::getLevel)
+                .collect(Collectors.toList()));
+    }
+
+    @Test
+    void testUpdatedSinceReturnsDeletions() throws Exception {
+        //setup
+        InMemoryDatabase database = new InMemoryDatabase.Builder().create();
+        database.setUser(new UserEntry("user"));
+        database.addOrUpdateEntries(Arrays.asList(card("a", 0, 0), card("b", 0, 0), card("c", 0, 0))).get();
+
+        //exercise
+        database.deleteEntries(Arrays.asList(card("a", 0, 0), card("b", 0, 0))).get();
+        database.addOrUpdateEntry(card("b", 1, 1)).get();
+        UpdatedCards updated = database.getUpdatedSince(Instant.EPOCH).get();
+
+        //verify
+        assertEquals(Arrays.asList("a"), updated.getRemoved());
+        assertEquals(Arrays.asList("c", "b"), updated.getCards().stream()
+                .map(Card::getFrontSide)
+                .collect(Collectors.toList()));
+    }
+
+    @Test
+    void testInjectedLatencyAndFailures() throws Exception {
+        //setup
+        try (InMemoryDatabase slow = new InMemoryDatabase.Builder().setLatency(Duration.ofMillis(50)).create();
+             InMemoryDatabase failing = new InMemoryDatabase.Builder().setFailureRate(1).create()) {
+            slow.setUser(new UserEntry("user"));
+            failing.setUser(new UserEntry("user"));
+
+            //exercise
+            CompletableFuture<Void> delayed = slow.addOrUpdateEntry(card("a", 0, 0));
+            CompletableFuture<Void> failed = failing.addOrUpdateEntry(card("a", 0, 0));
+
+            //verify
+            assertFalse(delayed.isDone());
+            delayed.get(5, TimeUnit.SECONDS);
+            ExecutionException thrown = assertThrows(ExecutionException.class, failed::get);
+            assertTrue(thrown.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    void testUserIsRequired() {
+        InMemoryDatabase database = new InMemoryDatabase.Builder().create();
+
+        assertThrows(UserNotProvidedException.class, database::getAllEntries);
+    }
+}
@@ -0,0 +1,130 @@
+package coden.decks.core.persistence;
+
+import static coden.decks.core.persistence.TestCards.card;
+import static coden.decks.core.persistence.TestCards.frontSides;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import coden.decks.core.data.Card;
+import coden.decks.core.data.LazyCard;
+import coden.decks.core.user.UserEntry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+
+class LocalDatabaseTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testReplaysLogOnOpen() throws Exception {
+        //setup
+        try (LocalDatabase database = new LocalDatabase.Builder(directory).create()) {
+            database.setUser(new UserEntry("user"));
+            database.addOrUpdateEntries(Arrays.asList(card("a", 0, 0), card("b", 1, 0), card("c", 2, 0))).get();
+            database.deleteEntry(card("b", 1, 0)).get();
+            database.updateReview(card("a", 1, 5)).get();
+        }
+
+        //exercise
+        try (LocalDatabase database = new LocalDatabase.Builder(directory).create()) {
+            database.setUser(new UserEntry("user"));
+            List<Card> cards = database.getAllEntries().get().collect(Collectors.toList());
+
+            //verify
+            assertEquals(Arrays.asList("a", "c"), cards.stream().map(Card::getFrontSide).collect(Collectors.toList()));
+            assertEquals("back a", cards.get(0).getBackSide());
+            assertEquals(1, cards.get(0).getLevel());
+            assertEquals(Instant.EPOCH.plus(Duration.ofHours(5)), cards.get(0).getLastReview());
+            assertEquals(Arrays.asList("c"), frontSides(database.getGreaterOrEqualLevel(2)));
+        }
+    }
+
+    @Test
+    void testReplaysSnapshotAndLogAfterCompaction() throws Exception {
+        //setup
+        try (LocalDatabase database = new LocalDatabase.Builder(directory).create()) {
+            database.setUser(new UserEntry("user"));
+            database.addOrUpdateEntries(Arrays.asList(card("a", 0, 0), card("b", 1, 0))).get();
+
+            //exercise
+            database.compact().get();
+            database.addOrUpdateEntry(card("c", 0, 0)).get();
+        }
+
+        //verify
+        assertTrue(Files.exists(directory.resolve(LocalDatabase.SNAPSHOT)));
+        try (LocalDatabase database = new LocalDatabase.Builder(directory).create()) {
+            database.setUser(new UserEntry("user"));
+            assertEquals(Arrays.asList("a", "b", "c"), frontSides(database.getAllEntries()));
+        }
+    }
+
+    @Test
+    void testIgnoresIncompleteRecord() throws Exception {
+        //setup
+        try (LocalDatabase database = new LocalDatabase.Builder(directory).create()) {
+            database.setUser(new UserEntry("user"));
+            database.addOrUpdateEntry(card("a", 0, 0)).get();
+        }
+        // a record, that was interrupted after its header
+        Path log = directory.resolve(LocalDatabase.LOG);
+        byte[] bytes = Files.readAllBytes(log);
+        int end = 0;
+        while (end + 4 <= bytes.length && ByteBuffer.wrap(bytes, end, 4).getInt() > 0) {
+            end += 8 + ByteBuffer.wrap(bytes, end, 4).getInt();
+        }
+        byte[] torn = Arrays.copyOf(bytes, end + 9);
+        System.arraycopy(new byte[]{0, 0, 0, 40, 1, 2, 3, 4, 1}, 0, torn, end, 9);
+        Files.write(log, torn);
+
+        //exercise
+        try (LocalDatabase database = new LocalDatabase.Builder(directory).create()) {
+            database.setUser(new UserEntry("user"));
+            database.addOrUpdateEntry(card("b", 0, 0)).get();
+        }
+
+        //verify
+        try (LocalDatabase database = new LocalDatabase.Builder(directory).create()) {
+            database.setUser(new UserEntry("user"));
+            assertEquals(Arrays.asList("a", "b"), frontSides(database.getAllEntries()));
+            ExecutionException e = assertThrows(ExecutionException.class,
+                    () -> database.updateReview(card("missing", 0, 0)).get());
+            assertTrue(e.getCause() instanceof NoSuchElementException);
+        }
+    }
+
+    @Test
+    void testFailedMutationIsNotLogged() throws Exception {
+        //setup
+        Card unreadable = new LazyCard("b", 0, Instant.EPOCH, () -> null);
+        try (LocalDatabase database = new LocalDatabase.Builder(directory).create()) {
+            database.setUser(new UserEntry("user"));
+
+            //exercise
+            CompletableFuture<Void> write = database.addOrUpdateEntries(Arrays.asList(card("a", 0, 0), unreadable));
+
+            //verify
+            ExecutionException thrown = assertThrows(ExecutionException.class, write::get);
+            assertTrue(thrown.getCause() instanceof NoSuchElementException);
+            assertEquals(0, database.getAllEntries().get().count());
+        }
+        try (LocalDatabase database = new LocalDatabase.Builder(directory).create()) {
+            database.setUser(new UserEntry("user"));
+            assertEquals(0, database.getAllEntries().get().count());
+        }
+    }
+}
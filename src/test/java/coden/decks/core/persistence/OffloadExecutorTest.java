@@ -0,0 +1,84 @@
+package coden.decks.core.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+
+class OffloadExecutorTest {
+
+    @Test
+    void testOffloadHandsOverToExecutor() {
+        //setup
+        List<Runnable> tasks = new ArrayList<>();
+        OffloadExecutor executor = new OffloadExecutor(tasks::add);
+        CompletableFuture<String> source = new CompletableFuture<>();
+
+        //exercise
+        CompletableFuture<String> target = executor.offload(source);
+        source.complete("result");
+
+        //verify
+        assertFalse(target.isDone());
+        assertEquals(1, executor.getQueueDepth());
+        assertEquals(1, executor.getHandOffs());
+
+        //exercise
+        tasks.get(0).run();
+
+        //verify
+        assertEquals("result", target.join());
+        assertEquals(0, executor.getQueueDepth());
+        assertEquals(1, executor.getCompletedTasks());
+    }
+
+    @Test
+    void testCancelPropagatesToSource() {
+        //setup
+        OffloadExecutor executor = new OffloadExecutor(Runnable::run);
+        CompletableFuture<String> source = new CompletableFuture<>();
+
+        //exercise
+        executor.offload(source).cancel(false);
+
+        //verify
+        assertTrue(source.isCancelled());
+    }
+
+    @Test
+    void testCreatedExecutorRunsTasks() throws Exception {
+        //setup
+        try (OffloadExecutor executor = OffloadExecutor.create()) {
+            //exercise
+            String thread = CompletableFuture.supplyAsync(() -> Thread.currentThread().getName(), executor).get();
+
+            //verify
+            assertNotEquals(Thread.currentThread().getName(), thread);
+        }
+    }
+
+    @Test
+    void testClosedPoolFailsOffloadedFutures() {
+        //setup
+        OffloadExecutor executor = OffloadExecutor.pool(1, 1);
+        CompletableFuture<String> source = new CompletableFuture<>();
+        CompletableFuture<String> target = executor.offload(source);
+        executor.close();
+
+        //exercise
+        source.complete("result");
+
+        //verify
+        CompletionException failure = assertThrows(CompletionException.class, target::join);
+        assertTrue(failure.getCause() instanceof RejectedExecutionException);
+    }
+}
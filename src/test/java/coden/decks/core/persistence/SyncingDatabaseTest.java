@@ -0,0 +1,272 @@
+package coden.decks.core.persistence;
+
+import static coden.decks.core.persistence.TestCards.card;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.doCallRealMethod;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+import coden.decks.core.data.Card;
+import coden.decks.core.user.UserEntry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+class SyncingDatabaseTest {
+
+    private static final Duration OVERLAP = Duration.ofMinutes(5);
+    private static final Instant UPDATE_TIME = Instant.EPOCH.plus(Duration.ofDays(10));
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testReviewsAreJournaledWhileOffline() throws Exception {
+        //setup
+        InMemoryDatabase offline = new InMemoryDatabase.Builder().setFailureRate(1).create();
+        open(offline, database -> {
+            database.setUser(new UserEntry("user"));
+            database.addOrUpdateEntry(card("a", 0, 0)).get();
+
+            //exercise
+            database.updateReview(card("a", 1, 2)).get();
+
+            //verify
+            assertThrows(ExecutionException.class, () -> database.sync().get());
+            assertEquals(1, database.getGreaterOrEqualLevel(1).get().count());
+        });
+        InMemoryDatabase online = new InMemoryDatabase.Builder().create();
+        open(online, database -> {
+            database.setUser(new UserEntry("user"));
+            database.sync().get();
+        });
+        online.setUser(new UserEntry("user"));
+        List<Card> remote = online.getAllEntries().get().collect(Collectors.toList());
+        assertEquals(1, remote.size());
+        assertEquals("back a", remote.get(0).getBackSide());
+        assertEquals(1, remote.get(0).getLevel());
+        assertEquals(Instant.EPOCH.plus(Duration.ofHours(2)), remote.get(0).getLastReview());
+    }
+
+    @Test
+    void testLastWriterWins() throws Exception {
+        //setup
+        InMemoryDatabase remote = new InMemoryDatabase.Builder().create();
+        remote.setUser(new UserEntry("user"));
+        remote.addOrUpdateEntries(Arrays.asList(card("a", 2, 5), card("b", 0, 2))).get();
+        open(new InMemoryDatabase.Builder().setFailureRate(1).create(), database -> {
+            database.setUser(new UserEntry("user"));
+            database.addOrUpdateEntries(Arrays.asList(card("a", 1, 3), card("b", 1, 6))).get();
+        });
+
+        //exercise
+        open(remote, database -> {
+            database.setUser(new UserEntry("user"));
+            database.sync().get();
+
+            //verify
+            assertEquals(Arrays.asList(2, 1), levels(database));
+        });
+        assertEquals(Arrays.asList(2, 1), levels(remote));
+    }
+
+    @Test
+    void testDeletionsAreJournaledWhileOffline() throws Exception {
+        //setup
+        InMemoryDatabase online = new InMemoryDatabase.Builder().create();
+        online.setUser(new UserEntry("user"));
+        online.addOrUpdateEntries(Arrays.asList(card("a", 0, 0), card("b", 0, 0))).get();
+        open(online, database -> {
+            database.setUser(new UserEntry("user"));
+            database.sync().get();
+        });
+
+        //exercise
+        open(new InMemoryDatabase.Builder().setFailureRate(1).create(), database -> {
+            database.setUser(new UserEntry("user"));
+            database.deleteEntry(card("a", 0, 0)).get();
+
+            //verify
+            assertEquals(Arrays.asList(0), levels(database));
+        });
+        open(online, database -> {
+            database.setUser(new UserEntry("user"));
+            database.sync().get();
+
+            //verify
+            assertEquals(Arrays.asList(0), levels(database));
+        });
+        assertEquals(Arrays.asList(0), levels(online));
+    }
+
+    @Test
+    void testRemoteDeletionsArePulled() throws Exception {
+        //setup
+        InMemoryDatabase remote = new InMemoryDatabase.Builder().setClock(Clock.fixed(UPDATE_TIME, ZoneOffset.UTC)).create();
+        remote.setUser(new UserEntry("user"));
+        remote.addOrUpdateEntries(Arrays.asList(card("a", 0, 0), card("b", 0, 0))).get();
+        open(remote, database -> {
+            database.setUser(new UserEntry("user"));
+            database.sync().get();
+        });
+        remote.deleteEntry(card("a", 0, 0)).get();
+        open(new InMemoryDatabase.Builder().setFailureRate(1).create(), database -> {
+            database.setUser(new UserEntry("user"));
+            database.updateReview(card("a", 1, 1)).get();
+        });
+
+        //exercise
+        open(remote, database -> {
+            database.setUser(new UserEntry("user"));
+            database.sync().get();
+
+            //verify
+            assertEquals(Arrays.asList(0), levels(database));
+        });
+        assertEquals(Arrays.asList(0), levels(remote));
+    }
+
+    @Test
+    void testPullsSinceWatermark() throws Exception {
+        //setup
+        InMemoryDatabase remote = spy(new InMemoryDatabase.Builder().setClock(Clock.fixed(UPDATE_TIME, ZoneOffset.UTC)).create());
+        remote.setUser(new UserEntry("user"));
+        remote.addOrUpdateEntries(Arrays.asList(card("a", 0, 1), card("b", 0, 4))).get();
+        open(remote, database -> {
+            database.setUser(new UserEntry("user"));
+            database.sync().get();
+            verify(remote).getUpdatedSince(Instant.EPOCH.minus(OVERLAP));
+            clearInvocations(remote);
+            // reviewed before the other cards by the clock of the client, but updated later
+            remote.addOrUpdateEntry(card("c", 0, 0)).get();
+
+            //exercise
+            database.sync().get();
+
+            //verify
+            verify(remote).getUpdatedSince(UPDATE_TIME.minus(OVERLAP));
+            assertEquals(3, database.getAllEntries().get().count());
+        });
+    }
+
+    @Test
+    void testWatermarkIsPersisted() throws Exception {
+        //setup
+        InMemoryDatabase remote = spy(new InMemoryDatabase.Builder().setClock(Clock.fixed(UPDATE_TIME, ZoneOffset.UTC)).create());
+        remote.setUser(new UserEntry("user"));
+        remote.addOrUpdateEntry(card("a", 0, 1)).get();
+        open(remote, database -> {
+            database.setUser(new UserEntry("user"));
+            database.sync().get();
+        });
+
+        //exercise
+        open(remote, database -> {
+            database.setUser(new UserEntry("user"));
+            database.sync().get();
+
+            //verify
+            assertEquals(UPDATE_TIME, database.getWatermark(new UserEntry("user")));
+            assertEquals(Instant.EPOCH, database.getWatermark(new UserEntry("other")));
+        });
+        verify(remote).getUpdatedSince(Instant.EPOCH.minus(OVERLAP));
+        verify(remote, atLeastOnce()).getUpdatedSince(UPDATE_TIME.minus(OVERLAP));
+    }
+
+    @Test
+    void testJournaledCardsAreWrittenToReplica() throws Exception {
+        //setup
+        try (LocalDatabase journal = new LocalDatabase.Builder(directory.resolve("journal")).create()) {
+            journal.setUser(new UserEntry("user"));
+            journal.addOrUpdateEntry(card("a", 1, 2)).get();
+        }
+
+        //exercise
+        open(new InMemoryDatabase.Builder().setFailureRate(1).create(), database -> {
+            database.setUser(new UserEntry("user"));
+
+            //verify
+            assertEquals(Arrays.asList(1), levels(database));
+        });
+    }
+
+    @Test
+    void testNoSyncWhileUserIsChanged() throws Exception {
+        //setup
+        InMemoryDatabase remote = spy(new InMemoryDatabase.Builder().create());
+        CompletableFuture<UpdatedCards> pull = new CompletableFuture<>();
+        doReturn(pull).when(remote).getUpdatedSince(any());
+        open(remote, database -> {
+            database.setUser(new UserEntry("first"));
+            doCallRealMethod().when(remote).getUpdatedSince(any());
+
+            //exercise
+            CompletableFuture<Void> running = database.sync();
+            int dependents = running.getNumberOfDependents();
+            CompletableFuture<Void> change = CompletableFuture.runAsync(() -> database.setUser(new UserEntry("second")));
+            // the user is being changed once the change waits for the running synchronization
+            while (running.getNumberOfDependents() == dependents) {
+                Thread.yield();
+            }
+            assertTrue(database.sync().isDone());
+            pull.complete(new UpdatedCards(Arrays.asList(card("a", 0, 1)), UPDATE_TIME));
+            change.get(5, TimeUnit.SECONDS);
+
+            //verify
+            assertEquals("second", database.getUser().getName());
+            database.sync().get(5, TimeUnit.SECONDS);
+            assertEquals(0, database.getAllEntries().get().count());
+        });
+    }
+
+    /**
+     * Opens the synchronized database of the given remote database, runs the given test on it and closes it
+     */
+    private void open(Database remote, SyncingTest test) throws Exception {
+        SyncingDatabase database = create(remote);
+        try {
+            test.run(database);
+        } finally {
+            database.close();
+        }
+    }
+
+    private SyncingDatabase create(Database remote) throws Exception {
+        return new SyncingDatabase.Builder(remote, directory)
+                .setSyncInterval(Duration.ofHours(1))
+                .setWatermarkOverlap(OVERLAP)
+                .create();
+    }
+
+    private static List<Integer> levels(Database database) throws Exception {
+        return database.getAllEntries().get()
+                .sorted((a, b) -> a.getFrontSide().compareTo(b.getFrontSide()))
+                .map(Card::getLevel)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * A test run on an open synchronized database
+     */
+    @FunctionalInterface
+    private interface SyncingTest {
+        void run(SyncingDatabase database) throws Exception;
+    }
+}
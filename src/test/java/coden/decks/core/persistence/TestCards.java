@@ -0,0 +1,46 @@
+package coden.decks.core.persistence;
+
+import coden.decks.core.data.Card;
+import coden.decks.core.data.SimpleCard;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The cards shared by the tests of the databases
+ */
+final class TestCards {
+
+    private TestCards() {
+    }
+
+    /**
+     * Creates a card reviewed at the epoch
+     */
+    static Card card(String frontSide, int level) {
+        return card(frontSide, level, 0);
+    }
+
+    /**
+     * Creates a card reviewed the given number of hours after the epoch
+     */
+    static Card card(String frontSide, int level, int hoursSinceEpoch) {
+        return new SimpleCard.Builder()
+                .setFrontSide(frontSide)
+                .setBackSide("back " + frontSide)
+                .setLevel(level)
+                .setLastReview(Instant.EPOCH.plus(Duration.ofHours(hoursSinceEpoch)))
+                .create();
+    }
+
+    /**
+     * Returns the front sides of the requested cards in their order
+     */
+    static List<String> frontSides(CompletableFuture<Stream<Card>> cards) throws Exception {
+        return cards.get().map(Card::getFrontSide).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,273 @@
+package coden.decks.core.persistence;
+
+import static coden.decks.core.persistence.TestCards.card;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import coden.decks.core.data.Card;
+import coden.decks.core.user.User;
+import coden.decks.core.user.UserEntry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+@ExtendWith(MockitoExtension.class)
+class WriteBehindDatabaseTest {
+
+    @Mock
+    private Database database;
+
+    @Captor
+    private ArgumentCaptor<Collection<Card>> cardsCaptor;
+
+    @Test
+    void testFlushOnBatchSize() throws Exception {
+        //setup
+        CompletableFuture<Void> commit = new CompletableFuture<>();
+        when(database.addOrUpdateEntries(anyCollection())).thenReturn(commit);
+        Card first = card("first", 1);
+        Card second = card("second", 1);
+
+        WriteBehindDatabase writeBehind = new WriteBehindDatabase(database, 2, Duration.ofHours(1));
+        try {
+            //exercise
+            CompletableFuture<Void> firstWrite = writeBehind.addOrUpdateEntry(first);
+            verify(database, never()).addOrUpdateEntries(anyCollection());
+            CompletableFuture<Void> secondWrite = writeBehind.addOrUpdateEntry(second);
+
+            //verify
+            verify(database).addOrUpdateEntries(cardsCaptor.capture());
+            assertEquals(Arrays.asList(first, second), cardsCaptor.getValue());
+            assertFalse(firstWrite.isDone());
+            assertFalse(secondWrite.isDone());
+
+            commit.complete(null);
+            assertTrue(firstWrite.isDone());
+            assertTrue(secondWrite.isDone());
+        } finally {
+            writeBehind.close();
+        }
+    }
+
+    @Test
+    void testCoalesceUpdates() throws Exception {
+        //setup
+        when(database.addOrUpdateEntries(anyCollection())).thenReturn(CompletableFuture.completedFuture(null));
+        Card known = card("front", 1);
+        Card knownAgain = card("front", 2);
+
+        WriteBehindDatabase writeBehind = new WriteBehindDatabase(database, 10, Duration.ofHours(1));
+        try {
+            //exercise
+            CompletableFuture<Void> firstWrite = writeBehind.addOrUpdateEntry(known);
+            CompletableFuture<Void> secondWrite = writeBehind.addOrUpdateEntry(knownAgain);
+            assertSame(firstWrite, secondWrite);
+            writeBehind.flush().get();
+
+            //verify
+            verify(database).addOrUpdateEntries(cardsCaptor.capture());
+            assertEquals(Arrays.asList(knownAgain), cardsCaptor.getValue());
+            assertTrue(firstWrite.isDone());
+        } finally {
+            writeBehind.close();
+        }
+    }
+
+    @Test
+    void testReviewsArePartialUpdates() throws Exception {
+        //setup
+        when(database.addOrUpdateEntries(anyCollection())).thenReturn(CompletableFuture.completedFuture(null));
+        when(database.updateReviews(anyCollection())).thenReturn(CompletableFuture.completedFuture(null));
+        Card reviewed = card("reviewed", 1);
+        Card reviewedAgain = card("reviewed", 2);
+        Card other = card("other", 1);
+        Card added = card("added", 0);
+        Card addedAndReviewed = card("added", 1);
+
+        WriteBehindDatabase writeBehind = new WriteBehindDatabase(database, 10, Duration.ofHours(1));
+        try {
+            //exercise
+            writeBehind.updateReview(reviewed);
+            writeBehind.updateReview(reviewedAgain);
+            writeBehind.updateReview(other);
+            writeBehind.addOrUpdateEntry(added);
+            writeBehind.updateReview(addedAndReviewed);
+            writeBehind.flush().get();
+
+            //verify
+            verify(database).updateReviews(cardsCaptor.capture());
+            assertEquals(Arrays.asList(reviewedAgain, other), cardsCaptor.getValue());
+            verify(database, never()).updateReview(any());
+            verify(database).addOrUpdateEntries(cardsCaptor.capture());
+            assertEquals(Arrays.asList(addedAndReviewed), cardsCaptor.getValue());
+        } finally {
+            writeBehind.close();
+        }
+    }
+
+    @Test
+    void testFlushOnDelay() throws Exception {
+        //setup
+        when(database.addOrUpdateEntries(anyCollection())).thenReturn(CompletableFuture.completedFuture(null));
+
+        WriteBehindDatabase writeBehind = new WriteBehindDatabase(database, 10, Duration.ofMillis(10));
+        try {
+            //exercise
+            writeBehind.addOrUpdateEntry(card("front", 1)).get();
+
+            //verify
+            verify(database).addOrUpdateEntries(anyCollection());
+        } finally {
+            writeBehind.close();
+        }
+    }
+
+    @Test
+    void testFailedBatch() throws Exception {
+        //setup
+        CompletableFuture<Void> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IllegalStateException());
+        when(database.addOrUpdateEntries(anyCollection())).thenReturn(failed);
+        when(database.getAllEntries()).thenReturn(CompletableFuture.completedFuture(Stream.empty()));
+
+        WriteBehindDatabase writeBehind = new WriteBehindDatabase(database, 10, Duration.ofHours(1));
+        try {
+            //exercise
+            CompletableFuture<Void> write = writeBehind.addOrUpdateEntry(card("front", 1));
+            writeBehind.flush().handle((v, t) -> null).get();
+            writeBehind.getAllEntries().get();
+
+            //verify
+            assertTrue(write.isCompletedExceptionally());
+        } finally {
+            writeBehind.close();
+        }
+    }
+
+    @Test
+    void testDeletesAfterWrites() throws Exception {
+        //setup
+        when(database.addOrUpdateEntries(anyCollection())).thenReturn(CompletableFuture.completedFuture(null));
+        when(database.deleteEntry(any())).thenReturn(CompletableFuture.completedFuture(null));
+        Card card = card("front", 1);
+
+        WriteBehindDatabase writeBehind = new WriteBehindDatabase(database, 10, Duration.ofHours(1));
+        try {
+            //exercise
+            writeBehind.addOrUpdateEntry(card);
+            writeBehind.deleteEntry(card).get();
+
+            //verify
+            InOrder order = inOrder(database);
+            order.verify(database).addOrUpdateEntries(anyCollection());
+            order.verify(database).deleteEntry(card);
+        } finally {
+            writeBehind.close();
+        }
+    }
+
+    @Test
+    void testReadsOverlayBufferedWrites() throws Exception {
+        //setup
+        Card stored = card("stored", 2);
+        Card reviewed = card("reviewed", 3);
+        when(database.getLessOrEqualLevel(2)).thenAnswer(invocation ->
+                CompletableFuture.completedFuture(Stream.of(stored, card("reviewed", 2))));
+        when(database.updateReviews(anyCollection())).thenReturn(CompletableFuture.completedFuture(null));
+        when(database.addOrUpdateEntries(anyCollection())).thenReturn(CompletableFuture.completedFuture(null));
+        Card added = card("added", 0);
+
+        WriteBehindDatabase writeBehind = new WriteBehindDatabase(database, 10, Duration.ofHours(1));
+        try {
+            //exercise
+            writeBehind.updateReview(reviewed);
+            writeBehind.addOrUpdateEntry(added);
+            List<Card> cards = writeBehind.getLessOrEqualLevel(2).get().collect(Collectors.toList());
+
+            //verify
+            assertEquals(Arrays.asList(stored, added), cards);
+            verify(database, never()).addOrUpdateEntries(anyCollection());
+            verify(database, never()).updateReviews(anyCollection());
+        } finally {
+            writeBehind.close();
+        }
+    }
+
+    @Test
+    void testPendingWritesKeepTheirUser() throws Exception {
+        //setup
+        AtomicReference<User> user = new AtomicReference<>();
+        doAnswer(invocation -> {
+            user.set(invocation.getArgument(0));
+            return null;
+        }).when(database).setUser(any());
+        when(database.getUser()).thenAnswer(invocation -> user.get());
+        CompletableFuture<Void> commit = new CompletableFuture<>();
+        when(database.addOrUpdateEntries(anyCollection())).thenReturn(commit);
+        User first = new UserEntry("first");
+        User second = new UserEntry("second");
+
+        WriteBehindDatabase writeBehind = new WriteBehindDatabase(database, 10, Duration.ofHours(1));
+        try {
+            writeBehind.setUser(first);
+            CompletableFuture<Void> firstWrite = writeBehind.addOrUpdateEntry(card("first", 1));
+
+            //exercise
+            writeBehind.setUser(second);
+            CompletableFuture<Void> secondWrite = writeBehind.addOrUpdateEntry(card("second", 1));
+            writeBehind.flush();
+
+            //verify
+            assertEquals(second, writeBehind.getUser());
+            assertEquals(first, user.get());
+            assertFalse(firstWrite.isDone());
+
+            commit.complete(null);
+            assertTrue(secondWrite.isDone());
+            InOrder order = inOrder(database);
+            order.verify(database).setUser(first);
+            order.verify(database).addOrUpdateEntries(anyCollection());
+            order.verify(database).setUser(second);
+            order.verify(database).addOrUpdateEntries(anyCollection());
+        } finally {
+            writeBehind.close();
+        }
+    }
+
+    @Test
+    void testFlushOnClose() throws Exception {
+        //setup
+        when(database.addOrUpdateEntries(anyCollection())).thenReturn(CompletableFuture.completedFuture(null));
+        WriteBehindDatabase writeBehind = new WriteBehindDatabase(database, 10, Duration.ofHours(1));
+        CompletableFuture<Void> write = writeBehind.addOrUpdateEntry(card("front", 1));
+
+        //exercise
+        writeBehind.close();
+
+        //verify
+        assertTrue(write.isDone());
+        verify(database).close();
+    }
+}
@@ -5,8 +5,12 @@ import static org.junit.jupiter.api.Assertions.*;
 import java.io.IOException;
 import java.io.InputStream;
 import java.time.Duration;
+import java.time.Clock;
 import java.time.Instant;
+import java.time.ZoneOffset;
 import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Collections;
 
 import coden.decks.core.data.Card;
 import coden.decks.core.data.SimpleCard;
@@ -94,4 +98,73 @@ class RevisionTest {
         assertEquals(11, revisor.getMaxLevel());
         assertEquals(0, revisor.getMinLevel());
     }
-}
\ No newline at end of file
+
+    @Test
+    void testSparseLevels() {
+        RevisionManagerImpl sparse = new RevisionManagerImpl(Arrays.asList(
+                new RevisionLevel(3, MINUTE),
+                new RevisionLevel(7, DAY)));
+
+        assertEquals(3, sparse.getMinLevel());
+        assertEquals(8, sparse.getMaxLevel());
+        assertEquals(MINUTE, sparse.getTimeToNextRevision(3));
+        assertEquals(DAY, sparse.getTimeToNextRevision(7));
+        assertThrows(RuntimeException.class, () -> sparse.getTimeToNextRevision(5));
+        assertThrows(RuntimeException.class, () -> sparse.getTimeToNextRevision(2));
+        assertThrows(RuntimeException.class, () -> sparse.getTimeToNextRevision(8));
+    }
+
+    @Test
+    void testSetRevisionLevels() {
+        RevisionManagerImpl manager = new RevisionManagerImpl(Collections.emptyList());
+        assertEquals(0, manager.getMinLevel());
+        assertEquals(0, manager.getMaxLevel());
+        assertThrows(RuntimeException.class, () -> manager.getTimeToNextRevision(0));
+
+        manager.setRevisionLevels(Arrays.asList(new RevisionLevel(0, HOUR), new RevisionLevel(1, WEEK)));
+        assertEquals(0, manager.getMinLevel());
+        assertEquals(2, manager.getMaxLevel());
+        assertEquals(HOUR, manager.getTimeToNextRevision(0));
+        assertEquals(WEEK, manager.getTimeToNextRevision(1));
+    }
+
+    @Test
+    void testEvaluate() {
+        Clock clock = Clock.fixed(BASE, ZoneOffset.UTC);
+        Card due = getCard(0, BASE.minus(HOUR));
+        Card overdue = getCard(1, BASE.minus(WEEK));
+        Card pending = getCard(2, BASE);
+
+        RevisionBatch batch = revisor.evaluate(Arrays.asList(pending, overdue, due), clock);
+
+        assertEquals(3, batch.size());
+        assertEquals(BASE.toEpochMilli(), batch.getNow());
+        assertEquals(BASE.plus(DAY).toEpochMilli(), batch.getNextRevision(0));
+        assertFalse(batch.isReady(0));
+        assertTrue(batch.isReady(1));
+        assertTrue(batch.isReady(2));
+        assertEquals(Arrays.asList(due, overdue), batch.getReadyCards());
+        assertEquals(Collections.singletonList(pending), batch.getPendingCards());
+        assertEquals(due, batch.getNextReadyCard());
+        assertEquals(Collections.singletonList(due), batch.getReadyCards(1));
+        assertEquals(Arrays.asList(due, overdue), batch.getReadyCards(5));
+        assertTrue(batch.getReadyCards(0).isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> batch.getReadyCards(-1));
+    }
+
+    @Test
+    void testSelectReadyCards() {
+        Card first = getCard(0);
+        Card second = getCard(0);
+        Card third = getCard(0);
+        Card pending = getCard(0);
+        RevisionBatch batch = new RevisionBatch(Arrays.asList(third, first, pending, second, first),
+                new long[]{10, 30, 100, 20, 30}, 50);
+
+        assertEquals(first, batch.getNextReadyCard());
+        assertEquals(Arrays.asList(first, first), batch.getReadyCards(2));
+        assertEquals(Arrays.asList(first, first, second), batch.getReadyCards(3));
+        assertEquals(batch.getReadyCards(), batch.getReadyCards(4));
+        assertNull(new RevisionBatch(Collections.singletonList(pending), new long[]{100}, 50).getNextReadyCard());
+    }
+}